@@ -0,0 +1,19 @@
+package org.howietkl.git;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler always on, so results include allocation rate
+ * per operation. Takes the usual JMH arguments, e.g. a benchmark regex or -p size=65536.
+ */
+public class Benchmarks {
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cmd = new CommandLineOptions(args);
+    new Runner(new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class).build()).run();
+  }
+
+}
@@ -0,0 +1,85 @@
+package org.howietkl.git;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pack entry header decoding: count headers of random type and size are decoded per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GitPackBenchmark {
+
+  @Param({"1024"})
+  int count;
+
+  @Param({"65536"})
+  int maxSize;
+
+  private ByteBuffer headers;
+  private ByteBuffer varInts;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    headers = ByteBuffer.allocate(count * 10);
+    varInts = ByteBuffer.allocate(count * 10);
+    for (int i = 0; i < count; i++) {
+      int type = 1 + random.nextInt(4);
+      int size = random.nextInt(maxSize);
+      // type and low 4 size bits, then 7 bits per byte
+      int b = (type << 4) | (size & 0x0f);
+      size >>>= 4;
+      while (size != 0) {
+        headers.put((byte) (b | 0x80));
+        b = size & 0x7f;
+        size >>>= 7;
+      }
+      headers.put((byte) b);
+
+      int value = random.nextInt(maxSize);
+      while (value >= 0x80) {
+        varInts.put((byte) (value | 0x80));
+        value >>>= 7;
+      }
+      varInts.put((byte) value);
+    }
+    headers.flip();
+    varInts.flip();
+  }
+
+  @Benchmark
+  public void getObjectInfo(Blackhole bh) {
+    ByteBuffer buf = headers.duplicate();
+    for (int i = 0; i < count; i++) {
+      bh.consume(GitPack.getObjectInfo(buf));
+    }
+  }
+
+  @Benchmark
+  public void getVarInt(Blackhole bh) {
+    ByteBuffer buf = varInts.duplicate();
+    for (int i = 0; i < count; i++) {
+      bh.consume(GitPack.getVarInt(buf));
+    }
+  }
+
+}
@@ -0,0 +1,83 @@
+package org.howietkl.git.command;
+
+import org.howietkl.git.TreeParser;
+import org.howietkl.git.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a tree of entries entries, into a list or by cursor, and serializing a commit with a messageLength message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandBenchmark {
+
+  @Param({"16", "1024"})
+  int entries;
+
+  @Param({"72"})
+  int messageLength;
+
+  private byte[] tree;
+  private CommitTreeCommand.Commit commit;
+
+  @Setup
+  public void setup() {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    for (int i = 0; i < entries; i++) {
+      String mode = i % 8 == 0 ? "40000 " : "100644 ";
+      buf.writeBytes((mode + "File" + i + ".java\0").getBytes(StandardCharsets.UTF_8));
+      buf.writeBytes(Utils.sha1(("entry" + i).getBytes(StandardCharsets.UTF_8)));
+    }
+    tree = buf.toByteArray();
+
+    commit = new CommitTreeCommand.Commit();
+    commit.treeSha = Utils.bytesToHex(Utils.sha1(tree));
+    commit.parentSha = Utils.bytesToHex(Utils.sha1(new byte[0]));
+    commit.message = "m".repeat(messageLength);
+  }
+
+  @Benchmark
+  public List<ReadTreeCommand.TreeObjectEntry> parseTree() {
+    return ReadTreeCommand.parseTree(tree, 0);
+  }
+
+  /**
+   * Walks the same tree by cursor, touching only modes and ids, as a recursive walk would.
+   */
+  @Benchmark
+  public int treeParser() {
+    int trees = 0;
+    TreeParser parser = new TreeParser(tree);
+    while (parser.next()) {
+      if (parser.isTree()) {
+        trees += parser.getId().getFirstByte();
+      }
+    }
+    return trees;
+  }
+
+  @Benchmark
+  public String commitSerialization() {
+    return commit.getCommit();
+  }
+
+}
@@ -0,0 +1,72 @@
+package org.howietkl.git.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Inflating and hashing an object of size bytes, and hex encoding a SHA-1.
+ * Data is half random, half repeated text, so it compresses about as well as source code.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UtilsBenchmark {
+
+  @Param({"1024", "65536"})
+  int size;
+
+  private byte[] data;
+  private ByteBuffer deflated;
+  private byte[] sha;
+
+  @Setup
+  public void setup() throws IOException {
+    Random random = new Random(42);
+    data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = i % 2 == 0 ? (byte) ('a' + random.nextInt(26)) : (byte) "public static void ".charAt(i % 19);
+    }
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    try (DeflaterOutputStream out = new DeflaterOutputStream(buf)) {
+      out.write(data);
+    }
+    deflated = ByteBuffer.wrap(buf.toByteArray());
+    sha = Utils.sha1(data);
+  }
+
+  @Benchmark
+  public byte[] getInflated() throws DataFormatException {
+    return Utils.getInflated(deflated.duplicate(), size);
+  }
+
+  @Benchmark
+  public byte[] sha1() {
+    return Utils.sha1(data);
+  }
+
+  @Benchmark
+  public String bytesToHex() {
+    return Utils.bytesToHex(sha);
+  }
+
+}
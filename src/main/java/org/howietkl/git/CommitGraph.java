@@ -0,0 +1,172 @@
+package org.howietkl.git;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Memory-mapped .git/objects/info/commit-graph, see {@link CommitGraphWriter} for the layout.
+ * Commits are addressed by their position in the sorted id table, so that a walk can follow
+ * parents, and read trees, generation numbers and commit times, without inflating a commit.
+ */
+public class CommitGraph {
+  private static final Logger LOG = LoggerFactory.getLogger(CommitGraph.class);
+  public static final int NO_PARENT = 0x70000000;
+  public static final int INFINITY = Integer.MAX_VALUE; // generation of a commit not in the graph
+  static final int EDGE_FLAG = 0x80000000;
+  static final int DATA_WIDTH = ObjectId.LENGTH + 16;
+
+  private final ByteBuffer graph;
+  private final int commitCount;
+  private final int fanoutOffset;
+  private final int idOffset;
+  private final int dataOffset;
+  private final int edgeOffset;
+
+  CommitGraph(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      graph = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    byte[] magic = new byte[4];
+    graph.get(0, magic);
+    if (!Arrays.equals(CommitGraphWriter.MAGIC, magic) || graph.get(4) != CommitGraphWriter.VERSION
+        || graph.get(5) != CommitGraphWriter.HASH_VERSION) {
+      throw new IOException("Unsupported commit-graph file=" + file);
+    }
+    int chunkCount = graph.get(6) & 0xff;
+    int fanout = -1, ids = -1, data = -1, edges = -1;
+    for (int i = 0; i < chunkCount; i++) {
+      int entry = CommitGraphWriter.HEADER_LENGTH + i * 12;
+      int offset = (int) graph.getLong(entry + 4);
+      switch (graph.getInt(entry)) {
+        case CommitGraphWriter.CHUNK_FANOUT -> fanout = offset;
+        case CommitGraphWriter.CHUNK_IDS -> ids = offset;
+        case CommitGraphWriter.CHUNK_DATA -> data = offset;
+        case CommitGraphWriter.CHUNK_EDGES -> edges = offset;
+        default -> { } // e.g. git's generation data and bloom filters, not used here
+      }
+    }
+    if (fanout < 0 || ids < 0 || data < 0) {
+      throw new IOException("commit-graph is missing required chunks file=" + file);
+    }
+    fanoutOffset = fanout;
+    idOffset = ids;
+    dataOffset = data;
+    edgeOffset = edges;
+    commitCount = graph.getInt(fanoutOffset + 255 * 4);
+  }
+
+  /**
+   * @return graph of the repository, or null if it has none or it cannot be read
+   */
+  public static CommitGraph open(File gitDir) {
+    File file = new File(gitDir, CommitGraphWriter.PATH);
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      return new CommitGraph(file);
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Ignoring commit-graph: {}", e.getMessage());
+      return null;
+    }
+  }
+
+  public int getCommitCount() {
+    return commitCount;
+  }
+
+  /**
+   * @return position of id, or -1 if the graph does not contain it
+   */
+  public int find(ObjectId id) {
+    byte[] sha = id.toBytes();
+    int first = sha[0] & 0xff;
+    int lo = first == 0 ? 0 : graph.getInt(fanoutOffset + (first - 1) * 4);
+    int hi = graph.getInt(fanoutOffset + first * 4);
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      int cmp = compare(mid, sha);
+      if (cmp < 0) {
+        lo = mid + 1;
+      } else if (cmp > 0) {
+        hi = mid;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  public ObjectId getId(int position) {
+    return ObjectId.fromBuffer(graph.slice(idOffset + position * ObjectId.LENGTH, ObjectId.LENGTH));
+  }
+
+  public ObjectId getTree(int position) {
+    return ObjectId.fromBuffer(graph.slice(dataOffset + position * DATA_WIDTH, ObjectId.LENGTH));
+  }
+
+  /**
+   * @return positions of the parents, in commit order
+   */
+  public int[] getParents(int position) {
+    int base = dataOffset + position * DATA_WIDTH + ObjectId.LENGTH;
+    int first = graph.getInt(base);
+    int second = graph.getInt(base + 4);
+    if (first == NO_PARENT) {
+      return new int[0];
+    }
+    if (second == NO_PARENT) {
+      return new int[]{first};
+    }
+    if ((second & EDGE_FLAG) == 0) {
+      return new int[]{first, second};
+    }
+    // octopus merge: the rest are listed in the edge chunk, the last one flagged
+    int edge = edgeOffset + (second & ~EDGE_FLAG) * 4;
+    int count = 1;
+    while ((graph.getInt(edge + (count - 1) * 4) & EDGE_FLAG) == 0) {
+      count++;
+    }
+    int[] parents = new int[count + 1];
+    parents[0] = first;
+    for (int i = 0; i < count; i++) {
+      parents[i + 1] = graph.getInt(edge + i * 4) & ~EDGE_FLAG;
+    }
+    return parents;
+  }
+
+  /**
+   * @return topological level: 1 for a root commit, otherwise one more than its highest parent
+   */
+  public int getGeneration(int position) {
+    return graph.getInt(dataOffset + position * DATA_WIDTH + ObjectId.LENGTH + 8) >>> 2;
+  }
+
+  /**
+   * @return committer timestamp in seconds since the epoch
+   */
+  public long getCommitTime(int position) {
+    long high = graph.getInt(dataOffset + position * DATA_WIDTH + ObjectId.LENGTH + 8) & 0x3L;
+    long low = graph.getInt(dataOffset + position * DATA_WIDTH + ObjectId.LENGTH + 12) & 0xffffffffL;
+    return (high << 32) | low;
+  }
+
+  private int compare(int position, byte[] sha) {
+    int base = idOffset + position * ObjectId.LENGTH;
+    for (int i = 0; i < ObjectId.LENGTH; i++) {
+      int cmp = Integer.compare(graph.get(base + i) & 0xff, sha[i] & 0xff);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return 0;
+  }
+
+}
@@ -0,0 +1,274 @@
+package org.howietkl.git;
+
+import org.howietkl.git.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes .git/objects/info/commit-graph in git's format, version 1:
+ * <pre>
+ * CGPH, version 1, hash version 1 (SHA-1), chunk count, 0 base graphs
+ * chunk table    - (id, offset) of each chunk, then (0, end of last chunk)
+ * OIDF[256]      - cumulative count of commits whose first id byte is <= i
+ * OIDL[n]        - sorted commit ids
+ * CDAT[n]        - root tree id, first and second parent position, then 30 bits of
+ *                  generation and 34 bits of commit time
+ * EDGE[m]        - third and later parents of octopus merges, whose second parent position is
+ *                  MSB set and index into this list; the last of each list has its MSB set
+ * checksum
+ * </pre>
+ * Commits already in the current graph are copied from it instead of being inflated again.
+ *
+ * @see <a href="https://git-scm.com/docs/gitformat-commit-graph">commit-graph format</a>
+ */
+public class CommitGraphWriter {
+  private static final Logger LOG = LoggerFactory.getLogger(CommitGraphWriter.class);
+  static final String PATH = "objects/info/commit-graph";
+  static final byte[] MAGIC = {'C', 'G', 'P', 'H'};
+  static final byte VERSION = 1;
+  static final byte HASH_VERSION = 1;
+  static final int HEADER_LENGTH = 8;
+  static final int CHUNK_FANOUT = 0x4f494446; // OIDF
+  static final int CHUNK_IDS = 0x4f49444c;    // OIDL
+  static final int CHUNK_DATA = 0x43444154;   // CDAT
+  static final int CHUNK_EDGES = 0x45444745;  // EDGE
+  static final int MAX_GENERATION = 0x3fffffff;
+
+  private record Commit(ObjectId tree, ObjectId[] parents, long commitTime) {
+  }
+
+  /**
+   * Writes a graph of every commit reachable from the refs and HEAD. As in git, a shallow
+   * repository gets none, since its commits' parents are not what the graph would say.
+   *
+   * @return the new graph file, or null if none was written
+   */
+  public static File write(File gitDir, ObjectDatabase db) throws IOException {
+    long start = System.nanoTime();
+    if (!ShallowFile.read(gitDir).isEmpty()) {
+      LOG.info("commit-graph not written for a shallow repository");
+      return null;
+    }
+    Map<ObjectId, Commit> commits = collect(gitDir, db);
+    if (commits.isEmpty()) {
+      return null;
+    }
+    ObjectId[] ids = commits.keySet().toArray(new ObjectId[0]);
+    Arrays.sort(ids);
+    Map<ObjectId, Integer> positions = new HashMap<>(ids.length * 2);
+    for (int i = 0; i < ids.length; i++) {
+      positions.put(ids[i], i);
+    }
+    int[][] parents = new int[ids.length][];
+    int edgeCount = 0;
+    for (int i = 0; i < ids.length; i++) {
+      ObjectId[] parentIds = commits.get(ids[i]).parents();
+      parents[i] = new int[parentIds.length];
+      for (int p = 0; p < parentIds.length; p++) {
+        Integer position = positions.get(parentIds[p]);
+        if (position == null) {
+          throw new IOException("Parent " + parentIds[p] + " of commit " + ids[i] + " not found");
+        }
+        parents[i][p] = position;
+      }
+      if (parentIds.length > 2) {
+        edgeCount += parentIds.length - 1;
+      }
+    }
+    int[] generations = generations(parents);
+
+    File file = new File(gitDir, PATH);
+    file.getParentFile().mkdirs();
+    File tmp = new File(file.getParentFile(), "tmp_commit_graph");
+    try {
+      writeFile(tmp, ids, commits, parents, generations, edgeCount);
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      tmp.delete(); // no-op once moved
+    }
+    LOG.info("commit-graph commits={} edges={} bytes={} ms={}", ids.length, edgeCount, file.length(),
+        (System.nanoTime() - start) / 1_000_000);
+    return file;
+  }
+
+  /**
+   * Walks from the refs and HEAD, peeling annotated tags. Refs to other objects are skipped.
+   */
+  private static Map<ObjectId, Commit> collect(File gitDir, ObjectDatabase db) throws IOException {
+    CommitGraph existing = CommitGraph.open(gitDir);
+    Map<ObjectId, Commit> commits = new HashMap<>();
+    Deque<ObjectId> pending = new ArrayDeque<>(Refs.list(gitDir, "refs/").values());
+    ObjectId head = Refs.read(gitDir, "HEAD");
+    if (head != null) {
+      pending.add(head);
+    }
+    int inflated = 0;
+    while (!pending.isEmpty()) {
+      ObjectId id = pending.removeFirst();
+      if (commits.containsKey(id)) {
+        continue;
+      }
+      Commit commit;
+      int position = existing != null ? existing.find(id) : -1;
+      if (position >= 0) {
+        int[] parentPositions = existing.getParents(position);
+        ObjectId[] parents = new ObjectId[parentPositions.length];
+        for (int i = 0; i < parents.length; i++) {
+          parents[i] = existing.getId(parentPositions[i]);
+        }
+        commit = new Commit(existing.getTree(position), parents, existing.getCommitTime(position));
+      } else {
+        GitObject gitObject = db.read(id);
+        if (gitObject == null) {
+          throw new IOException("Commit not found " + id);
+        }
+        inflated++;
+        if (gitObject.getInfo().getType() == GitObjectType.TAG) {
+          // "object <id>" first
+          pending.addFirst(ObjectId.fromHex(new String(gitObject.getData(), 7, ObjectId.HEX_LENGTH, StandardCharsets.US_ASCII)));
+          continue;
+        }
+        if (gitObject.getInfo().getType() != GitObjectType.COMMIT) {
+          continue;
+        }
+        CommitHeader header = CommitHeader.parse(gitObject.getData());
+        commit = new Commit(header.tree(), header.parents().toArray(new ObjectId[0]), header.commitTime());
+      }
+      commits.put(id, commit);
+      for (ObjectId parent : commit.parents()) {
+        pending.addFirst(parent);
+      }
+    }
+    LOG.debug("collect commits={} inflated={}", commits.size(), inflated);
+    return commits;
+  }
+
+  /**
+   * Topological levels, computed with an explicit stack since histories can be far deeper
+   * than the call stack.
+   */
+  static int[] generations(int[][] parents) {
+    int[] generations = new int[parents.length];
+    int[] stack = new int[parents.length];
+    for (int i = 0; i < parents.length; i++) {
+      if (generations[i] != 0) {
+        continue;
+      }
+      int top = 0;
+      stack[top++] = i;
+      while (top > 0) {
+        int commit = stack[top - 1];
+        if (generations[commit] != 0) {
+          top--;
+          continue;
+        }
+        int max = 0;
+        boolean ready = true;
+        for (int parent : parents[commit]) {
+          if (generations[parent] == 0) {
+            if (top == stack.length) {
+              stack = Arrays.copyOf(stack, stack.length * 2); // a commit can be pushed by several children
+            }
+            stack[top++] = parent;
+            ready = false;
+          } else {
+            max = Math.max(max, generations[parent]);
+          }
+        }
+        if (ready) {
+          generations[commit] = Math.min(max + 1, MAX_GENERATION);
+          top--;
+        }
+      }
+    }
+    return generations;
+  }
+
+  private static void writeFile(File file, ObjectId[] ids, Map<ObjectId, Commit> commits, int[][] parents,
+                                int[] generations, int edgeCount) throws IOException {
+    int chunkCount = edgeCount > 0 ? 4 : 3;
+    long fanoutOffset = HEADER_LENGTH + (chunkCount + 1) * 12L;
+    long idOffset = fanoutOffset + 256 * 4;
+    long dataOffset = idOffset + (long) ids.length * ObjectId.LENGTH;
+    long edgeOffset = dataOffset + (long) ids.length * CommitGraph.DATA_WIDTH;
+    long end = edgeOffset + edgeCount * 4L;
+
+    MessageDigest digest = Utils.newSha1();
+    try (DigestOutputStream digestOut = new DigestOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file), 1 << 16), digest);
+         DataOutputStream out = new DataOutputStream(digestOut)) {
+      out.write(MAGIC);
+      out.writeByte(VERSION);
+      out.writeByte(HASH_VERSION);
+      out.writeByte(chunkCount);
+      out.writeByte(0);
+      writeChunk(out, CHUNK_FANOUT, fanoutOffset);
+      writeChunk(out, CHUNK_IDS, idOffset);
+      writeChunk(out, CHUNK_DATA, dataOffset);
+      if (edgeCount > 0) {
+        writeChunk(out, CHUNK_EDGES, edgeOffset);
+      }
+      writeChunk(out, 0, end);
+
+      int[] fanout = new int[256];
+      for (ObjectId id : ids) {
+        fanout[id.getFirstByte()]++;
+      }
+      int count = 0;
+      for (int i = 0; i < 256; i++) {
+        count += fanout[i];
+        out.writeInt(count);
+      }
+      for (ObjectId id : ids) {
+        out.write(id.toBytes());
+      }
+
+      int edge = 0;
+      for (int i = 0; i < ids.length; i++) {
+        Commit commit = commits.get(ids[i]);
+        out.write(commit.tree().toBytes());
+        int[] commitParents = parents[i];
+        out.writeInt(commitParents.length > 0 ? commitParents[0] : CommitGraph.NO_PARENT);
+        if (commitParents.length > 2) {
+          out.writeInt(CommitGraph.EDGE_FLAG | edge);
+          edge += commitParents.length - 1;
+        } else {
+          out.writeInt(commitParents.length > 1 ? commitParents[1] : CommitGraph.NO_PARENT);
+        }
+        out.writeInt(generations[i] << 2 | (int) ((commit.commitTime() >>> 32) & 0x3));
+        out.writeInt((int) commit.commitTime());
+      }
+      for (int[] commitParents : parents) {
+        if (commitParents.length > 2) {
+          for (int p = 1; p < commitParents.length; p++) {
+            out.writeInt(p == commitParents.length - 1 ? commitParents[p] | CommitGraph.EDGE_FLAG : commitParents[p]);
+          }
+        }
+      }
+      out.flush();
+      out.write(digest.digest());
+    }
+  }
+
+  private static void writeChunk(DataOutputStream out, int id, long offset) throws IOException {
+    out.writeInt(id);
+    out.writeLong(offset);
+  }
+
+}
@@ -0,0 +1,55 @@
+package org.howietkl.git;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parts of a commit needed to walk history: root tree, parents and committer time.
+ * Parsing stops at the blank line before the message.
+ *
+ * @param commitTime committer timestamp in seconds since the epoch
+ */
+public record CommitHeader(ObjectId tree, List<ObjectId> parents, long commitTime) {
+
+  public static CommitHeader parse(byte[] data) {
+    ObjectId tree = null;
+    List<ObjectId> parents = new ArrayList<>(1);
+    long commitTime = 0;
+    int start = 0;
+    while (start < data.length && data[start] != '\n') {
+      int end = start;
+      while (end < data.length && data[end] != '\n') {
+        end++;
+      }
+      if (startsWith(data, start, "tree ")) {
+        tree = ObjectId.fromHex(new String(data, start + 5, ObjectId.HEX_LENGTH, StandardCharsets.US_ASCII));
+      } else if (startsWith(data, start, "parent ")) {
+        parents.add(ObjectId.fromHex(new String(data, start + 7, ObjectId.HEX_LENGTH, StandardCharsets.US_ASCII)));
+      } else if (startsWith(data, start, "committer ")) {
+        // "committer Name <email> 1700000000 +0000"
+        String line = new String(data, start, end - start, StandardCharsets.UTF_8);
+        String[] parts = line.substring(line.lastIndexOf('>') + 1).trim().split(" ");
+        commitTime = Long.parseLong(parts[0]);
+      }
+      start = end + 1;
+    }
+    if (tree == null) {
+      throw new IllegalStateException("Commit has no tree");
+    }
+    return new CommitHeader(tree, parents, commitTime);
+  }
+
+  private static boolean startsWith(byte[] data, int offset, String prefix) {
+    if (offset + prefix.length() > data.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (data[offset + i] != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
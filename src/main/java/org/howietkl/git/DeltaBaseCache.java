@@ -0,0 +1,55 @@
+package org.howietkl.git;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of resolved delta bases keyed by pack offset, bounded by the total bytes held
+ * rather than entry count, since a single large blob can outweigh thousands of small trees.
+ */
+public class DeltaBaseCache {
+  public static final long DEFAULT_LIMIT = 96L * 1024 * 1024; // same as git core.deltaBaseCacheLimit
+
+  private final long limit;
+  private final LinkedHashMap<Long, GitObject> entries = new LinkedHashMap<>(256, 0.75f, true);
+  private long size;
+
+  public DeltaBaseCache() {
+    this(DEFAULT_LIMIT);
+  }
+
+  public DeltaBaseCache(long limit) {
+    this.limit = limit;
+  }
+
+  public synchronized GitObject get(long offset) {
+    return entries.get(offset);
+  }
+
+  /**
+   * Objects larger than the whole budget are not cached at all.
+   */
+  public synchronized void put(long offset, GitObject object) {
+    int objectSize = object.getData().length;
+    if (objectSize > limit) {
+      return;
+    }
+    GitObject previous = entries.put(offset, object);
+    if (previous != null) {
+      size -= previous.getData().length;
+    }
+    size += objectSize;
+    Iterator<Map.Entry<Long, GitObject>> it = entries.entrySet().iterator();
+    while (size > limit && it.hasNext()) {
+      Map.Entry<Long, GitObject> eldest = it.next();
+      size -= eldest.getValue().getData().length;
+      it.remove();
+    }
+  }
+
+  public synchronized long getSize() {
+    return size;
+  }
+
+}
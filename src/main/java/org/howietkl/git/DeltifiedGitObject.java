@@ -1,18 +1,33 @@
 package org.howietkl.git;
 
 public class DeltifiedGitObject extends GitObject {
-  private byte[] sha;
+  private ObjectId baseId;
+  private long baseOffset = -1;
 
   DeltifiedGitObject(GitObjectInfo info) {
     super(info);
   }
 
-  public byte[] getSha() {
-    return sha;
+  /**
+   * @return id of the base object for REF_DELTA, null for OFS_DELTA
+   */
+  public ObjectId getBaseId() {
+    return baseId;
   }
 
-  public void setSha(byte[] sha) {
-    this.sha = sha;
+  public void setBaseId(ObjectId baseId) {
+    this.baseId = baseId;
+  }
+
+  /**
+   * @return pack position of the base object for OFS_DELTA, -1 for REF_DELTA
+   */
+  public long getBaseOffset() {
+    return baseOffset;
+  }
+
+  public void setBaseOffset(long baseOffset) {
+    this.baseOffset = baseOffset;
   }
 
 }
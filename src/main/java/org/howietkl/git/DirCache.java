@@ -0,0 +1,357 @@
+package org.howietkl.git;
+
+import org.howietkl.git.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The .git/index (DIRC version 2): stat data and blob SHA-1 per file, plus the TREE extension
+ * caching the SHA-1 of each directory's tree. Lets write-tree skip files whose stat data has
+ * not changed since they were last hashed.
+ * <pre>
+ * DIRC, version, entry count
+ * entry: ctime mtime (sec, nsec), dev, ino, mode, uid, gid, size, sha[20], flags[2], name\0, NUL padded to 8
+ * TREE extension: per directory "path\0entry_count subtree_count\nsha[20]"
+ * checksum
+ * </pre>
+ *
+ * @see <a href="https://git-scm.com/docs/index-format">index-format</a>
+ */
+public class DirCache {
+  private static final Logger LOG = LoggerFactory.getLogger(DirCache.class);
+
+  static final byte[] SIGNATURE = {'D', 'I', 'R', 'C'};
+  static final byte[] TREE_SIGNATURE = {'T', 'R', 'E', 'E'};
+  static final int VERSION = 2;
+  static final int ENTRY_FIXED_SIZE = 62;
+  static final int NAME_MASK = 0xfff;
+  public static final int REGULAR_FILE_MODE = 0100644;
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final Map<String, TreeEntry> trees = new ConcurrentHashMap<>();
+  private long timestamp;
+
+  public static class Entry {
+    int ctimeSeconds;
+    int ctimeNanos;
+    int mtimeSeconds;
+    int mtimeNanos;
+    int dev;
+    int ino;
+    int mode = REGULAR_FILE_MODE;
+    int uid;
+    int gid;
+    int size;
+    byte[] sha;
+    String path;
+
+    public String getPath() {
+      return path;
+    }
+
+    public byte[] getSha() {
+      return sha;
+    }
+
+    public void setSha(byte[] sha) {
+      this.sha = sha;
+    }
+
+    /**
+     * Stat data in the index is truncated to 32 bits, so compare the same way.
+     */
+    boolean isStatEqual(Entry other) {
+      return ctimeSeconds == other.ctimeSeconds && ctimeNanos == other.ctimeNanos
+          && mtimeSeconds == other.mtimeSeconds && mtimeNanos == other.mtimeNanos
+          && dev == other.dev && ino == other.ino && mode == other.mode
+          && uid == other.uid && gid == other.gid && size == other.size;
+    }
+  }
+
+  /**
+   * @param entryCount number of files (index entries) under this directory
+   * @param subtrees   number of immediate subdirectories
+   */
+  public record TreeEntry(int entryCount, int subtrees, byte[] sha) {
+  }
+
+  /**
+   * @param gitDir the .git directory
+   * @return index contents, or an empty index if there is none yet
+   */
+  public static DirCache read(File gitDir) throws IOException {
+    DirCache dirCache = new DirCache();
+    File indexFile = new File(gitDir, "index");
+    if (!indexFile.isFile()) {
+      return dirCache;
+    }
+    dirCache.timestamp = indexFile.lastModified();
+    ByteBuffer buf;
+    try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+      buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    int end = buf.limit() - 20;
+    MessageDigest digest = Utils.newSha1();
+    digest.update(buf.duplicate().limit(end));
+    byte[] checksum = new byte[20];
+    buf.get(end, checksum);
+    if (!MessageDigest.isEqual(checksum, digest.digest())) {
+      throw new IOException("Index checksum mismatch file=" + indexFile);
+    }
+
+    byte[] signature = new byte[4];
+    buf.get(signature);
+    int version = buf.getInt();
+    if (!Arrays.equals(SIGNATURE, signature) || version != VERSION) {
+      throw new IOException("Unsupported index version=" + version + " file=" + indexFile);
+    }
+    int count = buf.getInt();
+    for (int i = 0; i < count; i++) {
+      Entry entry = readEntry(buf);
+      dirCache.entries.put(entry.path, entry);
+    }
+    while (buf.position() < end) {
+      buf.get(signature);
+      int size = buf.getInt();
+      int next = buf.position() + size;
+      if (Arrays.equals(TREE_SIGNATURE, signature) && size > 0) {
+        dirCache.readTreeExtension(buf, "");
+      }
+      buf.position(next); // ignore extensions we don't know
+    }
+    LOG.debug("read index entries={} trees={}", dirCache.entries.size(), dirCache.trees.size());
+    return dirCache;
+  }
+
+  private static Entry readEntry(ByteBuffer buf) {
+    int start = buf.position();
+    Entry entry = new Entry();
+    entry.ctimeSeconds = buf.getInt();
+    entry.ctimeNanos = buf.getInt();
+    entry.mtimeSeconds = buf.getInt();
+    entry.mtimeNanos = buf.getInt();
+    entry.dev = buf.getInt();
+    entry.ino = buf.getInt();
+    entry.mode = buf.getInt();
+    entry.uid = buf.getInt();
+    entry.gid = buf.getInt();
+    entry.size = buf.getInt();
+    entry.sha = new byte[20];
+    buf.get(entry.sha);
+    int nameLength = buf.getShort() & NAME_MASK;
+    byte[] name = new byte[nameLength];
+    buf.get(name);
+    entry.path = new String(name, StandardCharsets.UTF_8);
+    buf.position(start + paddedEntryLength(nameLength));
+    return entry;
+  }
+
+  /**
+   * Nodes are stored pre-order, each followed by its subtrees.
+   */
+  private void readTreeExtension(ByteBuffer buf, String parent) {
+    String name = new String(readUntil(buf, (byte) 0), StandardCharsets.UTF_8);
+    String[] counts = new String(readUntil(buf, (byte) '\n'), StandardCharsets.US_ASCII).split(" ");
+    int entryCount = Integer.parseInt(counts[0]);
+    int subtrees = Integer.parseInt(counts[1]);
+    String path = join(parent, name);
+    if (entryCount >= 0) { // -1 marks an invalidated tree, which has no SHA-1
+      byte[] sha = new byte[20];
+      buf.get(sha);
+      trees.put(path, new TreeEntry(entryCount, subtrees, sha));
+    }
+    for (int i = 0; i < subtrees; i++) {
+      readTreeExtension(buf, path);
+    }
+  }
+
+  private static byte[] readUntil(ByteBuffer buf, byte terminator) {
+    int end = buf.position();
+    while (buf.get(end) != terminator) {
+      end++;
+    }
+    byte[] bytes = new byte[end - buf.position()];
+    buf.get(bytes);
+    buf.get(); // terminator
+    return bytes;
+  }
+
+  /**
+   * Writes to index.lock and renames it over the index, so readers never see a partial file.
+   */
+  public void write(File gitDir) throws IOException {
+    List<Entry> sorted = new ArrayList<>(entries.values());
+    sorted.sort((a, b) -> compareNames(a.path, b.path));
+
+    File lockFile = new File(gitDir, "index.lock");
+    MessageDigest digest = Utils.newSha1();
+    try (DigestOutputStream digestOut = new DigestOutputStream(
+        new BufferedOutputStream(new FileOutputStream(lockFile), 1 << 16), digest);
+         DataOutputStream out = new DataOutputStream(digestOut)) {
+      out.write(SIGNATURE);
+      out.writeInt(VERSION);
+      out.writeInt(sorted.size());
+      for (Entry entry : sorted) {
+        writeEntry(out, entry);
+      }
+      if (trees.containsKey("")) {
+        Map<String, List<String>> subtrees = new HashMap<>();
+        for (String path : trees.keySet()) {
+          if (!path.isEmpty()) {
+            int slash = path.lastIndexOf('/');
+            subtrees.computeIfAbsent(slash < 0 ? "" : path.substring(0, slash), k -> new ArrayList<>()).add(path);
+          }
+        }
+        subtrees.values().forEach(children -> children.sort(DirCache::compareNames));
+        ByteArrayOutputStream extension = new ByteArrayOutputStream();
+        writeTreeExtension(new DataOutputStream(extension), "", "", subtrees);
+        out.write(TREE_SIGNATURE);
+        out.writeInt(extension.size());
+        extension.writeTo(out);
+      }
+      out.flush();
+      digestOut.on(false);
+      out.write(digest.digest());
+    }
+    Files.move(lockFile.toPath(), new File(gitDir, "index").toPath(),
+        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    LOG.debug("write index entries={} trees={}", entries.size(), trees.size());
+  }
+
+  private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+    byte[] name = entry.path.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(entry.ctimeSeconds);
+    out.writeInt(entry.ctimeNanos);
+    out.writeInt(entry.mtimeSeconds);
+    out.writeInt(entry.mtimeNanos);
+    out.writeInt(entry.dev);
+    out.writeInt(entry.ino);
+    out.writeInt(entry.mode);
+    out.writeInt(entry.uid);
+    out.writeInt(entry.gid);
+    out.writeInt(entry.size);
+    out.write(entry.sha);
+    out.writeShort(Math.min(name.length, NAME_MASK));
+    out.write(name);
+    out.write(new byte[paddedEntryLength(name.length) - ENTRY_FIXED_SIZE - name.length]);
+  }
+
+  private void writeTreeExtension(DataOutputStream out, String path, String name,
+                                  Map<String, List<String>> subtrees) throws IOException {
+    TreeEntry tree = trees.get(path);
+    List<String> children = subtrees.getOrDefault(path, List.of());
+    out.write(name.getBytes(StandardCharsets.UTF_8));
+    out.write(0);
+    out.write((tree.entryCount() + " " + children.size() + "\n").getBytes(StandardCharsets.US_ASCII));
+    out.write(tree.sha());
+    for (String child : children) {
+      writeTreeExtension(out, child, child.substring(child.lastIndexOf('/') + 1), subtrees);
+    }
+  }
+
+  /**
+   * Entries are padded with 1 to 8 NULs so that each is a multiple of 8 bytes.
+   */
+  static int paddedEntryLength(int nameLength) {
+    return (ENTRY_FIXED_SIZE + nameLength + 8) & ~7;
+  }
+
+  /**
+   * Index order is by raw bytes of the path.
+   */
+  static int compareNames(String a, String b) {
+    return Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public static String join(String parent, String name) {
+    return parent.isEmpty() ? name : parent + "/" + name;
+  }
+
+  /**
+   * @return entry holding the current stat data of file, without a SHA-1
+   */
+  public static Entry stat(Path file, String path) throws IOException {
+    Entry entry = new Entry();
+    entry.path = path;
+    BasicFileAttributes basic = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    FileTime mtime = basic.lastModifiedTime();
+    entry.mtimeSeconds = (int) mtime.to(TimeUnit.SECONDS);
+    entry.mtimeNanos = (int) (mtime.to(TimeUnit.NANOSECONDS) % 1_000_000_000L);
+    entry.size = (int) basic.size();
+    try {
+      Map<String, Object> unix = Files.readAttributes(file, "unix:ctime,dev,ino,uid,gid", LinkOption.NOFOLLOW_LINKS);
+      FileTime ctime = (FileTime) unix.get("ctime");
+      entry.ctimeSeconds = (int) ctime.to(TimeUnit.SECONDS);
+      entry.ctimeNanos = (int) (ctime.to(TimeUnit.NANOSECONDS) % 1_000_000_000L);
+      entry.dev = (int) (long) (Long) unix.get("dev");
+      entry.ino = (int) (long) (Long) unix.get("ino");
+      entry.uid = (Integer) unix.get("uid");
+      entry.gid = (Integer) unix.get("gid");
+    } catch (UnsupportedOperationException e) {
+      // no unix view, mtime and size alone still catch most changes
+      FileTime ctime = basic.creationTime();
+      entry.ctimeSeconds = (int) ctime.to(TimeUnit.SECONDS);
+      entry.ctimeNanos = (int) (ctime.to(TimeUnit.NANOSECONDS) % 1_000_000_000L);
+    }
+    return entry;
+  }
+
+  /**
+   * A cached SHA-1 is only trusted if stat data matches and the file was not modified in the
+   * same instant the index was written ("racily clean"), since a later edit within that
+   * timestamp granularity would be invisible.
+   *
+   * @return cached entry for the file, or null if it must be rehashed
+   */
+  public Entry getUnchanged(Entry current) {
+    Entry cached = entries.get(current.path);
+    if (cached == null || !cached.isStatEqual(current)) {
+      return null;
+    }
+    long mtimeMillis = current.mtimeSeconds * 1000L + current.mtimeNanos / 1_000_000;
+    return mtimeMillis < timestamp ? cached : null;
+  }
+
+  public TreeEntry getTree(String path) {
+    return trees.get(path);
+  }
+
+  public void putEntry(Entry entry) {
+    entries.put(entry.path, entry);
+  }
+
+  public void putTree(String path, TreeEntry tree) {
+    trees.put(path, tree);
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+}
@@ -0,0 +1,148 @@
+package org.howietkl.git;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Picks the haves for a fetch: walks local history newest commit first, from every local ref,
+ * handing out batches that double in size each round. Once the server acknowledges a commit
+ * as common, none of its ancestors are offered, by whichever path they are reached, and after
+ * MAX_IN_VAIN haves without a new acknowledgment the negotiation gives up, as git does.
+ *
+ * @see <a href="https://git-scm.com/docs/protocol-v2#_fetch">protocol-v2 fetch</a>
+ */
+public class FetchNegotiator {
+  private static final Logger LOG = LoggerFactory.getLogger(FetchNegotiator.class);
+  static final int INITIAL_HAVES = 16;
+  static final int MAX_HAVES = 1024;
+  static final int MAX_IN_VAIN = 256;
+
+  private record Candidate(ObjectId id, long commitTime) {
+  }
+
+  private final GitObjectReader reader;
+  private final Set<ObjectId> shallow;
+  private final PriorityQueue<Candidate> queue =
+      new PriorityQueue<>((a, b) -> Long.compare(b.commitTime(), a.commitTime()));
+  private final Set<ObjectId> seen = new HashSet<>();
+  private final Map<ObjectId, List<ObjectId>> parentsOf = new HashMap<>();
+  // ancestors of common commits, which the server has too
+  private final Set<ObjectId> skip = new HashSet<>();
+  private final Set<ObjectId> queued = new HashSet<>();
+  // queued commits not in skip, i.e. still worth offering
+  private int pending;
+  private final Set<ObjectId> common = new LinkedHashSet<>();
+  private int batchSize = INITIAL_HAVES;
+  private int inVain;
+
+  /**
+   * @param tips    commits the local refs point to
+   * @param shallow local shallow commits, whose parents are not walked
+   */
+  public FetchNegotiator(GitObjectReader reader, Collection<ObjectId> tips, Set<ObjectId> shallow) throws IOException {
+    this.reader = reader;
+    this.shallow = shallow;
+    for (ObjectId tip : tips) {
+      push(tip);
+    }
+  }
+
+  /**
+   * @return next batch of haves, empty once local history is exhausted or not worth walking further
+   */
+  public List<ObjectId> nextHaves() throws IOException {
+    List<ObjectId> haves = new ArrayList<>();
+    if (!common.isEmpty() && inVain >= MAX_IN_VAIN) {
+      return haves;
+    }
+    // once only common commits are queued there is nothing left to offer
+    while (haves.size() < batchSize && pending > 0) {
+      ObjectId id = queue.poll().id();
+      queued.remove(id);
+      if (skip.contains(id)) {
+        // walked on, so that its ancestors reached by other paths are skipped too
+        markAncestors(id);
+      } else {
+        pending--;
+        haves.add(id);
+      }
+      if (!shallow.contains(id)) {
+        for (ObjectId parent : parentsOf.get(id)) {
+          push(parent);
+        }
+      }
+    }
+    inVain += haves.size();
+    batchSize = Math.min(batchSize * 2, MAX_HAVES);
+    LOG.debug("nextHaves haves={} common={} queued={}", haves.size(), common.size(), queue.size());
+    return haves;
+  }
+
+  /**
+   * @param acks commits the server acknowledged as common
+   */
+  public void ack(Set<ObjectId> acks) {
+    for (ObjectId id : acks) {
+      if (common.add(id)) {
+        inVain = 0;
+        markAncestors(id);
+      }
+    }
+  }
+
+  /**
+   * @return commits known to be common so far, to be sent again as haves in every request
+   */
+  public Set<ObjectId> getCommon() {
+    return common;
+  }
+
+  /**
+   * Adds the ancestors of id walked so far to skip, and its parents even if not walked yet.
+   */
+  private void markAncestors(ObjectId id) {
+    Deque<ObjectId> stack = new ArrayDeque<>(parentsOf.getOrDefault(id, List.of()));
+    while (!stack.isEmpty()) {
+      ObjectId ancestor = stack.pop();
+      if (skip.add(ancestor)) {
+        if (queued.contains(ancestor)) {
+          pending--;
+        }
+        if (!shallow.contains(ancestor)) {
+          stack.addAll(parentsOf.getOrDefault(ancestor, List.of()));
+        }
+      }
+    }
+  }
+
+  private void push(ObjectId id) throws IOException {
+    if (!seen.add(id)) {
+      return;
+    }
+    GitObject commit = reader.read(id);
+    if (commit == null || commit.getInfo().getType() != GitObjectType.COMMIT) {
+      return; // e.g. a ref to a tag or tree, or history cut off by a shallow clone
+    }
+    CommitHeader header = CommitHeader.parse(commit.getData());
+    parentsOf.put(id, header.parents());
+    queue.add(new Candidate(id, header.commitTime()));
+    queued.add(id);
+    if (!skip.contains(id)) {
+      pending++;
+    }
+  }
+
+}
@@ -0,0 +1,354 @@
+package org.howietkl.git;
+
+import org.howietkl.git.utils.Utils;
+import org.howietkl.git.utils.Zlib;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Verifies a repository in two passes:
+ * <ol>
+ *   <li>integrity: every loose and packed object is inflated, its type and size checked against
+ *   its header and its SHA-1 recomputed; packed entries are also checked against the CRC32 in
+ *   the index, and each pack against its trailing checksum</li>
+ *   <li>connectivity: every commit, tree and blob reachable from the refs and HEAD exists, and
+ *   commits and trees are what they are referred to as</li>
+ * </ol>
+ * Both passes run on a work-stealing {@link ForkJoinPool}, over batches of objects and over
+ * subtrees respectively, so they scale with the number of cores.
+ * <p>
+ * Parents of shallow commits are not required, nor, in a partial clone, any object referred to
+ * by an object in a .promisor pack, which the promisor remote still has, as git does.
+ */
+public class Fsck {
+  private static final Logger LOG = LoggerFactory.getLogger(Fsck.class);
+  public static final int DEFAULT_THREADS = Integer.getInteger("fsck.threads", Runtime.getRuntime().availableProcessors());
+  static final int BATCH_SIZE = 512;
+
+  private final File dir;
+  private final ObjectDatabase db;
+  private final PrintStream out;
+  private final int threads;
+  private final boolean isPartialClone;
+  private final LongAdder errors = new LongAdder();
+  private final AtomicLong checked = new AtomicLong();
+  private final AtomicInteger reportedPercent = new AtomicInteger();
+  private long total;
+  private long start;
+
+  /**
+   * @param dir repository root containing .git
+   * @param out where problems are reported, one per line
+   */
+  public Fsck(File dir, PrintStream out, int threads) throws IOException {
+    this.dir = dir;
+    this.db = ObjectDatabase.open(dir);
+    this.out = out;
+    this.threads = threads;
+    this.isPartialClone = GitConfig.read(new File(dir, ".git")).get("extensions.partialClone") != null;
+  }
+
+  /**
+   * @return number of problems found, 0 for a sound repository
+   */
+  public long run() throws IOException {
+    start = System.nanoTime();
+    List<Batch> batches = listBatches();
+    // each pack's trailing checksum is a pass over the whole file, so it runs alongside the batches
+    List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    for (PackFile pack : db.getPacks()) {
+      tasks.add(ForkJoinTask.adapt(() -> verifyChecksum(pack)));
+    }
+    tasks.add(new VerifyTask(batches, 0, batches.size()));
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      pool.invoke(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          invokeAll(tasks);
+        }
+      });
+      long verified = System.nanoTime();
+      LOG.info("fsck objects={} threads={} ms={} objectsPerSec={}", total, threads, (verified - start) / 1_000_000,
+          total * 1_000_000_000L / Math.max(1, verified - start));
+      long reachable = checkConnectivity(pool);
+      LOG.info("fsck reachable={} connectivityMs={}", reachable, (System.nanoTime() - verified) / 1_000_000);
+    } finally {
+      pool.shutdown();
+    }
+    return errors.sum();
+  }
+
+  private void error(String message) {
+    errors.increment();
+    synchronized (out) {
+      out.println(message);
+    }
+  }
+
+  /**
+   * A slice of one loose fanout directory, or of one pack's index positions.
+   */
+  private record Batch(String prefix, String[] names, PackFile pack, long[] sortedOffsets, int from, int to) {
+    int size() {
+      return to - from;
+    }
+  }
+
+  private List<Batch> listBatches() throws IOException {
+    List<Batch> batches = new ArrayList<>();
+    for (int fanout = 0; fanout < 256; fanout++) {
+      String prefix = Utils.bytesToHex(new byte[]{(byte) fanout});
+      String[] names = new File(dir, ".git/objects/" + prefix).list((d, name) -> ObjectId.isHex(prefix + name));
+      if (names != null) {
+        for (int from = 0; from < names.length; from += BATCH_SIZE) {
+          batches.add(new Batch(prefix, names, null, null, from, Math.min(names.length, from + BATCH_SIZE)));
+        }
+        total += names.length;
+      }
+    }
+    for (PackFile pack : db.getPacks()) {
+      PackIndex index = pack.getIndex();
+      int count = index.getObjectCount();
+      // an entry ends where the next one starts, which its CRC32 needs to know
+      long[] sortedOffsets = new long[count];
+      for (int i = 0; i < count; i++) {
+        sortedOffsets[i] = index.getOffset(i);
+      }
+      Arrays.sort(sortedOffsets);
+      for (int from = 0; from < count; from += BATCH_SIZE) {
+        batches.add(new Batch(null, null, pack, sortedOffsets, from, Math.min(count, from + BATCH_SIZE)));
+      }
+      total += count;
+    }
+    return batches;
+  }
+
+  private void verifyChecksum(PackFile pack) {
+    if (!pack.isChecksumValid()) {
+      error("error: " + pack.getFile().getName() + " checksum mismatch");
+    }
+  }
+
+  private class VerifyTask extends RecursiveAction {
+    private final List<Batch> batches;
+    private final int from;
+    private final int to;
+
+    VerifyTask(List<Batch> batches, int from, int to) {
+      this.batches = batches;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > 1) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new VerifyTask(batches, from, mid), new VerifyTask(batches, mid, to));
+        return;
+      }
+      Batch batch = batches.get(from);
+      for (int i = batch.from(); i < batch.to(); i++) {
+        if (batch.pack() == null) {
+          verifyLoose(batch.prefix(), batch.names()[i]);
+        } else {
+          verifyPacked(batch.pack(), batch.sortedOffsets(), i);
+        }
+      }
+      reportProgress(checked.addAndGet(batch.size()));
+    }
+  }
+
+  private void verifyLoose(String prefix, String name) {
+    File file = new File(dir, ".git/objects/" + prefix + "/" + name);
+    Inflater inflater = Zlib.borrowInflater();
+    try (InputStream in = new InflaterInputStream(new FileInputStream(file), inflater)) {
+      GitObject gitObject = ObjectDatabase.parseLoose(in.readAllBytes());
+      verify(gitObject, prefix + name, file.getPath());
+    } catch (IOException | RuntimeException e) {
+      error("error: " + prefix + name + ": object corrupt or missing: " + file.getPath() + " (" + e.getMessage() + ")");
+    } finally {
+      Zlib.release(inflater);
+    }
+  }
+
+  private void verifyPacked(PackFile pack, long[] sortedOffsets, int position) {
+    PackIndex index = pack.getIndex();
+    String hex = Utils.bytesToHex(index.getSha(position));
+    long offset = index.getOffset(position);
+    int next = Arrays.binarySearch(sortedOffsets, offset) + 1;
+    long end = next < sortedOffsets.length ? sortedOffsets[next] : pack.getLength() - 20;
+    if (pack.crc32(offset, end) != index.getCrc(position)) {
+      error("error: " + hex + ": crc32 mismatch in " + pack.getFile().getName());
+      return;
+    }
+    try {
+      verify(pack.readAt(offset), hex, pack.getFile().getName());
+    } catch (Exception e) {
+      error("error: " + hex + ": object corrupt in " + pack.getFile().getName() + " (" + e.getMessage() + ")");
+    }
+  }
+
+  private void verify(GitObject gitObject, String hex, String where) {
+    switch (gitObject.getInfo().getType()) {
+      case COMMIT, TREE, BLOB, TAG -> {
+      }
+      default -> {
+        error("error: " + hex + ": invalid object type " + gitObject.getInfo().getType() + " in " + where);
+        return;
+      }
+    }
+    if (!hex.equals(Utils.bytesToHex(GitPack.getObjectSha(gitObject)))) {
+      error("error: sha1 mismatch " + hex + " in " + where);
+    }
+  }
+
+  private void reportProgress(long done) {
+    int percent = (int) (done * 100 / Math.max(1, total));
+    int reported = reportedPercent.get();
+    if (percent >= reported + 10 && reportedPercent.compareAndSet(reported, percent)) {
+      long nanos = System.nanoTime() - start;
+      LOG.info("Checking objects: {}% ({}/{}) objectsPerSec={}", percent, done, total,
+          done * 1_000_000_000L / Math.max(1, nanos));
+    }
+  }
+
+  /**
+   * Walks commits from every ref, then their trees in parallel, each object at most once.
+   *
+   * @return number of reachable objects
+   */
+  private long checkConnectivity(ForkJoinPool pool) throws IOException {
+    File gitDir = new File(dir, ".git");
+    Set<ObjectId> shallow = ShallowFile.read(gitDir);
+    Set<ObjectId> seen = ConcurrentHashMap.newKeySet();
+    List<ObjectId> pending = new ArrayList<>(new LinkedHashSet<>(Refs.list(gitDir, "refs/").values()));
+    ObjectId head = Refs.read(gitDir, "HEAD");
+    if (head != null) {
+      pending.add(head);
+    }
+    // commits from a promisor pack promise their parents and tree, which need not be local
+    Set<ObjectId> promised = new HashSet<>();
+    List<TreeTask> trees = new ArrayList<>();
+    while (!pending.isEmpty()) {
+      ObjectId id = pending.removeLast();
+      if (!seen.add(id)) {
+        continue;
+      }
+      GitObject commit = readExisting(id, "commit", promised.contains(id));
+      if (commit == null) {
+        continue;
+      }
+      if (commit.getInfo().getType() != GitObjectType.COMMIT) {
+        continue; // e.g. a ref to a tag or blob, which has been verified and needs no walking
+      }
+      CommitHeader header = CommitHeader.parse(commit.getData());
+      boolean isPromisor = isPromisor(id);
+      if (seen.add(header.tree())) {
+        trees.add(new TreeTask(header.tree(), seen, isPromisor));
+      }
+      if (!shallow.contains(id)) {
+        pending.addAll(header.parents());
+        if (isPromisor) {
+          promised.addAll(header.parents());
+        }
+      }
+    }
+    pool.invoke(new RecursiveAction() {
+      @Override
+      protected void compute() {
+        invokeAll(trees);
+      }
+    });
+    return seen.size();
+  }
+
+  private class TreeTask extends RecursiveAction {
+    private final ObjectId id;
+    private final Set<ObjectId> seen;
+    private final boolean isPromised;
+
+    TreeTask(ObjectId id, Set<ObjectId> seen, boolean isPromised) {
+      this.id = id;
+      this.seen = seen;
+      this.isPromised = isPromised;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        GitObject tree = readExisting(id, "tree", isPromised);
+        if (tree == null) {
+          return;
+        }
+        if (tree.getInfo().getType() != GitObjectType.TREE) {
+          error("error: " + id + ": expected tree, found " + tree.getInfo().getType().getHeading());
+          return;
+        }
+        boolean isPromisor = isPromisor(id);
+        List<TreeTask> subtrees = new ArrayList<>();
+        TreeParser parser = new TreeParser(tree.getData());
+        while (parser.next()) {
+          ObjectId entry = parser.getId();
+          if (parser.getMode() == TreeParser.MODE_GITLINK || !seen.add(entry)) {
+            continue; // submodule commits live in another repository
+          }
+          if (parser.isTree()) {
+            subtrees.add(new TreeTask(entry, seen, isPromisor));
+          } else if (!db.contains(entry) && !isPromisor) {
+            error("error: missing blob " + entry);
+          }
+        }
+        invokeAll(subtrees);
+      } catch (IOException e) {
+        error("error: " + id + ": cannot read tree (" + e.getMessage() + ")");
+      }
+    }
+  }
+
+  /**
+   * @return whether the objects id refers to are promised, i.e. id is in a partial clone's promisor pack
+   */
+  private boolean isPromisor(ObjectId id) throws IOException {
+    return isPartialClone && db.isInPromisorPack(id);
+  }
+
+  /**
+   * Reads an object only if it is local, so that a partial clone does not fetch it.
+   *
+   * @param isPromised whether it is referred to from a promisor pack
+   * @return object, or null if missing, which is reported unless promised
+   */
+  private GitObject readExisting(ObjectId id, String expectedType, boolean isPromised) throws IOException {
+    if (!db.contains(id)) {
+      if (!isPromised) {
+        error("error: missing " + expectedType + " " + id);
+      }
+      return null;
+    }
+    return db.read(id);
+  }
+
+}
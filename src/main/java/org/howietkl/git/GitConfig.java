@@ -0,0 +1,197 @@
+package org.howietkl.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal reader and writer for .git/config. Keys are addressed as git does on the command
+ * line: "core.compression", or "remote.origin.url" for a section with a subsection.
+ * Section and key names are case-insensitive, subsections are not.
+ * <p>
+ * The file is kept as its lines, so that writing it back after {@link #set} changes only the
+ * line set, leaving comments, formatting and other values, including multi-valued keys such
+ * as remote.origin.fetch, as they were.
+ */
+public class GitConfig {
+  private final File file;
+  private final List<Line> lines = new ArrayList<>();
+
+  /**
+   * @param section normalized section in effect at this line, null before the first header
+   * @param key     normalized key if this line sets one, otherwise null
+   */
+  private record Line(String text, String section, String key, String value) {
+  }
+
+  private GitConfig(File file) {
+    this.file = file;
+  }
+
+  /**
+   * @param gitDir the .git directory
+   * @return config, empty if the file does not exist
+   */
+  public static GitConfig read(File gitDir) throws IOException {
+    GitConfig config = new GitConfig(new File(gitDir, "config"));
+    if (!config.file.isFile()) {
+      return config;
+    }
+    String section = null;
+    for (String text : Files.readAllLines(config.file.toPath(), StandardCharsets.UTF_8)) {
+      String line = text.trim();
+      if (line.isEmpty() || line.startsWith("#") || line.startsWith(";")) {
+        config.lines.add(new Line(text, section, null, null));
+        continue;
+      }
+      if (line.startsWith("[")) {
+        String header = line.substring(1, line.indexOf(']'));
+        int quote = header.indexOf('"');
+        section = quote < 0
+            ? header.trim().toLowerCase()
+            : header.substring(0, quote).trim().toLowerCase() + "." + header.substring(quote + 1, header.lastIndexOf('"'));
+        config.lines.add(new Line(text, section, null, null));
+      } else if (section != null) {
+        int eq = line.indexOf('=');
+        String name = (eq < 0 ? line : line.substring(0, eq)).trim().toLowerCase();
+        String value = eq < 0 ? "true" : line.substring(eq + 1).trim();
+        if (value.startsWith("\"")) {
+          value = value.substring(1, Math.max(1, value.lastIndexOf('"')));
+        } else {
+          value = stripComment(value);
+        }
+        config.lines.add(new Line(text, section, section + "." + name, value));
+      } else {
+        config.lines.add(new Line(text, null, null, null));
+      }
+    }
+    return config;
+  }
+
+  /**
+   * @return last value of key, as git config --get, or null if not set
+   */
+  public String get(String key) {
+    String normalized = normalize(key);
+    String value = null;
+    for (Line line : lines) {
+      if (normalized.equals(line.key())) {
+        value = line.value();
+      }
+    }
+    return value;
+  }
+
+  /**
+   * @return every value of a multi-valued key such as remote.origin.fetch, in file order
+   */
+  public List<String> getAll(String key) {
+    String normalized = normalize(key);
+    List<String> values = new ArrayList<>();
+    for (Line line : lines) {
+      if (normalized.equals(line.key())) {
+        values.add(line.value());
+      }
+    }
+    return values;
+  }
+
+  public int getInt(String key, int defaultValue) {
+    return Math.toIntExact(getLong(key, defaultValue));
+  }
+
+  /**
+   * Accepts git's k, m and g suffixes, e.g. "256m".
+   */
+  public long getLong(String key, long defaultValue) {
+    String value = get(key);
+    return value == null ? defaultValue : parseLong(value);
+  }
+
+  public static long parseLong(String value) {
+    long unit = switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+      case 'k' -> 1L << 10;
+      case 'm' -> 1L << 20;
+      case 'g' -> 1L << 30;
+      default -> 1;
+    };
+    return Long.parseLong(unit == 1 ? value : value.substring(0, value.length() - 1)) * unit;
+  }
+
+  /**
+   * Replaces the last line setting key, or adds one at the end of its section, adding the
+   * section if there is none.
+   */
+  public void set(String key, String value) {
+    String normalized = normalize(key);
+    int dot = normalized.lastIndexOf('.');
+    String section = normalized.substring(0, dot);
+    Line line = new Line("\t" + key.substring(key.lastIndexOf('.') + 1) + " = " + quote(value), section, normalized, value);
+    int last = -1;
+    int sectionEnd = -1;
+    for (int i = 0; i < lines.size(); i++) {
+      if (normalized.equals(lines.get(i).key())) {
+        last = i;
+      }
+      if (section.equals(lines.get(i).section()) && !lines.get(i).text().isBlank()) {
+        sectionEnd = i;
+      }
+    }
+    if (last >= 0) {
+      lines.set(last, line);
+    } else if (sectionEnd >= 0) {
+      lines.add(sectionEnd + 1, line);
+    } else {
+      int sub = section.indexOf('.');
+      String header = "[" + (sub < 0 ? section : section.substring(0, sub) + " \"" + section.substring(sub + 1) + "\"") + "]";
+      lines.add(new Line(header, section, null, null));
+      lines.add(line);
+    }
+  }
+
+  /**
+   * Writes the lines back, via a temporary file renamed into place.
+   */
+  public void write() throws IOException {
+    StringBuilder out = new StringBuilder();
+    for (Line line : lines) {
+      out.append(line.text()).append('\n');
+    }
+    File lock = new File(file.getParentFile(), "config.lock");
+    Files.writeString(lock.toPath(), out, StandardCharsets.UTF_8);
+    Files.move(lock.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static String quote(String value) {
+    boolean needsQuotes = value.isEmpty() || value.contains("#") || value.contains(";")
+        || !value.equals(value.trim());
+    return needsQuotes ? "\"" + value + "\"" : value;
+  }
+
+  private static String stripComment(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == ';' || c == '#') {
+        return value.substring(0, i).trim();
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Lower-cases the section and key name, leaving any subsection as is.
+   */
+  static String normalize(String key) {
+    int first = key.indexOf('.');
+    int last = key.lastIndexOf('.');
+    if (first == last) {
+      return key.toLowerCase();
+    }
+    return key.substring(0, first).toLowerCase() + key.substring(first, last + 1) + key.substring(last + 1).toLowerCase();
+  }
+
+}
@@ -0,0 +1,238 @@
+package org.howietkl.git;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Applies git delta instructions to a base object, and creates them via an {@link Index} of the base.
+ * <p>
+ * A delta starts with the base and result sizes as little-endian varints, followed by instructions:
+ * <pre>
+ * copy:   0b1xxxxxxx [offset bytes] [size bytes] - bits 0-3 select offset bytes, bits 4-6 size bytes
+ * insert: 0b0nnnnnnn [n literal bytes]           - n in 1..127
+ * </pre>
+ * A copy size of 0 means 0x10000.
+ *
+ * @see <a href="https://git-scm.com/docs/pack-format#_deltified_representation">deltified representation</a>
+ */
+public class GitDelta {
+  static final int COPY_MASK = 0b10000000;
+  static final int DEFAULT_COPY_SIZE = 0x10000;
+
+  public static byte[] apply(byte[] base, byte[] delta) {
+    ByteBuffer buf = ByteBuffer.wrap(delta);
+    int baseSize = GitPack.getVarInt(buf);
+    if (baseSize != base.length) {
+      throw new IllegalStateException("Delta base size mismatch expected=" + baseSize + " actual=" + base.length);
+    }
+    int resultSize = GitPack.getVarInt(buf);
+    byte[] result = new byte[resultSize];
+    int pos = 0;
+
+    while (buf.hasRemaining()) {
+      int op = buf.get() & 0xff;
+      if ((op & COPY_MASK) != 0) {
+        int offset = 0;
+        for (int i = 0; i < 4; i++) {
+          if ((op & (1 << i)) != 0) {
+            offset |= (buf.get() & 0xff) << (8 * i);
+          }
+        }
+        int size = 0;
+        for (int i = 0; i < 3; i++) {
+          if ((op & (1 << (4 + i))) != 0) {
+            size |= (buf.get() & 0xff) << (8 * i);
+          }
+        }
+        if (size == 0) {
+          size = DEFAULT_COPY_SIZE;
+        }
+        if (offset < 0 || offset + size > base.length || pos + size > resultSize) {
+          throw new IllegalStateException("Delta copy out of bounds offset=" + offset + " size=" + size);
+        }
+        System.arraycopy(base, offset, result, pos, size);
+        pos += size;
+      } else if (op != 0) {
+        if (pos + op > resultSize) {
+          throw new IllegalStateException("Delta insert out of bounds size=" + op);
+        }
+        buf.get(result, pos, op);
+        pos += op;
+      } else {
+        throw new IllegalStateException("Reserved delta instruction 0");
+      }
+    }
+    if (pos != resultSize) {
+      throw new IllegalStateException("Delta result size mismatch expected=" + resultSize + " actual=" + pos);
+    }
+    return result;
+  }
+
+  /**
+   * Rolling-hash index of a base object, built once and then used to encode deltas of any
+   * number of targets against it. Every BLOCK bytes of the base are hashed; the target is
+   * scanned with a rolling hash over the same window, and each hit is verified and extended
+   * forward, and backward over bytes not yet emitted, into a copy instruction.
+   */
+  public static class Index {
+    static final int BLOCK = 16;
+    static final int MAX_CHAIN = 64; // candidates tried per hash, bounds runs of repeated blocks
+    static final int MAX_COPY = 0x10000;
+    static final int MAX_INSERT = 0x7f;
+    private static final int PRIME = 0x01000193;
+    private static final int POW; // PRIME^(BLOCK - 1), to roll the oldest byte out
+
+    static {
+      int pow = 1;
+      for (int i = 1; i < BLOCK; i++) {
+        pow *= PRIME;
+      }
+      POW = pow;
+    }
+
+    private final byte[] base;
+    private final int mask;
+    private final int[] heads; // bucket -> block number + 1, 0 for none
+    private final int[] next;  // block number -> next block number + 1 in the same bucket
+
+    public Index(byte[] base) {
+      this.base = base;
+      int blocks = base.length / BLOCK;
+      int buckets = Integer.highestOneBit(Math.max(1, blocks) * 2 - 1) << 1;
+      mask = buckets - 1;
+      heads = new int[buckets];
+      next = new int[blocks];
+      // later blocks first, so that chains list the earliest match first
+      for (int block = blocks - 1; block >= 0; block--) {
+        int bucket = bucket(hash(base, block * BLOCK));
+        next[block] = heads[bucket];
+        heads[bucket] = block + 1;
+      }
+    }
+
+    /**
+     * @return approximate heap used by the base and index
+     */
+    public long getMemoryUsage() {
+      return base.length + 4L * (heads.length + next.length);
+    }
+
+    /**
+     * @param maxSize largest delta worth having, e.g. to beat a delta already found
+     * @return delta turning the base into target, or null if it would exceed maxSize
+     */
+    public byte[] encode(byte[] target, int maxSize) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(Math.max(maxSize, 16), target.length + 16));
+      writeVarInt(out, base.length);
+      writeVarInt(out, target.length);
+      int pending = 0; // start of bytes not yet emitted
+      int i = 0;
+      int hash = target.length >= BLOCK ? hash(target, 0) : 0;
+      while (i + BLOCK <= target.length) {
+        int bestOffset = 0;
+        int bestLength = 0;
+        int chain = 0;
+        for (int entry = heads[bucket(hash)]; entry != 0 && chain < MAX_CHAIN; entry = next[entry - 1], chain++) {
+          int offset = (entry - 1) * BLOCK;
+          int length = matchLength(offset, target, i);
+          if (length > bestLength) {
+            bestOffset = offset;
+            bestLength = length;
+          }
+        }
+        if (bestLength < BLOCK) {
+          if (i + BLOCK < target.length) {
+            hash = (hash - (target[i] & 0xff) * POW) * PRIME + (target[i + BLOCK] & 0xff);
+          }
+          i++;
+        } else {
+          while (bestOffset > 0 && i > pending && base[bestOffset - 1] == target[i - 1]) {
+            bestOffset--;
+            i--;
+            bestLength++;
+          }
+          writeInserts(out, target, pending, i);
+          writeCopies(out, bestOffset, bestLength);
+          i += bestLength;
+          pending = i;
+          if (i + BLOCK <= target.length) {
+            hash = hash(target, i);
+          }
+        }
+        if (out.size() + (i - pending) > maxSize) {
+          return null;
+        }
+      }
+      writeInserts(out, target, pending, target.length);
+      return out.size() > maxSize ? null : out.toByteArray();
+    }
+
+    private int matchLength(int offset, byte[] target, int from) {
+      int max = Math.min(base.length - offset, target.length - from);
+      int n = 0;
+      while (n < max && base[offset + n] == target[from + n]) {
+        n++;
+      }
+      return n;
+    }
+
+    private int bucket(int hash) {
+      return (hash ^ (hash >>> 15)) & mask;
+    }
+
+    private static int hash(byte[] data, int from) {
+      int hash = 0;
+      for (int i = from; i < from + BLOCK; i++) {
+        hash = hash * PRIME + (data[i] & 0xff);
+      }
+      return hash;
+    }
+
+    private static void writeInserts(ByteArrayOutputStream out, byte[] data, int from, int to) {
+      while (from < to) {
+        int n = Math.min(MAX_INSERT, to - from);
+        out.write(n);
+        out.write(data, from, n);
+        from += n;
+      }
+    }
+
+    private static void writeCopies(ByteArrayOutputStream out, int offset, int length) {
+      while (length > 0) {
+        int size = Math.min(MAX_COPY, length);
+        int op = COPY_MASK;
+        byte[] args = new byte[7];
+        int n = 0;
+        for (int i = 0; i < 4; i++) {
+          int b = (offset >>> (8 * i)) & 0xff;
+          if (b != 0) {
+            op |= 1 << i;
+            args[n++] = (byte) b;
+          }
+        }
+        if (size != DEFAULT_COPY_SIZE) { // 0x10000 is encoded as no size bytes
+          for (int i = 0; i < 3; i++) {
+            int b = (size >>> (8 * i)) & 0xff;
+            if (b != 0) {
+              op |= 1 << (4 + i);
+              args[n++] = (byte) b;
+            }
+          }
+        }
+        out.write(op);
+        out.write(args, 0, n);
+        offset += size;
+        length -= size;
+      }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+      while ((value & ~GitPack.VARINT_7BIT_MASK) != 0) {
+        out.write((value & GitPack.VARINT_7BIT_MASK) | GitPack.VARINT_CONTINUE_MASK);
+        value >>>= 7;
+      }
+      out.write(value);
+    }
+  }
+
+}
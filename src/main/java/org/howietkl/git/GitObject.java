@@ -3,6 +3,10 @@ package org.howietkl.git;
 public class GitObject {
   private GitObjectInfo info;
   private byte[] data;
+  private byte[] sha;
+  private long offset;
+  private long dataOffset;
+  private int crc;
 
   GitObject(GitObjectInfo info) {
     this.info = info;
@@ -25,6 +29,50 @@ public class GitObject {
     this.data = data;
   }
 
+  /**
+   * @return SHA-1 of this object, null until it is known (e.g. an unresolved delta)
+   */
+  public byte[] getSha() {
+    return sha;
+  }
+
+  public void setSha(byte[] sha) {
+    this.sha = sha;
+  }
+
+  /**
+   * @return position of the object header within its pack
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  public void setOffset(long offset) {
+    this.offset = offset;
+  }
+
+  /**
+   * @return position of the compressed data within its pack, just past the header
+   */
+  public long getDataOffset() {
+    return dataOffset;
+  }
+
+  public void setDataOffset(long dataOffset) {
+    this.dataOffset = dataOffset;
+  }
+
+  /**
+   * @return CRC32 of the packed representation (header and compressed data), as stored in the idx
+   */
+  public int getCrc() {
+    return crc;
+  }
+
+  public void setCrc(int crc) {
+    this.crc = crc;
+  }
+
   public void populate(String sha1) {
 
   }
@@ -0,0 +1,30 @@
+package org.howietkl.git;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Source of inflated objects by object id.
+ */
+public interface GitObjectReader {
+
+  /**
+   * @return object with its type, size and data (without the "type size\0" header), or null if not found
+   */
+  GitObject read(ObjectId id) throws IOException;
+
+  /**
+   * @param sha 40 character hex SHA-1
+   */
+  default GitObject read(String sha) throws IOException {
+    return read(ObjectId.fromHex(sha));
+  }
+
+  /**
+   * Hint that these objects are about to be read, so a reader that has to fetch missing
+   * objects can do so in bulk rather than one at a time.
+   */
+  default void prefetch(Collection<ObjectId> ids) throws IOException {
+  }
+
+}
@@ -1,112 +1,134 @@
 package org.howietkl.git;
 
-import org.howietkl.git.command.ReadTreeCommand;
-import org.howietkl.git.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.zip.InflaterInputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class GitObjectRepository {
   private static final Logger LOG = LoggerFactory.getLogger(GitObjectRepository.class);
 
-  public static void populateFromCommit(File dir, String sha) throws IOException {
-    dir.mkdirs();
-    LOG.info("populateFromCommit created dir={} sha={}", dir.getAbsolutePath(), sha);
-
-    String path = Utils.getPath(sha);
-    File filePath = new File(dir, path);
-    try (FileInputStream fis = new FileInputStream(filePath);
-         InputStream in = new InflaterInputStream(fis);
-         InputStreamReader isr = new InputStreamReader(in, StandardCharsets.UTF_8);
-         BufferedReader reader = new BufferedReader(isr);) {
+  public static final int DEFAULT_CHECKOUT_WORKERS = Integer.getInteger("checkout.workers", 64);
 
-      // read header
-      int b;
-      ByteArrayOutputStream buf = new ByteArrayOutputStream();
-      while ((b = reader.read()) != 0) {
-        buf.write(b);
-      }
-      String[] header = buf.toString(StandardCharsets.UTF_8).split(" ");
-      GitObjectInfo info = new GitObjectInfo();
-      info.setType(GitObjectType.parse(header[0]));
-      info.setSize(Integer.parseInt(header[1]));
-      assert info.getType() == GitObjectType.COMMIT: "Expecting COMMIT, but got " + info.getType();
+  private record BlobEntry(File file, ObjectId id) {
+  }
 
-      // look for TREE in commit
-      String rootTreeSha = null;
-      String line;
-      while ((line = reader.readLine()) != null) {
-        String[] lineParts = line.split(" ");
-        if ("tree".equals(lineParts[0])) {
-          rootTreeSha = lineParts[1];
-          LOG.debug("populateFromCommit found rootTreeSha={}", rootTreeSha);
-          break;
-        }
-      }
-      if (rootTreeSha == null) {
-        throw new IllegalStateException("Could not find root tree sha");
-      }
-      populateTree(dir, dir, rootTreeSha);
-    }
+  /**
+   * @param dir    repository root to check out into
+   * @param id     commit to check out
+   * @param reader source of the commit, its trees and blobs
+   */
+  public static void populateFromCommit(File dir, ObjectId id, GitObjectReader reader) throws IOException {
+    populateFromCommit(dir, id, reader, DEFAULT_CHECKOUT_WORKERS);
   }
 
-  private static void populateTree(File gitRoot, File dir, String sha) throws IOException {
+  /**
+   * Checks out in two phases: walk the trees creating every directory and collecting blobs,
+   * then write the blobs concurrently on virtual threads. Blobs are announced to the reader
+   * via prefetch before any is read.
+   *
+   * @param workers maximum number of blobs written at once, 1 for sequential
+   * @throws IOException the first failure to read or write a blob
+   */
+  public static void populateFromCommit(File dir, ObjectId id, GitObjectReader reader, int workers) throws IOException {
+    long start = System.nanoTime();
     dir.mkdirs();
-    LOG.info("populateTree created dir={}", dir.getAbsolutePath());
-    List<ReadTreeCommand.TreeObjectEntry> treeEntries = new ReadTreeCommand()
-        .readTree(true, false, sha, gitRoot);
+    LOG.info("populateFromCommit created dir={} sha={}", dir.getAbsolutePath(), id);
+
+    GitObject commit = read(reader, id);
+    GitObjectInfo info = commit.getInfo();
+    assert info.getType() == GitObjectType.COMMIT: "Expecting COMMIT, but got " + info.getType();
 
-    for (ReadTreeCommand.TreeObjectEntry entry : treeEntries) {
-      String entrySha = Utils.bytesToHex(entry.getSha());
-      if ("40000".equals(entry.getMode())) { // tree/directory
-        populateTree(gitRoot, new File(dir, entry.getName()), entrySha);
-      } else if ("100644".equals(entry.getMode())) { // blob/file
-        populateBlob(gitRoot, dir, entry);
+    ObjectId rootTreeId = CommitHeader.parse(commit.getData()).tree();
+    LOG.debug("populateFromCommit found rootTreeSha={}", rootTreeId);
+    List<BlobEntry> blobs = new ArrayList<>();
+    populateTree(reader, dir, rootTreeId, blobs);
+    // in a partial clone, fetches the checkout's missing blobs with one request
+    reader.prefetch(blobs.stream().map(BlobEntry::id).toList());
+    long treesDone = System.nanoTime();
+    populateBlobs(reader, blobs, workers);
+    long blobsDone = System.nanoTime();
+    LOG.info("populateFromCommit files={} workers={} treeMs={} blobMs={}", blobs.size(), workers,
+        (treesDone - start) / 1_000_000, (blobsDone - treesDone) / 1_000_000);
+    if (reader instanceof ObjectDatabase db) {
+      LOG.info("populateFromCommit cache {}", db.getCache());
+    }
+  }
+
+  private static void populateTree(GitObjectReader reader, File dir, ObjectId id, List<BlobEntry> blobs) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Could not create dir=" + dir.getAbsolutePath());
+    }
+    LOG.debug("populateTree created dir={}", dir.getAbsolutePath());
+    TreeParser tree = new TreeParser(read(reader, id).getData());
+    while (tree.next()) {
+      if (tree.getMode() == TreeParser.MODE_TREE) {
+        populateTree(reader, new File(dir, tree.getName()), tree.getId(), blobs);
+      } else if (tree.getMode() == TreeParser.MODE_FILE) {
+        blobs.add(new BlobEntry(new File(dir, tree.getName()), tree.getId()));
       } else {
-        throw new IllegalStateException("Unexpected mode " + entry.getMode());
+        throw new IllegalStateException("Unexpected mode " + Integer.toOctalString(tree.getMode()));
       }
     }
   }
 
-  private static void populateBlob(File gitRoot, File dir, ReadTreeCommand.TreeObjectEntry entry) throws IOException {
-    File file = new File(dir, entry.getName());
-    file.createNewFile();
-    String blob = Utils.getPath(Utils.bytesToHex(entry.getSha()));
-    File blobFile = new File(gitRoot, blob);
-
-    try (FileInputStream fis = new FileInputStream(blobFile);
-         InputStream in = new InflaterInputStream(fis)) {
-
-      // read preamble
-      int b;
-      ByteArrayOutputStream buf = new ByteArrayOutputStream();
-      while ((b = in.read()) != 0) {
-        buf.write(b);
+  private static void populateBlobs(GitObjectReader reader, List<BlobEntry> blobs, int workers) throws IOException {
+    Semaphore permits = new Semaphore(workers);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    // closing the executor waits for every submitted blob
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (BlobEntry blob : blobs) {
+        permits.acquire();
+        if (failure.get() != null) {
+          permits.release();
+          break; // stop handing out work, the first failure is reported below
+        }
+        executor.execute(() -> {
+          try {
+            populateBlob(reader, blob);
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          } finally {
+            permits.release();
+          }
+        });
       }
-      int size = Integer.parseInt(buf.toString(StandardCharsets.UTF_8).split(" ")[1]);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted during checkout");
+    }
+    Throwable t = failure.get();
+    if (t instanceof IOException e) {
+      throw e;
+    } else if (t instanceof RuntimeException e) {
+      throw e;
+    } else if (t != null) {
+      throw new IOException("Checkout failed", t);
+    }
+  }
 
-      // read data
-      byte[] data = in.readNBytes(size);
+  private static void populateBlob(GitObjectReader reader, BlobEntry blob) throws IOException {
+    byte[] data = read(reader, blob.id()).getData();
+    Files.write(blob.file().toPath(), data);
+    LOG.debug("populateBlob created file={}", blob.file().getAbsolutePath());
+  }
 
-      // write out to file
-      try (FileOutputStream out = new FileOutputStream(file)) {
-        out.write(data);
-      }
-    } catch (IOException e) {
-      LOG.error(e.getMessage(), e);
+  private static GitObject read(GitObjectReader reader, ObjectId id) throws IOException {
+    GitObject gitObject = reader.read(id);
+    if (gitObject == null) {
+      throw new FileNotFoundException("Object not found sha=" + id);
     }
-    LOG.info("populateBlob created file={}", file.getAbsolutePath());
+    return gitObject;
   }
 
 }
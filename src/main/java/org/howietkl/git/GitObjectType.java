@@ -16,7 +16,7 @@ public enum GitObjectType {
     this.heading = heading;
   }
 
-  String getHeading() {
+  public String getHeading() {
     return heading != null ? heading : name();
   }
 
@@ -1,17 +1,36 @@
 package org.howietkl.git;
 
 import org.howietkl.git.utils.Utils;
+import org.howietkl.git.utils.Zlib;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public class GitPack {
   private static final Logger LOG = LoggerFactory.getLogger(GitPack.class);
@@ -21,10 +40,23 @@ public class GitPack {
   static final int OBJECT_TYPE_MASK = 0b01110000; // 3-bit type
   static final int VARINT_4BIT_MASK = 0b00001111;
 
+  public static final int DEFAULT_THREADS = Integer.getInteger("pack.threads", Runtime.getRuntime().availableProcessors());
+
   File dir;
   int version;
   int objectCount;
+  int threads = DEFAULT_THREADS;
+  ByteBuffer pack;
+  byte[] checksum;
   List<GitObject> objects = new ArrayList<>();
+  Map<Long, List<DeltifiedGitObject>> ofsDeltasByBase = new HashMap<>();
+  Map<ObjectId, List<DeltifiedGitObject>> refDeltasByBase = new HashMap<>();
+  AtomicInteger resolvedCount = new AtomicInteger();
+  // resolved commits and trees, which checkout walks straight after a clone or fetch; bounded,
+  // and handed to the repository's cache once the pack is kept
+  ObjectCache cache;
+  // REF_DELTA bases found in the repository rather than in a thin pack
+  Map<ObjectId, GitObject> thinBases = new LinkedHashMap<>();
 
   /**
    * Both type and size are represented by a variable length integer.
@@ -64,16 +96,90 @@ public class GitPack {
     return objectSize;
   }
 
-  public static GitPack process(byte[] pack, File dir) throws DataFormatException, IOException {
-    ByteBuffer buf = ByteBuffer.wrap(pack);
-    GitPack p = new GitPack();
-    p.dir = dir;
+  /**
+   * Indexes a pack that has been streamed to disk and keeps it in .git/objects/pack as
+   * pack-[checksum].pack alongside a generated .idx, rather than exploding it into loose objects.
+   * The file is memory-mapped rather than read onto the heap, so memory use does not grow
+   * with the size of the pack.
+   *
+   * @param packFile pack as received from the remote
+   * @param dir      repository root containing .git
+   */
+  public static GitPack process(File packFile, File dir) throws DataFormatException, IOException {
+    return process(packFile, dir, false);
+  }
+
+  /**
+   * @param isPromisor whether the pack came from a promisor remote, i.e. a partial clone or a
+   *                   lazy fetch, which git marks with an empty .promisor file
+   */
+  public static GitPack process(File packFile, File dir, boolean isPromisor) throws DataFormatException, IOException {
+    GitPack p;
+    try (FileChannel channel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ)) {
+      MappedByteBuffer buf = map(channel, packFile);
+      p = new GitPack();
+      p.cache = new ObjectCache();
+      p.index(buf, dir, DEFAULT_THREADS);
+    }
+    if (!p.thinBases.isEmpty()) {
+      p.fixThin(packFile);
+    }
+    p.keep(packFile, isPromisor);
+    ObjectDatabase db = ObjectDatabase.open(dir);
+    db.rescan();
+    // only now that the pack is kept can readers be handed its objects
+    db.getCache().putAll(p.cache);
+    p.cache = null;
+    return p;
+  }
+
+  /**
+   * Maps a whole pack. Offsets into it are ints, so packs of 2 GiB or more are refused here
+   * rather than failing part way through.
+   */
+  static MappedByteBuffer map(FileChannel channel, File packFile) throws IOException {
+    long size = channel.size();
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Packs of 2 GiB or more are not supported, pack=" + packFile + " size=" + size);
+    }
+    return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+  }
 
-    p.processHeader(buf);
-    p.processObjects(buf);
+  /**
+   * Indexing runs in two phases:
+   * <ol>
+   *   <li>a sequential walk that records each entry's offset, type, delta base and CRC32</li>
+   *   <li>a fork-join pass that inflates and hashes undeltified objects in parallel, and
+   *   resolves each delta as soon as its base is ready, reusing the base's data in memory</li>
+   * </ol>
+   * The first phase still has to run zlib over every entry, since the end of a compressed
+   * stream is only found by inflating it, but it does so into a scratch buffer without hashing.
+   *
+   * @param threads parallelism of the fork-join pass, 1 for sequential
+   */
+  static GitPack process(ByteBuffer buf, File dir, int threads) throws DataFormatException, IOException {
+    GitPack p = new GitPack();
+    p.index(buf, dir, threads);
     return p;
   }
 
+  private void index(ByteBuffer buf, File dir, int threads) throws DataFormatException, IOException {
+    this.dir = dir;
+    this.pack = buf;
+    this.threads = threads;
+
+    long start = System.nanoTime();
+    processHeader(buf);
+    processObjects(buf);
+    processChecksum(buf);
+    long scanned = System.nanoTime();
+    resolveObjects();
+    long resolved = System.nanoTime();
+    LOG.info("process objects={} threads={} scanMs={} resolveMs={} objectsPerSec={}",
+        objectCount, threads, (scanned - start) / 1_000_000, (resolved - scanned) / 1_000_000,
+        objectCount * 1_000_000_000L / Math.max(1, resolved - start));
+  }
+
   private void processHeader(ByteBuffer buf) {
     byte[] thePACK = new byte[4];
     // header: PACK + version + #objects
@@ -86,73 +192,377 @@ public class GitPack {
     LOG.debug("processHeader version={} objects={}", version, objectCount);
   }
 
-  private void processObjects(ByteBuffer buf) throws DataFormatException, IOException {
-    for (int i = 0; i < objectCount; i++) {
-      processObject(buf, i);
+  private void processObjects(ByteBuffer buf) throws DataFormatException {
+    Inflater inflater = Zlib.borrowInflater();
+    byte[] scratch = new byte[8192];
+    try {
+      for (int i = 0; i < objectCount; i++) {
+        processObject(buf, i, inflater, scratch);
+      }
+    } finally {
+      Zlib.release(inflater);
     }
     assert objects.size() == objectCount;
   }
 
-  private void processObject(ByteBuffer buf, int i) throws DataFormatException, IOException {
+  /**
+   * Pack trailer is the SHA-1 of everything before it.
+   */
+  private void processChecksum(ByteBuffer buf) {
+    int end = buf.position();
+    checksum = new byte[20];
+    buf.get(checksum);
+    MessageDigest digest = Utils.newSha1();
+    digest.update(pack.duplicate().position(0).limit(end));
+    if (!MessageDigest.isEqual(checksum, digest.digest())) {
+      throw new IllegalStateException("Pack checksum mismatch");
+    }
+  }
+
+  private void keep(File packFile, boolean isPromisor) throws IOException {
+    File packDir = packFile.getParentFile();
+    String name = "pack-" + Utils.bytesToHex(checksum);
+    File idxTmp = new File(packDir, "tmp_idx");
+    PackIndexWriter.write(idxTmp, objects, checksum);
+    if (isPromisor) {
+      new File(packDir, name + ".promisor").createNewFile();
+    }
+    // idx last, since its presence is what makes the pack visible
+    Files.move(packFile.toPath(), new File(packDir, name + ".pack").toPath(), StandardCopyOption.ATOMIC_MOVE);
+    Files.move(idxTmp.toPath(), new File(packDir, name + ".idx").toPath(), StandardCopyOption.ATOMIC_MOVE);
+    LOG.info("keep pack={} objects={}", name, objects.size());
+  }
+
+  private void processObject(ByteBuffer buf, int i, Inflater inflater, byte[] scratch) throws DataFormatException {
+    GitObject gitObject = readEntry(buf);
+    long offset = gitObject.getOffset();
+    LOG.trace("processObjects objectIndex={} type={} size={}", i, gitObject.getInfo().getType(), gitObject.getInfo().getSize());
+    skipCompressed(buf, inflater, scratch, gitObject.getInfo().getSize());
+    if (gitObject instanceof DeltifiedGitObject deltified) {
+      if (deltified.getInfo().getType() == GitObjectType.OFS_DELTA) {
+        ofsDeltasByBase.computeIfAbsent(deltified.getBaseOffset(), k -> new ArrayList<>()).add(deltified);
+      } else {
+        refDeltasByBase.computeIfAbsent(deltified.getBaseId(), k -> new ArrayList<>()).add(deltified);
+      }
+    }
+    CRC32 crc = new CRC32();
+    crc.update(pack.duplicate().position((int) offset).limit(buf.position()));
+    gitObject.setCrc((int) crc.getValue());
+    objects.add(gitObject);
+  }
+
+  /**
+   * Reads the entry header at the buffer position, leaving the buffer at the start of the
+   * compressed data. Entries for deltas carry their base SHA-1 (REF_DELTA) or offset (OFS_DELTA).
+   */
+  static GitObject readEntry(ByteBuffer buf) {
+    long offset = buf.position();
     GitObjectInfo info = getObjectInfo(buf);
-    LOG.debug("processObjects objectIndex={} type={} size={}", i, info.getType(), info.getSize());
     GitObject gitObject;
     switch (info.getType()) {
-      case COMMIT, TREE, BLOB, TAG -> {
-        gitObject = new GitObject(info);
-        processUndeltified(buf, gitObject);
-        createObjectFile(gitObject);
-      }
+      case COMMIT, TREE, BLOB, TAG -> gitObject = new GitObject(info);
       case REF_DELTA -> {
         DeltifiedGitObject deltifiedGitObject = new DeltifiedGitObject(info);
         gitObject = deltifiedGitObject;
-        processDeltified(buf, deltifiedGitObject);
-        // TODO
+        deltifiedGitObject.setBaseId(ObjectId.fromBuffer(buf));
       }
       case OFS_DELTA -> {
         DeltifiedGitObject deltifiedGitObject = new DeltifiedGitObject(info);
         gitObject = deltifiedGitObject;
+        // base is at a negative offset relative to this object's header
+        deltifiedGitObject.setBaseOffset(offset - getOffsetVarInt(buf));
+      }
+      default -> throw new UnsupportedOperationException("Unsupported object type=" + info.getType());
+    }
+    gitObject.setOffset(offset);
+    gitObject.setDataOffset(buf.position());
+    return gitObject;
+  }
 
-        // hash is at an offset
-        int offset = getVarInt(buf);
-        int currentPosition = buf.position();
-        int offsetPosition = currentPosition - offset;
-        buf.position(offsetPosition);
-        processDeltified(buf, deltifiedGitObject);
+  /**
+   * OFS_DELTA base offsets use a different varint than sizes: big-endian, and each
+   * continuation adds one so that there is exactly one encoding per value.
+   */
+  static long getOffsetVarInt(ByteBuffer buf) {
+    byte b = buf.get();
+    long offset = b & VARINT_7BIT_MASK;
+    while ((b & VARINT_CONTINUE_MASK) != 0) {
+      b = buf.get();
+      offset = ((offset + 1) << 7) | (b & VARINT_7BIT_MASK);
+    }
+    return offset;
+  }
 
-        // continue where we left off
-        buf.position(currentPosition);
-        // TODO
+  /**
+   * Inverse of {@link #getOffsetVarInt(ByteBuffer)}.
+   */
+  static byte[] offsetVarInt(long offset) {
+    byte[] buf = new byte[10];
+    int pos = buf.length - 1;
+    buf[pos] = (byte) (offset & VARINT_7BIT_MASK);
+    while ((offset >>>= 7) != 0) {
+      offset--;
+      buf[--pos] = (byte) (VARINT_CONTINUE_MASK | (offset & VARINT_7BIT_MASK));
+    }
+    return Arrays.copyOfRange(buf, pos, buf.length);
+  }
+
+  /**
+   * Steps over one zlib stream, inflating into scratch and discarding the output.
+   */
+  private static void skipCompressed(ByteBuffer buf, Inflater inflater, byte[] scratch, int inflatedSize) throws DataFormatException {
+    inflater.reset();
+    inflater.setInput(buf);
+    long total = 0;
+    while (!inflater.finished()) {
+      int n = inflater.inflate(scratch);
+      if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+        throw new DataFormatException("Truncated zlib stream after " + total + " bytes");
       }
-      default -> throw new UnsupportedOperationException("Unsupported object type=" + info.getType());
+      total += n;
     }
-    objects.add(gitObject);
+    if (total != inflatedSize) {
+      throw new DataFormatException("Inflated size=" + total + " expected=" + inflatedSize);
+    }
+  }
+
+  /**
+   * Resolves every object starting from the undeltified ones; each resolved object then
+   * forks tasks for the deltas based on it, whether by offset or by SHA-1.
+   */
+  private void resolveObjects() {
+    List<GitObject> bases = new ArrayList<>();
+    for (GitObject gitObject : objects) {
+      if (!(gitObject instanceof DeltifiedGitObject)) {
+        bases.add(gitObject);
+      }
+    }
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      pool.invoke(new ResolveRootTask(bases));
+      if (resolvedCount.get() != objectCount && findThinBases()) {
+        pool.invoke(new ResolveThinTask());
+      }
+    } finally {
+      pool.shutdown();
+    }
+    if (resolvedCount.get() != objectCount) {
+      for (GitObject gitObject : objects) {
+        if (gitObject.getSha() == null && gitObject instanceof DeltifiedGitObject deltified
+            && deltified.getBaseId() != null) {
+          throw new IllegalStateException("Could not resolve " + (objectCount - resolvedCount.get())
+              + " deltas, missing base sha=" + deltified.getBaseId());
+        }
+      }
+      throw new IllegalStateException("Could not resolve " + (objectCount - resolvedCount.get()) + " deltas");
+    }
+  }
+
+  /**
+   * A thin pack, as sent by a fetch that negotiated haves, has REF_DELTAs against objects the
+   * receiving repository already has. Looks those up once everything in the pack is resolved.
+   *
+   * @return whether any were found
+   */
+  private boolean findThinBases() {
+    if (dir == null) {
+      return false;
+    }
+    ObjectDatabase db = ObjectDatabase.open(dir);
+    for (Map.Entry<ObjectId, List<DeltifiedGitObject>> entry : refDeltasByBase.entrySet()) {
+      if (entry.getValue().get(0).getSha() != null) {
+        continue; // base was in the pack
+      }
+      try {
+        GitObject base = db.read(entry.getKey());
+        if (base != null) {
+          thinBases.put(entry.getKey(), base);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    LOG.debug("findThinBases bases={}", thinBases.size());
+    return !thinBases.isEmpty();
   }
 
-  private void processDeltified(ByteBuffer buf, DeltifiedGitObject deltifiedGitObject) throws DataFormatException {
-    byte[] sha1 = new byte[20];
-    buf.get(sha1);
-    String sha1String = Utils.bytesToHex(sha1);
-    deltifiedGitObject.setSha(sha1);
-    LOG.debug("processObject type={} sha1={}", deltifiedGitObject.getInfo().getType(), sha1String);
-    deltifiedGitObject.setData(Utils.getInflated(buf, deltifiedGitObject.getInfo().getSize()));
+  /**
+   * Appends the bases of a thin pack's deltas as whole objects, so that the kept pack is
+   * self-contained as git requires (index-pack --fix-thin), then rewrites the object count in
+   * the header and the trailing checksum. The bases are deflated at pack.compression, falling
+   * back to core.compression, as git does.
+   */
+  private void fixThin(File packFile) throws IOException {
+    GitConfig config = GitConfig.read(new File(dir, ".git"));
+    int compression = config.getInt("pack.compression", config.getInt("core.compression", Deflater.DEFAULT_COMPRESSION));
+    try (FileChannel channel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      long offset = channel.size() - checksum.length;
+      Deflater deflater = Zlib.borrowDeflater(compression);
+      try {
+        for (Map.Entry<ObjectId, GitObject> base : thinBases.entrySet()) {
+          GitObjectInfo info = base.getValue().getInfo();
+          byte[] header = entryHeader(info.getType(), base.getValue().getData().length);
+          byte[] compressed = deflate(deflater, base.getValue().getData());
+          CRC32 crc = new CRC32();
+          crc.update(header);
+          crc.update(compressed);
+          GitObject appended = new GitObject(info);
+          appended.setOffset(offset);
+          appended.setSha(base.getKey().toBytes());
+          appended.setCrc((int) crc.getValue());
+          objects.add(appended);
+          offset += channel.write(ByteBuffer.wrap(header), offset);
+          offset += channel.write(ByteBuffer.wrap(compressed), offset);
+        }
+      } finally {
+        Zlib.release(deflater);
+      }
+      objectCount = objects.size();
+      channel.write(ByteBuffer.allocate(4).putInt(0, objectCount), 8);
+
+      MessageDigest digest = Utils.newSha1();
+      ByteBuffer chunk = ByteBuffer.allocate(1 << 16);
+      for (long position = 0; position < offset; ) {
+        chunk.clear().limit((int) Math.min(chunk.capacity(), offset - position));
+        position += channel.read(chunk, position);
+        digest.update(chunk.flip());
+      }
+      checksum = digest.digest();
+      channel.write(ByteBuffer.wrap(checksum), offset);
+    }
+    LOG.info("fixThin appended={} objects={}", thinBases.size(), objectCount);
   }
 
-  private void processUndeltified(ByteBuffer buf, GitObject go) throws DataFormatException {
-    byte[] inflatedData = Utils.getInflated(buf, go.getInfo().getSize());
-    go.setData(inflatedData);
-    if (go.getInfo().getType() == GitObjectType.BLOB) {
-      LOG.trace("processUndeltified BLOB data={}", new String(inflatedData, StandardCharsets.UTF_8));
+  /**
+   * Inverse of {@link #getObjectInfo(ByteBuffer)}: type and size as a pack entry header.
+   */
+  static byte[] entryHeader(GitObjectType type, long size) {
+    byte[] header = new byte[10];
+    int n = 0;
+    int b = (type.ordinal() << 4) | (int) (size & VARINT_4BIT_MASK);
+    size >>>= 4;
+    while (size != 0) {
+      header[n++] = (byte) (b | VARINT_CONTINUE_MASK);
+      b = (int) (size & VARINT_7BIT_MASK);
+      size >>>= 7;
+    }
+    header[n++] = (byte) b;
+    return Arrays.copyOf(header, n);
+  }
+
+  static byte[] deflate(Deflater deflater, byte[] data) {
+    deflater.reset();
+    deflater.setInput(data);
+    deflater.finish();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+    byte[] buffer = new byte[8192];
+    while (!deflater.finished()) {
+      out.write(buffer, 0, deflater.deflate(buffer));
+    }
+    return out.toByteArray();
+  }
+
+  private class ResolveRootTask extends CountedCompleter<Void> {
+    private final List<GitObject> bases;
+
+    ResolveRootTask(List<GitObject> bases) {
+      this.bases = bases;
+    }
+
+    @Override
+    public void compute() {
+      setPendingCount(bases.size());
+      for (GitObject base : bases) {
+        new ResolveTask(this, base, null).fork();
+      }
+      tryComplete();
+    }
+  }
+
+  /**
+   * Resolves the deltas against thin pack bases, and in turn everything that depends on them.
+   */
+  private class ResolveThinTask extends CountedCompleter<Void> {
+    @Override
+    public void compute() {
+      List<ResolveTask> tasks = new ArrayList<>();
+      for (Map.Entry<ObjectId, GitObject> base : thinBases.entrySet()) {
+        for (DeltifiedGitObject child : refDeltasByBase.get(base.getKey())) {
+          tasks.add(new ResolveTask(this, child, base.getValue()));
+        }
+      }
+      setPendingCount(tasks.size());
+      tasks.forEach(ForkJoinTask::fork);
+      tryComplete();
+    }
+  }
+
+  /**
+   * Resolves one entry, then forks its dependent deltas. Children are forked rather than
+   * computed inline, so chain depth never turns into stack depth.
+   */
+  private class ResolveTask extends CountedCompleter<Void> {
+    private final GitObject entry;
+    private GitObject base;
+
+    /**
+     * @param base resolved base object for a delta entry, null for an undeltified entry
+     */
+    ResolveTask(CountedCompleter<?> parent, GitObject entry, GitObject base) {
+      super(parent);
+      this.entry = entry;
+      this.base = base;
+    }
+
+    @Override
+    public void compute() {
+      GitObject resolved;
+      try {
+        resolved = resolve(entry, base);
+      } catch (DataFormatException e) {
+        throw new IllegalStateException("Corrupt pack entry offset=" + entry.getOffset(), e);
+      }
+      base = null; // let the base go once the children have what they need
+      List<DeltifiedGitObject> children = new ArrayList<>();
+      children.addAll(ofsDeltasByBase.getOrDefault(entry.getOffset(), List.of()));
+      children.addAll(refDeltasByBase.getOrDefault(ObjectId.fromBytes(entry.getSha()), List.of()));
+      setPendingCount(children.size());
+      for (DeltifiedGitObject child : children) {
+        new ResolveTask(this, child, resolved).fork();
+      }
+      tryComplete();
+    }
+  }
+
+  private GitObject resolve(GitObject entry, GitObject base) throws DataFormatException {
+    GitObjectInfo info = new GitObjectInfo();
+    GitObject resolved = new GitObject(info);
+    byte[] data = Utils.getInflated(pack.duplicate().position((int) entry.getDataOffset()), entry.getInfo().getSize());
+    if (base == null) {
+      info.setType(entry.getInfo().getType());
+      resolved.setData(data);
+    } else {
+      info.setType(base.getInfo().getType());
+      resolved.setData(GitDelta.apply(base.getData(), data));
+    }
+    info.setSize(resolved.getData().length);
+    entry.setSha(getObjectSha(resolved));
+    resolved.setSha(entry.getSha());
+    resolvedCount.incrementAndGet();
+    if (cache != null && info.getType() != GitObjectType.BLOB) {
+      // the oldest are evicted as the pack is indexed; blobs would only evict trees
+      cache.put(ObjectId.fromBytes(resolved.getSha()), resolved);
     }
+    return resolved;
   }
 
-  void createObjectFile(GitObject gitObject) throws IOException {
+  static byte[] getObjectSha(GitObject gitObject) {
     byte[] data = gitObject.getData();
-    ByteArrayOutputStream buf = new ByteArrayOutputStream(data.length + 16);
-    String header = String.format("%s %s\0", gitObject.getInfo().getType().getHeading(), data.length);
-    buf.write(header.getBytes(StandardCharsets.UTF_8));
-    buf.write(data);
-    Utils.writeObjectFile(buf.toByteArray(), dir);
+    MessageDigest digest = Utils.newSha1();
+    String header = gitObject.getInfo().getType().getHeading() + " " + data.length + "\0";
+    digest.update(header.getBytes(StandardCharsets.UTF_8));
+    digest.update(data);
+    return digest.digest();
   }
 
 }
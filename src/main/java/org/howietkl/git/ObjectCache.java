@@ -0,0 +1,143 @@
+package org.howietkl.git;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU cache of inflated objects keyed by id, bounded by the bytes held. It is split into
+ * segments by id, each with its own lock and an equal share of the budget, so concurrent
+ * readers rarely contend. Cached objects are shared and must not be modified.
+ */
+public class ObjectCache {
+  public static final long DEFAULT_LIMIT = Long.getLong("object.cacheLimit", 64L * 1024 * 1024);
+  static final int SEGMENTS = 16;
+  static final int ENTRY_OVERHEAD = 96; // rough per-entry cost of the map node, id and GitObject
+
+  private final Segment[] segments = new Segment[SEGMENTS];
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public ObjectCache() {
+    this(DEFAULT_LIMIT);
+  }
+
+  /**
+   * @param limit total bytes of object data to hold, 0 to disable caching
+   */
+  public ObjectCache(long limit) {
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment(limit / SEGMENTS);
+    }
+  }
+
+  /**
+   * @return cached object, or null
+   */
+  public GitObject get(ObjectId id) {
+    GitObject gitObject = segment(id).get(id);
+    (gitObject != null ? hits : misses).increment();
+    return gitObject;
+  }
+
+  /**
+   * Objects larger than a segment's share of the budget are not cached at all.
+   */
+  public void put(ObjectId id, GitObject gitObject) {
+    evictions.add(segment(id).put(id, gitObject));
+  }
+
+  /**
+   * Puts every object cached in other, least recently used first, as bounded by this cache.
+   */
+  public void putAll(ObjectCache other) {
+    for (Segment segment : other.segments) {
+      for (Map.Entry<ObjectId, GitObject> entry : segment.entries()) {
+        put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private Segment segment(ObjectId id) {
+    return segments[(id.hashCode() >>> 1) % SEGMENTS];
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  public long getSize() {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += segment.getSize();
+    }
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    return "hits=" + getHits() + " misses=" + getMisses() + " evictions=" + getEvictions() + " bytes=" + getSize();
+  }
+
+  private static class Segment {
+    private final long limit;
+    private final LinkedHashMap<ObjectId, GitObject> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long size;
+
+    Segment(long limit) {
+      this.limit = limit;
+    }
+
+    synchronized GitObject get(ObjectId id) {
+      return entries.get(id);
+    }
+
+    /**
+     * @return number of entries evicted
+     */
+    synchronized int put(ObjectId id, GitObject gitObject) {
+      long objectSize = sizeOf(gitObject);
+      if (objectSize > limit) {
+        return 0;
+      }
+      GitObject previous = entries.put(id, gitObject);
+      if (previous != null) {
+        size -= sizeOf(previous);
+      }
+      size += objectSize;
+      int evicted = 0;
+      Iterator<Map.Entry<ObjectId, GitObject>> it = entries.entrySet().iterator();
+      while (size > limit && it.hasNext()) {
+        size -= sizeOf(it.next().getValue());
+        it.remove();
+        evicted++;
+      }
+      return evicted;
+    }
+
+    synchronized List<Map.Entry<ObjectId, GitObject>> entries() {
+      return new ArrayList<>(entries.entrySet());
+    }
+
+    synchronized long getSize() {
+      return size;
+    }
+
+    private static long sizeOf(GitObject gitObject) {
+      return gitObject.getData().length + ENTRY_OVERHEAD;
+    }
+  }
+
+}
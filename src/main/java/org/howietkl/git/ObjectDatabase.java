@@ -0,0 +1,452 @@
+package org.howietkl.git;
+
+import org.howietkl.git.utils.Utils;
+import org.howietkl.git.utils.Zlib;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads and writes objects in a repository's .git/objects. Reads look in packs first, via their
+ * memory-mapped indexes, then loose objects. Writes are skipped for objects already present.
+ * Objects read or written pass through an {@link ObjectCache}, so repeated reads of the same
+ * trees and commits within a process are not inflated again.
+ */
+public class ObjectDatabase implements GitObjectReader {
+  private static final Logger LOG = LoggerFactory.getLogger(ObjectDatabase.class);
+  static final int OPEN_LIMIT = Integer.getInteger("object.openLimit", 8);
+  // shared databases, least recently opened first; each holds a cache of up to ObjectCache.DEFAULT_LIMIT,
+  // so a long-running daemon or serve drops the oldest rather than keep one per repository it ever saw
+  private static final Map<File, ObjectDatabase> OPEN = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<File, ObjectDatabase> eldest) {
+      return size() > OPEN_LIMIT;
+    }
+  };
+  static final int CHUNK_SIZE = 64 * 1024;
+  static final int DEFAULT_LOOSE_COMPRESSION = Deflater.BEST_SPEED; // same as git
+
+  private final File dir;
+  private final int looseCompression;
+  private final ObjectCache cache = new ObjectCache();
+  private List<PackFile> packs;
+  // loose objects per fanout dir (first byte), listed on first use
+  private final Map<Integer, Set<ObjectId>> looseIds = new ConcurrentHashMap<>();
+  // partial clones only, looked up on the first missing object
+  private volatile Optional<PromisorRemote> promisor;
+
+  /**
+   * @param dir repository root containing .git
+   */
+  public ObjectDatabase(File dir) {
+    this.dir = dir;
+    this.looseCompression = readLooseCompression(dir);
+  }
+
+  /**
+   * core.looseCompression, falling back to core.compression, as zlib levels -1 to 9.
+   */
+  private static int readLooseCompression(File dir) {
+    try {
+      GitConfig config = GitConfig.read(new File(dir, ".git"));
+      int level = config.getInt("core.looseCompression",
+          config.getInt("core.compression", DEFAULT_LOOSE_COMPRESSION));
+      if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+        throw new IllegalArgumentException("Bad zlib compression level " + level);
+      }
+      return level;
+    } catch (IOException e) {
+      LOG.warn("Cannot read config dir={}: {}", dir, e.getMessage());
+      return DEFAULT_LOOSE_COMPRESSION;
+    }
+  }
+
+  /**
+   * A database evicted beyond {@link #OPEN_LIMIT} stays usable by whoever still holds it, but
+   * the next open of its repository starts a new one.
+   *
+   * @param dir repository root containing .git
+   * @return database shared by everything in this process working on the same repository
+   */
+  public static ObjectDatabase open(File dir) {
+    File canonical = canonical(dir);
+    synchronized (OPEN) {
+      return OPEN.computeIfAbsent(canonical, ObjectDatabase::new);
+    }
+  }
+
+  /**
+   * Drops the shared database for dir, so the next open starts with nothing cached.
+   */
+  public static void forget(File dir) {
+    File canonical = canonical(dir);
+    synchronized (OPEN) {
+      OPEN.remove(canonical);
+    }
+  }
+
+  private static File canonical(File dir) {
+    try {
+      return dir.getCanonicalFile();
+    } catch (IOException e) {
+      return dir.getAbsoluteFile();
+    }
+  }
+
+  public File getDir() {
+    return dir;
+  }
+
+  @Override
+  public GitObject read(ObjectId id) throws IOException {
+    GitObject gitObject = cache.get(id);
+    if (gitObject != null) {
+      return gitObject;
+    }
+    byte[] shaBytes = id.toBytes();
+    gitObject = readPacked(shaBytes);
+    if (gitObject == null) {
+      gitObject = readLoose(id);
+    }
+    if (gitObject == null && hasNewPacks()) {
+      // written by another process since packs were discovered, e.g. while running as a daemon
+      rescan();
+      gitObject = readPacked(shaBytes);
+    }
+    if (gitObject == null && getPromisor() != null) {
+      try {
+        getPromisor().fetch(List.of(id), this);
+        gitObject = readPacked(shaBytes);
+      } catch (IOException | RuntimeException e) {
+        // as git does, a failed lazy fetch leaves the object missing
+        LOG.warn("Cannot fetch sha={} from promisor remote: {}", id, e.getMessage());
+      }
+    }
+    if (gitObject != null) {
+      cache.put(id, gitObject);
+    }
+    return gitObject;
+  }
+
+  /**
+   * Objects read or written through this database, shared by all its readers.
+   */
+  public ObjectCache getCache() {
+    return cache;
+  }
+
+  private GitObject readPacked(byte[] sha) throws IOException {
+    for (PackFile pack : getPacks()) {
+      GitObject gitObject = pack.read(sha);
+      if (gitObject != null) {
+        return gitObject;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * In a partial clone, fetches whichever of ids are missing in one go, instead of one request
+   * per object as read would.
+   */
+  @Override
+  public void prefetch(Collection<ObjectId> ids) throws IOException {
+    if (getPromisor() == null) {
+      return;
+    }
+    List<ObjectId> missing = new ArrayList<>();
+    for (ObjectId id : ids) {
+      if (!contains(id)) {
+        missing.add(id);
+      }
+    }
+    if (!missing.isEmpty()) {
+      getPromisor().fetch(missing, this);
+    }
+  }
+
+  private PromisorRemote getPromisor() throws IOException {
+    if (promisor == null) {
+      promisor = Optional.ofNullable(PromisorRemote.fromConfig(dir));
+    }
+    return promisor.orElse(null);
+  }
+
+  private boolean hasNewPacks() throws IOException {
+    String[] idxNames = new File(dir, ".git/objects/pack").list((d, name) -> name.endsWith(".idx"));
+    return idxNames != null && idxNames.length != getPacks().size();
+  }
+
+  /**
+   * Cheap existence check: an index search per pack, then a set of loose names listed once
+   * per fanout directory rather than a stat per object. Only a miss looks further, as read
+   * does, for a loose object or pack written by another process since, e.g. while serving.
+   */
+  public boolean contains(ObjectId id) throws IOException {
+    byte[] shaBytes = id.toBytes();
+    if (containsPacked(shaBytes)) {
+      return true;
+    }
+    Set<ObjectId> looseIds = getLooseIds(id.getFirstByte());
+    if (looseIds.contains(id)) {
+      return true;
+    }
+    if (new File(dir, Utils.getPath(id)).isFile()) {
+      looseIds.add(id);
+      return true;
+    }
+    if (hasNewPacks()) {
+      rescan();
+      return containsPacked(shaBytes);
+    }
+    return false;
+  }
+
+  private boolean containsPacked(byte[] sha) throws IOException {
+    for (PackFile pack : getPacks()) {
+      if (pack.contains(sha)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return whether id is in a pack from a promisor remote, whose references the remote promises
+   */
+  public boolean isInPromisorPack(ObjectId id) throws IOException {
+    byte[] shaBytes = id.toBytes();
+    for (PackFile pack : getPacks()) {
+      if (pack.isPromisor() && pack.contains(shaBytes)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Set<ObjectId> getLooseIds(int fanout) {
+    return looseIds.computeIfAbsent(fanout, f -> {
+      Set<ObjectId> ids = ConcurrentHashMap.newKeySet();
+      String prefix = Utils.bytesToHex(new byte[]{(byte) (int) f});
+      String[] files = new File(dir, ".git/objects/" + prefix).list();
+      if (files != null) {
+        for (String name : files) {
+          if (ObjectId.isHex(prefix + name)) { // skip anything else, e.g. temporary files
+            ids.add(ObjectId.fromHex(prefix + name));
+          }
+        }
+      }
+      return ids;
+    });
+  }
+
+  /**
+   * Stores an object as a loose file unless it already exists. The deflated object is written
+   * to a temporary file and renamed into place, so a crash never leaves a truncated object.
+   *
+   * @param data object contents, without the "type size\0" header
+   * @return SHA-1 of the object
+   */
+  public byte[] write(GitObjectType type, byte[] data) throws IOException {
+    byte[] header = getHeader(type, data.length);
+    MessageDigest digest = Utils.newSha1();
+    digest.update(header);
+    digest.update(data);
+    byte[] sha = digest.digest();
+    ObjectId id = ObjectId.fromBytes(sha);
+    cache.put(id, newObject(type, data)); // likely to be read back, e.g. a commit just written
+    if (contains(id)) {
+      LOG.trace("write exists sha={}", id);
+      return sha;
+    }
+
+    File tmp = createTempObject();
+    Deflater deflater = Zlib.borrowDeflater(looseCompression);
+    try {
+      try (DeflaterOutputStream out = new DeflaterOutputStream(new FileOutputStream(tmp), deflater)) {
+        out.write(header);
+        out.write(data);
+      }
+      moveIntoPlace(tmp, id);
+    } finally {
+      Zlib.release(deflater);
+      tmp.delete(); // no-op once moved
+    }
+    return sha;
+  }
+
+  /**
+   * Streams a file into a loose object in fixed-size chunks, hashing and deflating in the same
+   * pass, so memory use does not depend on the file size and the file is read once. Since the
+   * SHA-1 is only known at the end, the temporary file is discarded if the object turns out to
+   * exist already.
+   *
+   * @return SHA-1 of the object
+   */
+  public byte[] write(GitObjectType type, Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      byte[] header = getHeader(type, size);
+      File tmp = createTempObject();
+      Deflater deflater = Zlib.borrowDeflater(looseCompression);
+      try {
+        byte[] sha;
+        try (DeflaterOutputStream out = new DeflaterOutputStream(new FileOutputStream(tmp), deflater, CHUNK_SIZE)) {
+          out.write(header);
+          sha = copy(channel, path, header, size, ByteBuffer.allocate(CHUNK_SIZE), out);
+        }
+        ObjectId id = ObjectId.fromBytes(sha);
+        if (contains(id)) {
+          LOG.trace("write exists sha={}", id);
+        } else {
+          moveIntoPlace(tmp, id);
+        }
+        return sha;
+      } finally {
+        Zlib.release(deflater);
+        tmp.delete(); // no-op once moved
+      }
+    }
+  }
+
+  /**
+   * Reads channel to the end, writing it to out.
+   *
+   * @return SHA-1 of header followed by the content
+   */
+  private static byte[] copy(FileChannel channel, Path path, byte[] header, long size, ByteBuffer chunk,
+                             OutputStream out) throws IOException {
+    MessageDigest digest = Utils.newSha1();
+    digest.update(header);
+    long total = 0;
+    while (channel.read(chunk) != -1) {
+      digest.update(chunk.array(), 0, chunk.position());
+      out.write(chunk.array(), 0, chunk.position());
+      total += chunk.position();
+      chunk.clear();
+    }
+    if (total != size) {
+      throw new IOException("File changed while hashing path=" + path + " size=" + size + " read=" + total);
+    }
+    return digest.digest();
+  }
+
+  private static GitObject newObject(GitObjectType type, byte[] data) {
+    GitObjectInfo info = new GitObjectInfo();
+    info.setType(type);
+    info.setSize(data.length);
+    GitObject gitObject = new GitObject(info);
+    gitObject.setData(data);
+    return gitObject;
+  }
+
+  private static byte[] getHeader(GitObjectType type, long size) {
+    return (type.getHeading() + " " + size + "\0").getBytes(StandardCharsets.UTF_8);
+  }
+
+  private File createTempObject() throws IOException {
+    File objectsDir = new File(dir, ".git/objects");
+    objectsDir.mkdirs();
+    return File.createTempFile("tmp_obj_", null, objectsDir);
+  }
+
+  private void moveIntoPlace(File tmp, ObjectId id) throws IOException {
+    File file = new File(dir, Utils.getPath(id));
+    file.getParentFile().mkdirs();
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    getLooseIds(id.getFirstByte()).add(id);
+    LOG.trace("write file={}", file.getAbsolutePath());
+  }
+
+  /**
+   * Packs are discovered on first use; a pack is only visible once its .idx exists.
+   */
+  public synchronized List<PackFile> getPacks() throws IOException {
+    if (packs == null) {
+      List<PackFile> found = new ArrayList<>();
+      File[] idxFiles = new File(dir, ".git/objects/pack").listFiles((d, name) -> name.endsWith(".idx"));
+      if (idxFiles != null) {
+        Arrays.sort(idxFiles);
+        for (File idxFile : idxFiles) {
+          String name = idxFile.getName();
+          File packFile = new File(idxFile.getParentFile(), name.substring(0, name.length() - 4) + ".pack");
+          if (packFile.isFile()) {
+            found.add(new PackFile(packFile, this));
+          }
+        }
+      }
+      LOG.debug("getPacks dir={} packs={}", dir, found.size());
+      packs = found;
+    }
+    return packs;
+  }
+
+  /**
+   * Forgets discovered packs so that newly written ones are picked up.
+   */
+  public synchronized void rescan() {
+    packs = null;
+  }
+
+  GitObject readLoose(ObjectId id) throws IOException {
+    File file = new File(dir, Utils.getPath(id));
+    if (!file.isFile()) {
+      return null;
+    }
+    Inflater inflater = Zlib.borrowInflater();
+    try (InputStream in = new InflaterInputStream(new FileInputStream(file), inflater)) {
+      return parseLoose(in.readAllBytes());
+    } finally {
+      Zlib.release(inflater);
+    }
+  }
+
+  /**
+   * @param raw inflated loose object: [type] [size]\0[data]
+   */
+  static GitObject parseLoose(byte[] raw) {
+    int headerEnd = 0;
+    while (raw[headerEnd] != 0) {
+      headerEnd++;
+    }
+    String[] header = new String(raw, 0, headerEnd, StandardCharsets.UTF_8).split(" ");
+    GitObjectInfo info = new GitObjectInfo();
+    info.setType(GitObjectType.parse(header[0]));
+    info.setSize(Integer.parseInt(header[1]));
+    GitObject gitObject = new GitObject(info);
+    gitObject.setData(Arrays.copyOfRange(raw, headerEnd + 1, raw.length));
+    if (gitObject.getData().length != info.getSize()) {
+      throw new IllegalStateException("Object size mismatch header=" + info.getSize()
+          + " actual=" + gitObject.getData().length);
+    }
+    return gitObject;
+  }
+
+}
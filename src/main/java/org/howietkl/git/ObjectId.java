@@ -0,0 +1,145 @@
+package org.howietkl.git;
+
+import org.howietkl.git.utils.Utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Immutable SHA-1 object name held in primitive fields, so it can key maps and sets without
+ * hashing strings or comparing arrays. Hex conversion is table driven.
+ */
+public final class ObjectId implements Comparable<ObjectId> {
+  public static final int LENGTH = 20;
+  public static final int HEX_LENGTH = 40;
+
+  // big-endian: w1 is bytes 0-7, w2 bytes 8-15, w3 bytes 16-19
+  private final long w1;
+  private final long w2;
+  private final int w3;
+
+  private ObjectId(long w1, long w2, int w3) {
+    this.w1 = w1;
+    this.w2 = w2;
+    this.w3 = w3;
+  }
+
+  public static ObjectId fromBytes(byte[] sha) {
+    return fromBytes(sha, 0);
+  }
+
+  public static ObjectId fromBytes(byte[] buf, int offset) {
+    return fromBuffer(ByteBuffer.wrap(buf, offset, LENGTH));
+  }
+
+  /**
+   * Reads 20 bytes at the buffer's position, advancing it.
+   */
+  public static ObjectId fromBuffer(ByteBuffer buf) {
+    return new ObjectId(buf.getLong(), buf.getLong(), buf.getInt());
+  }
+
+  /**
+   * @param hex 40 lowercase or uppercase hex digits
+   * @throws IllegalArgumentException if hex is not a full object name
+   */
+  public static ObjectId fromHex(CharSequence hex) {
+    if (hex.length() != HEX_LENGTH) {
+      throw new IllegalArgumentException("Not an object name: " + hex);
+    }
+    return new ObjectId(parseHex(hex, 0, 16), parseHex(hex, 16, 16), (int) parseHex(hex, 32, 8));
+  }
+
+  public static boolean isHex(CharSequence hex) {
+    if (hex.length() != HEX_LENGTH) {
+      return false;
+    }
+    for (int i = 0; i < HEX_LENGTH; i++) {
+      if (Utils.hexValue(hex.charAt(i)) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long parseHex(CharSequence hex, int from, int digits) {
+    long value = 0;
+    for (int i = from; i < from + digits; i++) {
+      int nibble = Utils.hexValue(hex.charAt(i));
+      if (nibble < 0) {
+        throw new IllegalArgumentException("Not an object name: " + hex);
+      }
+      value = (value << 4) | nibble;
+    }
+    return value;
+  }
+
+  public byte[] toBytes() {
+    byte[] sha = new byte[LENGTH];
+    writeTo(ByteBuffer.wrap(sha));
+    return sha;
+  }
+
+  /**
+   * Writes the 20 bytes at the buffer's position, advancing it.
+   */
+  public void writeTo(ByteBuffer buf) {
+    buf.putLong(w1).putLong(w2).putInt(w3);
+  }
+
+  /**
+   * @return first byte, as used by pack index fanout tables and loose object directories
+   */
+  public int getFirstByte() {
+    return (int) (w1 >>> 56);
+  }
+
+  public String toHex() {
+    byte[] hex = new byte[HEX_LENGTH];
+    formatHex(hex, 0, w1, 16);
+    formatHex(hex, 16, w2, 16);
+    formatHex(hex, 32, w3, 8);
+    return new String(hex, StandardCharsets.US_ASCII);
+  }
+
+  private static void formatHex(byte[] hex, int from, long value, int digits) {
+    for (int i = from + digits - 1; i >= from; i--) {
+      hex[i] = Utils.hexDigit((int) value);
+      value >>>= 4;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return toHex();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof ObjectId other && w1 == other.w1 && w2 == other.w2 && w3 == other.w3;
+  }
+
+  /**
+   * SHA-1 bits are already uniformly distributed, so any 32 of them will do.
+   */
+  @Override
+  public int hashCode() {
+    return (int) (w1 >>> 32);
+  }
+
+  /**
+   * Same order as comparing the bytes unsigned, i.e. pack index order.
+   */
+  @Override
+  public int compareTo(ObjectId other) {
+    int c = Long.compareUnsigned(w1, other.w1);
+    if (c == 0) {
+      c = Long.compareUnsigned(w2, other.w2);
+    }
+    if (c == 0) {
+      c = Integer.compareUnsigned(w3, other.w3);
+    }
+    return c;
+  }
+
+}
@@ -0,0 +1,170 @@
+package org.howietkl.git;
+
+import org.howietkl.git.utils.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+
+/**
+ * Memory-mapped pack and its index. Objects are inflated straight from the mapped region,
+ * so a lookup costs an index search and no file opens. Safe for concurrent reads: each read
+ * works on its own view of the mapping.
+ */
+public class PackFile {
+  private final File file;
+  private final ByteBuffer pack;
+  private final PackIndex index;
+  private final GitObjectReader baseReader;
+  private final DeltaBaseCache baseCache = new DeltaBaseCache();
+  private final boolean isPromisor;
+
+  /**
+   * @param packFile   .pack file, with its .idx alongside
+   * @param baseReader where to find REF_DELTA bases that are not in this pack (thin packs)
+   */
+  public PackFile(File packFile, GitObjectReader baseReader) throws IOException {
+    this.file = packFile;
+    this.baseReader = baseReader;
+    String name = packFile.getName();
+    String base = name.substring(0, name.length() - 5);
+    index = new PackIndex(new File(packFile.getParentFile(), base + ".idx"));
+    isPromisor = new File(packFile.getParentFile(), base + ".promisor").exists();
+    try (FileChannel channel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ)) {
+      pack = GitPack.map(channel, packFile);
+    }
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public PackIndex getIndex() {
+    return index;
+  }
+
+  /**
+   * @return whether the pack came from a promisor remote, marked by a .promisor file alongside
+   */
+  public boolean isPromisor() {
+    return isPromisor;
+  }
+
+  /**
+   * @return size of the pack file, including its trailing checksum
+   */
+  public long getLength() {
+    return pack.capacity();
+  }
+
+  /**
+   * @return CRC32 of the raw bytes in [from, to), which for one entry is what its index records
+   */
+  int crc32(long from, long to) {
+    CRC32 crc = new CRC32();
+    crc.update(pack.duplicate().position((int) from).limit((int) to));
+    return (int) crc.getValue();
+  }
+
+  /**
+   * @return whether the trailing checksum is the SHA-1 of everything before it
+   */
+  boolean isChecksumValid() {
+    int end = pack.capacity() - 20;
+    MessageDigest digest = Utils.newSha1();
+    digest.update(pack.duplicate().position(0).limit(end));
+    byte[] checksum = new byte[20];
+    pack.get(end, checksum);
+    return MessageDigest.isEqual(checksum, digest.digest());
+  }
+
+  public boolean contains(byte[] sha) {
+    return index.find(sha) >= 0;
+  }
+
+  /**
+   * @return object, or null if this pack does not contain sha
+   */
+  public GitObject read(byte[] sha) throws IOException {
+    long offset = index.findOffset(sha);
+    if (offset < 0) {
+      return null;
+    }
+    try {
+      return readAt(offset);
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt object sha=" + Utils.bytesToHex(sha) + " pack=" + file, e);
+    }
+  }
+
+  /**
+   * Walks the delta chain back to a base that is cached, not deltified, or outside this pack,
+   * then applies the deltas forward. Every base used along the way is cached by offset.
+   */
+  GitObject readAt(long offset) throws DataFormatException, IOException {
+    Deque<GitObject> chain = new ArrayDeque<>();
+    GitObject base;
+    boolean isBaseInPack = true;
+    while (true) {
+      GitObject cached = baseCache.get(offset);
+      if (cached != null) {
+        base = cached;
+        break;
+      }
+      GitObject entry = GitPack.readEntry(pack.duplicate().position((int) offset));
+      if (!(entry instanceof DeltifiedGitObject deltified)) {
+        base = inflate(entry, entry.getInfo().getType());
+        break;
+      }
+      chain.push(deltified);
+      if (deltified.getInfo().getType() == GitObjectType.OFS_DELTA) {
+        offset = deltified.getBaseOffset();
+      } else {
+        offset = index.findOffset(deltified.getBaseId().toBytes());
+        if (offset < 0) {
+          base = baseReader.read(deltified.getBaseId());
+          if (base == null) {
+            throw new IOException("Missing REF_DELTA base sha=" + deltified.getBaseId() + " pack=" + file);
+          }
+          isBaseInPack = false;
+          break;
+        }
+      }
+    }
+
+    while (!chain.isEmpty()) {
+      GitObject deltified = chain.pop();
+      if (isBaseInPack) {
+        baseCache.put(base.getOffset(), base);
+      }
+      byte[] delta = inflate(deltified, deltified.getInfo().getType()).getData();
+      GitObjectInfo info = new GitObjectInfo();
+      info.setType(base.getInfo().getType());
+      GitObject result = new GitObject(info);
+      result.setOffset(deltified.getOffset());
+      result.setData(GitDelta.apply(base.getData(), delta));
+      info.setSize(result.getData().length);
+      base = result;
+      isBaseInPack = true;
+    }
+    return base;
+  }
+
+  private GitObject inflate(GitObject packed, GitObjectType type) throws DataFormatException {
+    GitObjectInfo info = new GitObjectInfo();
+    info.setType(type);
+    info.setSize(packed.getInfo().getSize());
+    GitObject gitObject = new GitObject(info);
+    gitObject.setOffset(packed.getOffset());
+    gitObject.setData(Utils.getInflated(pack.duplicate().position((int) packed.getDataOffset()), info.getSize()));
+    return gitObject;
+  }
+
+}
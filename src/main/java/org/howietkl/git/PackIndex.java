@@ -0,0 +1,102 @@
+package org.howietkl.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Memory-mapped version 2 pack index, see {@link PackIndexWriter} for the layout.
+ * Lookups narrow the range with the fanout table then binary search the sorted SHA-1s,
+ * comparing directly against the mapped bytes.
+ */
+public class PackIndex {
+  static final int FANOUT_OFFSET = 8;
+  static final int SHA_TABLE_OFFSET = FANOUT_OFFSET + 256 * 4;
+
+  private final ByteBuffer idx;
+  private final int objectCount;
+  private final int crcTableOffset;
+  private final int offset32TableOffset;
+  private final int offset64TableOffset;
+
+  public PackIndex(File idxFile) throws IOException {
+    try (FileChannel channel = FileChannel.open(idxFile.toPath(), StandardOpenOption.READ)) {
+      idx = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    byte[] magic = new byte[4];
+    idx.get(0, magic);
+    if (!Arrays.equals(PackIndexWriter.MAGIC, magic) || idx.getInt(4) != PackIndexWriter.VERSION) {
+      throw new IOException("Unsupported pack index file=" + idxFile);
+    }
+    objectCount = idx.getInt(FANOUT_OFFSET + 255 * 4);
+    crcTableOffset = SHA_TABLE_OFFSET + objectCount * 20;
+    offset32TableOffset = crcTableOffset + objectCount * 4;
+    offset64TableOffset = offset32TableOffset + objectCount * 4;
+  }
+
+  public int getObjectCount() {
+    return objectCount;
+  }
+
+  /**
+   * @return position of sha in the sorted table, or -1 if this index does not contain it
+   */
+  public int find(byte[] sha) {
+    int first = sha[0] & 0xff;
+    int lo = first == 0 ? 0 : idx.getInt(FANOUT_OFFSET + (first - 1) * 4);
+    int hi = idx.getInt(FANOUT_OFFSET + first * 4);
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      int cmp = compare(mid, sha);
+      if (cmp < 0) {
+        lo = mid + 1;
+      } else if (cmp > 0) {
+        hi = mid;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return pack offset of sha, or -1 if this index does not contain it
+   */
+  public long findOffset(byte[] sha) {
+    int position = find(sha);
+    return position < 0 ? -1 : getOffset(position);
+  }
+
+  public byte[] getSha(int position) {
+    byte[] sha = new byte[20];
+    idx.get(SHA_TABLE_OFFSET + position * 20, sha);
+    return sha;
+  }
+
+  public int getCrc(int position) {
+    return idx.getInt(crcTableOffset + position * 4);
+  }
+
+  public long getOffset(int position) {
+    int offset = idx.getInt(offset32TableOffset + position * 4);
+    if ((offset & PackIndexWriter.OFFSET64_FLAG) == 0) {
+      return offset;
+    }
+    return idx.getLong(offset64TableOffset + (offset & ~PackIndexWriter.OFFSET64_FLAG) * 8);
+  }
+
+  private int compare(int position, byte[] sha) {
+    int base = SHA_TABLE_OFFSET + position * 20;
+    for (int i = 0; i < 20; i++) {
+      int cmp = Integer.compare(idx.get(base + i) & 0xff, sha[i] & 0xff);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return 0;
+  }
+
+}
@@ -0,0 +1,84 @@
+package org.howietkl.git;
+
+import org.howietkl.git.utils.Utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a version 2 pack index:
+ * <pre>
+ * \377tOc, version 2
+ * fanout[256]    - cumulative count of objects whose first SHA-1 byte is <= i
+ * sha[n]         - sorted object names
+ * crc32[n]       - of each packed object
+ * offset32[n]    - pack offset, or MSB set and index into offset64 for offsets >= 2^31
+ * offset64[m]
+ * pack checksum, idx checksum
+ * </pre>
+ *
+ * @see <a href="https://git-scm.com/docs/pack-format#_version_2_pack_idx_files_support_packs_larger_than_4_gib_and">pack-format</a>
+ */
+public class PackIndexWriter {
+  static final byte[] MAGIC = {(byte) 0xff, 't', 'O', 'c'};
+  static final int VERSION = 2;
+  static final long MAX_OFFSET32 = 0x7fffffffL;
+  static final int OFFSET64_FLAG = 0x80000000;
+
+  public static void write(File idxFile, List<GitObject> objects, byte[] packChecksum) throws IOException {
+    List<GitObject> sorted = new ArrayList<>(objects);
+    sorted.sort((a, b) -> Arrays.compareUnsigned(a.getSha(), b.getSha()));
+
+    MessageDigest digest = Utils.newSha1();
+    try (DigestOutputStream digestOut = new DigestOutputStream(
+        new BufferedOutputStream(new FileOutputStream(idxFile), 1 << 16), digest);
+         DataOutputStream out = new DataOutputStream(digestOut)) {
+      out.write(MAGIC);
+      out.writeInt(VERSION);
+
+      int[] fanout = new int[256];
+      for (GitObject gitObject : sorted) {
+        fanout[gitObject.getSha()[0] & 0xff]++;
+      }
+      int count = 0;
+      for (int i = 0; i < 256; i++) {
+        count += fanout[i];
+        out.writeInt(count);
+      }
+
+      for (GitObject gitObject : sorted) {
+        out.write(gitObject.getSha());
+      }
+      for (GitObject gitObject : sorted) {
+        out.writeInt(gitObject.getCrc());
+      }
+      List<Long> offset64 = new ArrayList<>();
+      for (GitObject gitObject : sorted) {
+        long offset = gitObject.getOffset();
+        if (offset > MAX_OFFSET32) {
+          out.writeInt(OFFSET64_FLAG | offset64.size());
+          offset64.add(offset);
+        } else {
+          out.writeInt((int) offset);
+        }
+      }
+      for (long offset : offset64) {
+        out.writeLong(offset);
+      }
+
+      out.write(packChecksum);
+      out.flush();
+      digestOut.on(false);
+      out.write(digest.digest());
+    }
+  }
+
+}
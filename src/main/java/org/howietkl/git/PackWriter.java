@@ -0,0 +1,502 @@
+package org.howietkl.git;
+
+import org.howietkl.git.utils.Utils;
+import org.howietkl.git.utils.Zlib;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Builds a pack from the objects reachable from some commits but not from others, and
+ * streams it to any OutputStream, e.g. a file or a sideband channel.
+ * <p>
+ * Delta search works as in git's pack-objects: objects are sorted by type, name hash (so that
+ * versions of the same file end up next to each other) and size, largest first, and each is
+ * tried against the previous [window] objects of its type, keeping the smallest delta found.
+ * A {@link GitDelta.Index} of each object is built once, when it enters the window. Chains
+ * are limited to [depth] deltas, and the window shrinks while its objects and indexes exceed
+ * [windowMemory]. The sorted list is split into one contiguous segment per thread, each with
+ * its own window.
+ * <p>
+ * As in git, chosen deltas are kept in memory up to [deltaCacheSize] bytes, and then only the
+ * small ones and those costly to compute again; the rest, like whole objects, are computed
+ * again from the object database as they are written.
+ */
+public class PackWriter {
+  private static final Logger LOG = LoggerFactory.getLogger(PackWriter.class);
+  public static final int DEFAULT_WINDOW = 10;   // same as git pack.window
+  public static final int DEFAULT_DEPTH = 50;    // same as git pack.depth
+  public static final long DEFAULT_WINDOW_MEMORY = 0; // unlimited, as in git
+  public static final long DEFAULT_DELTA_CACHE_SIZE = 256L << 20; // same as git pack.deltaCacheSize
+  public static final int DEFAULT_DELTA_CACHE_LIMIT = 1000;       // same as git pack.deltaCacheLimit
+  static final int MIN_DELTA_SIZE = 50; // objects smaller than this are not worth a delta
+
+  private final ObjectDatabase db;
+  private final boolean isPartialClone;
+  private int window = DEFAULT_WINDOW;
+  private int depth = DEFAULT_DEPTH;
+  private long windowMemory = DEFAULT_WINDOW_MEMORY;
+  private int threads = GitPack.DEFAULT_THREADS;
+  private int compression = Deflater.DEFAULT_COMPRESSION;
+  private long deltaCacheSize = DEFAULT_DELTA_CACHE_SIZE;
+  private int deltaCacheLimit = DEFAULT_DELTA_CACHE_LIMIT;
+  private final AtomicLong deltaCacheBytes = new AtomicLong();
+  private final List<Entry> entries = new ArrayList<>();
+  private final Set<ObjectId> seen = new HashSet<>();
+  private int deltaCount;
+
+  /**
+   * An object to pack, and the delta chosen for it, if any.
+   */
+  static class Entry {
+    final ObjectId id;
+    final GitObjectType type;
+    final int size;
+    final int nameHash;
+    Entry base;
+    byte[] delta; // null for a delta not kept in memory, which is computed again when written
+    int depth;
+    long offset = -1;
+    int crc;
+
+    Entry(ObjectId id, GitObjectType type, int size, int nameHash) {
+      this.id = id;
+      this.type = type;
+      this.size = size;
+      this.nameHash = nameHash;
+    }
+  }
+
+  private record Candidate(Entry entry, GitDelta.Index index) {
+  }
+
+  /**
+   * @param config pack.window, pack.depth, pack.windowMemory, pack.threads, pack.deltaCacheSize,
+   *               pack.deltaCacheLimit and pack.compression or core.compression apply; in a
+   *               partial clone, with extensions.partialClone, objects missing locally are left out
+   */
+  public PackWriter(ObjectDatabase db, GitConfig config) {
+    this.db = db;
+    isPartialClone = config.get("extensions.partialClone") != null;
+    window = config.getInt("pack.window", window);
+    depth = config.getInt("pack.depth", depth);
+    windowMemory = config.getLong("pack.windowMemory", windowMemory);
+    threads = config.getInt("pack.threads", threads);
+    deltaCacheSize = config.getLong("pack.deltaCacheSize", deltaCacheSize);
+    deltaCacheLimit = config.getInt("pack.deltaCacheLimit", deltaCacheLimit);
+    compression = config.getInt("pack.compression", config.getInt("core.compression", compression));
+  }
+
+  public void setWindow(int window) {
+    this.window = window;
+  }
+
+  public void setDepth(int depth) {
+    this.depth = depth;
+  }
+
+  /**
+   * @param windowMemory bytes of objects and indexes a window may hold, 0 for no limit
+   */
+  public void setWindowMemory(long windowMemory) {
+    this.windowMemory = windowMemory;
+  }
+
+  public void setThreads(int threads) {
+    this.threads = Math.max(1, threads);
+  }
+
+  public int getObjectCount() {
+    return entries.size();
+  }
+
+  public int getDeltaCount() {
+    return deltaCount;
+  }
+
+  public String getSummary() {
+    return "window=" + window + " depth=" + depth + " threads=" + threads;
+  }
+
+  /**
+   * Adds the commits and annotated tags reachable from wants but not from haves, and their
+   * trees and blobs, in the order they will be written: commits first, most recent first,
+   * then trees and blobs as they are found. As in git, the trees of the commits where the two
+   * histories meet are not sent, since the receiver has them; objects that only older history
+   * shares may still be.
+   * <p>
+   * Commits come from a {@link RevWalk}, which reads the commit-graph if there is one and walks
+   * the history of the haves only as far back as that of the wants.
+   *
+   * @param shallow commits whose parents are not walked
+   * @throws FileNotFoundException if an object to send is missing, unless this is a partial clone
+   */
+  public void addObjects(Collection<ObjectId> wants, Collection<ObjectId> haves, Set<ObjectId> shallow) throws IOException {
+    RevWalk walk = new RevWalk(db, CommitGraph.open(new File(db.getDir(), ".git")), shallow);
+    for (ObjectId have : haves) {
+      if (db.contains(have)) {
+        try {
+          walk.markUninteresting(have);
+        } catch (IllegalArgumentException e) {
+          // not a commit, e.g. a tree, so it hides no history
+        }
+      }
+    }
+    List<ObjectId> trees = new ArrayList<>();
+    for (ObjectId want : wants) {
+      addWant(want, walk, trees);
+    }
+
+    Set<ObjectId> commits = new LinkedHashSet<>();
+    ObjectId id;
+    while ((id = walk.next()) != null) {
+      commits.add(id);
+    }
+    List<ObjectId> commitTrees = new ArrayList<>();
+    List<ObjectId> edgeTrees = new ArrayList<>();
+    for (ObjectId commitId : commits) {
+      GitObject commit = readIfLocal(commitId);
+      if (commit == null) {
+        continue;
+      }
+      entries.add(new Entry(commitId, GitObjectType.COMMIT, commit.getData().length, 0));
+      CommitHeader header = CommitHeader.parse(commit.getData());
+      commitTrees.add(header.tree());
+      if (shallow.contains(commitId)) {
+        continue;
+      }
+      for (ObjectId parent : header.parents()) {
+        if (!commits.contains(parent) && seen.add(parent) && db.contains(parent)) {
+          edgeTrees.add(CommitHeader.parse(db.read(parent).getData()).tree());
+        }
+      }
+    }
+    for (ObjectId tree : edgeTrees) {
+      markTree(tree);
+    }
+    for (ObjectId tree : commitTrees) {
+      addTree(tree, 0);
+    }
+    for (ObjectId tree : trees) {
+      addTree(tree, 0);
+    }
+    LOG.debug("addObjects commits={} objects={} inflated={}", commits.size(), entries.size(), walk.getInflatedCount());
+  }
+
+  /**
+   * Adds a want's annotated tags, if any, and starts the walk at the commit they point to; a
+   * wanted tree is added once the commits' trees are, and a blob straight away.
+   */
+  private void addWant(ObjectId id, RevWalk walk, List<ObjectId> trees) throws IOException {
+    GitObject gitObject = readLocal(id);
+    while (gitObject != null && gitObject.getInfo().getType() == GitObjectType.TAG) {
+      if (seen.add(id)) {
+        entries.add(new Entry(id, GitObjectType.TAG, gitObject.getData().length, 0));
+      }
+      // "object <id>" first, then what it tags
+      id = ObjectId.fromHex(new String(gitObject.getData(), 7, ObjectId.HEX_LENGTH, StandardCharsets.US_ASCII));
+      gitObject = readLocal(id);
+    }
+    if (gitObject == null) {
+      return;
+    }
+    switch (gitObject.getInfo().getType()) {
+      case COMMIT -> walk.markStart(id);
+      case TREE -> trees.add(id);
+      case BLOB -> {
+        if (seen.add(id)) {
+          entries.add(new Entry(id, GitObjectType.BLOB, gitObject.getData().length, 0));
+        }
+      }
+      default -> throw new IOException("Unexpected object type " + gitObject.getInfo().getType() + " sha=" + id);
+    }
+  }
+
+  /**
+   * Marks a tree the receiver has, and everything in it, as not to be sent.
+   */
+  private void markTree(ObjectId id) throws IOException {
+    if (!seen.add(id) || !db.contains(id)) {
+      return;
+    }
+    TreeParser parser = new TreeParser(db.read(id).getData());
+    while (parser.next()) {
+      if (parser.isTree()) {
+        markTree(parser.getId());
+      } else {
+        seen.add(parser.getId());
+      }
+    }
+  }
+
+  private void addTree(ObjectId id, int nameHash) throws IOException {
+    GitObject tree = readIfLocal(id);
+    if (tree == null) {
+      return;
+    }
+    entries.add(new Entry(id, GitObjectType.TREE, tree.getData().length, nameHash));
+    TreeParser parser = new TreeParser(tree.getData());
+    while (parser.next()) {
+      int entryHash = nameHash(parser.getName());
+      if (parser.isTree()) {
+        addTree(parser.getId(), entryHash);
+      } else if (parser.getMode() != TreeParser.MODE_GITLINK) {
+        ObjectId blobId = parser.getId();
+        GitObject blob = readIfLocal(blobId);
+        if (blob != null) {
+          entries.add(new Entry(blobId, GitObjectType.BLOB, blob.getData().length, entryHash));
+        }
+      }
+    }
+  }
+
+  /**
+   * @return object, or null if already seen or left on the promisor remote of a partial clone
+   */
+  private GitObject readIfLocal(ObjectId id) throws IOException {
+    return seen.add(id) ? readLocal(id) : null;
+  }
+
+  /**
+   * Checks before reading, so that a partial clone does not fetch what it left on its remote.
+   *
+   * @return object, or null if missing from a partial clone
+   * @throws FileNotFoundException if missing from any other repository
+   */
+  private GitObject readLocal(ObjectId id) throws IOException {
+    if (!db.contains(id)) {
+      if (isPartialClone) {
+        return null;
+      }
+      throw new FileNotFoundException("Object not found sha=" + id);
+    }
+    return db.read(id);
+  }
+
+  /**
+   * git's pack name hash: mostly the last characters of the name, so that files with the same
+   * name or extension sort together.
+   */
+  static int nameHash(String name) {
+    int hash = 0;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (!Character.isWhitespace(c)) {
+        hash = (hash >>> 2) + (c << 24);
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * @return number of objects to be stored as deltas
+   */
+  public int findDeltas() throws IOException {
+    if (window <= 0 || entries.isEmpty()) {
+      return 0;
+    }
+    List<Entry> sorted = new ArrayList<>(entries);
+    sorted.sort(Comparator.<Entry>comparingInt(e -> e.type.ordinal())
+        .thenComparingInt(e -> e.nameHash)
+        .thenComparing(Comparator.<Entry>comparingInt(e -> e.size).reversed()));
+    int segments = Math.min(threads, Math.max(1, sorted.size() / (window * 4)));
+    List<Callable<Integer>> tasks = new ArrayList<>();
+    for (int i = 0; i < segments; i++) {
+      List<Entry> segment = sorted.subList(i * sorted.size() / segments, (i + 1) * sorted.size() / segments);
+      tasks.add(() -> findSegmentDeltas(segment));
+    }
+    ForkJoinPool pool = new ForkJoinPool(segments);
+    try {
+      deltaCount = 0;
+      for (Future<Integer> result : pool.invokeAll(tasks)) {
+        deltaCount += result.get();
+      }
+      return deltaCount;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted searching for deltas", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Delta search failed", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private int findSegmentDeltas(List<Entry> segment) throws IOException {
+    Deque<Candidate> candidates = new ArrayDeque<>(window + 1);
+    long candidateBytes = 0;
+    int deltas = 0;
+    for (Entry entry : segment) {
+      if (entry.size < MIN_DELTA_SIZE) {
+        continue;
+      }
+      byte[] data = db.read(entry.id).getData();
+      byte[] best = null;
+      for (Candidate candidate : candidates) { // newest first
+        Entry base = candidate.entry();
+        if (base.type != entry.type || base.depth >= depth || entry.size < base.size / 32) {
+          continue;
+        }
+        // as git does, a deeper base has to give a proportionally smaller delta
+        long maxSize = best != null ? best.length - 1 : entry.size / 2 - 20;
+        maxSize = maxSize * (depth - base.depth) / (depth + 1);
+        if (maxSize <= 0) {
+          continue;
+        }
+        byte[] delta = candidate.index().encode(data, (int) maxSize);
+        if (delta != null) {
+          entry.base = base;
+          best = delta;
+          entry.depth = base.depth + 1;
+        }
+      }
+      if (best != null) {
+        entry.delta = keepDelta(best, entry.base.size, entry.size) ? best : null;
+        deltas++;
+      }
+      GitDelta.Index index = new GitDelta.Index(data);
+      candidates.addFirst(new Candidate(entry, index));
+      candidateBytes += index.getMemoryUsage();
+      while (candidates.size() > window
+          || (windowMemory > 0 && candidateBytes > windowMemory && candidates.size() > 1)) {
+        candidateBytes -= candidates.removeLast().index().getMemoryUsage();
+      }
+    }
+    return deltas;
+  }
+
+  /**
+   * git's delta_cacheable: within the budget, a delta is kept if it is small, or large objects
+   * made it costly to compute relative to its own size.
+   */
+  private boolean keepDelta(byte[] delta, int baseSize, int size) {
+    if (delta.length >= deltaCacheLimit && (baseSize >> 20) + (size >> 21) <= (delta.length >> 10)) {
+      return false;
+    }
+    if (deltaCacheSize > 0 && deltaCacheBytes.addAndGet(delta.length) > deltaCacheSize) {
+      deltaCacheBytes.addAndGet(-delta.length);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Writes entries in their collected order, except that a delta's base always comes first,
+   * since an OFS_DELTA can only refer back. Deltas that were not kept are computed again from
+   * their base, which gives the same delta as the search found.
+   *
+   * @return pack checksum, which has also been written
+   */
+  public byte[] write(OutputStream out) throws IOException {
+    MessageDigest digest = Utils.newSha1();
+    Deflater deflater = Zlib.borrowDeflater(compression);
+    try {
+      CountingOutputStream counter = new CountingOutputStream(new DigestOutputStream(out, digest));
+      counter.write("PACK".getBytes(StandardCharsets.US_ASCII));
+      counter.write(ByteBuffer.allocate(8).putInt(2).putInt(entries.size()).array());
+      for (Entry entry : entries) {
+        writeEntry(entry, counter, deflater);
+      }
+      byte[] checksum = digest.digest();
+      out.write(checksum);
+      out.flush();
+      return checksum;
+    } finally {
+      Zlib.release(deflater);
+    }
+  }
+
+  private void writeEntry(Entry entry, CountingOutputStream out, Deflater deflater) throws IOException {
+    if (entry.offset >= 0) {
+      return;
+    }
+    if (entry.base != null) {
+      writeEntry(entry.base, out, deflater);
+    }
+    entry.offset = out.count;
+    CRC32 crc = new CRC32();
+    byte[] header;
+    byte[] compressed;
+    if (entry.base != null && entry.delta == null) {
+      entry.delta = new GitDelta.Index(db.read(entry.base.id).getData())
+          .encode(db.read(entry.id).getData(), Integer.MAX_VALUE);
+    }
+    if (entry.delta != null) {
+      header = GitPack.entryHeader(GitObjectType.OFS_DELTA, entry.delta.length);
+      crc.update(header);
+      out.write(header);
+      header = GitPack.offsetVarInt(entry.offset - entry.base.offset);
+      compressed = GitPack.deflate(deflater, entry.delta);
+      entry.delta = null; // written, no longer needed
+    } else {
+      header = GitPack.entryHeader(entry.type, entry.size);
+      compressed = GitPack.deflate(deflater, db.read(entry.id).getData());
+    }
+    crc.update(header);
+    crc.update(compressed);
+    out.write(header);
+    out.write(compressed);
+    entry.crc = (int) crc.getValue();
+  }
+
+  /**
+   * @return entries as written, with their offsets and CRC32s, for {@link PackIndexWriter}
+   */
+  public List<GitObject> getIndexEntries() {
+    List<GitObject> indexed = new ArrayList<>(entries.size());
+    for (Entry entry : entries) {
+      GitObject gitObject = new GitObject(new GitObjectInfo());
+      gitObject.setSha(entry.id.toBytes());
+      gitObject.setOffset(entry.offset);
+      gitObject.setCrc(entry.crc);
+      indexed.add(gitObject);
+    }
+    return indexed;
+  }
+
+  private static class CountingOutputStream extends FilterOutputStream {
+    long count;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+  }
+
+}
@@ -0,0 +1,120 @@
+package org.howietkl.git;
+
+import org.howietkl.git.utils.FetchRequest;
+import org.howietkl.git.utils.FetchResponse;
+import org.howietkl.git.utils.GitHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DataFormatException;
+
+/**
+ * Remote that a partial clone left objects behind on, named by extensions.partialClone.
+ * Missing objects are fetched from it on demand, many per request.
+ */
+public class PromisorRemote {
+  private static final Logger LOG = LoggerFactory.getLogger(PromisorRemote.class);
+  static final int BATCH_SIZE = Integer.getInteger("promisor.batchSize", 1000);
+
+  private final String name;
+  private final String url;
+  private final File dir;
+  // not synchronized: a monitor held over the HTTP request would pin a virtual thread to its carrier
+  private final ReentrantLock lock = new ReentrantLock();
+  private int batchSize = BATCH_SIZE;
+
+  PromisorRemote(String name, String url, File dir) {
+    this.name = name;
+    this.url = url;
+    this.dir = dir;
+  }
+
+  /**
+   * @param dir repository root containing .git
+   * @return promisor remote from the repository's config, or null if this is not a partial clone
+   */
+  static PromisorRemote fromConfig(File dir) throws IOException {
+    GitConfig config = GitConfig.read(new File(dir, ".git"));
+    String name = config.get("extensions.partialClone");
+    if (name == null) {
+      return null;
+    }
+    String url = config.get("remote." + name + ".url");
+    if (url == null) {
+      throw new IOException("Promisor remote " + name + " has no url");
+    }
+    return new PromisorRemote(name, url, dir);
+  }
+
+  /**
+   * Records remote name as a promisor for a partial clone with filter, as git does.
+   */
+  public static void configure(File dir, String name, String filter) throws IOException {
+    GitConfig config = GitConfig.read(new File(dir, ".git"));
+    config.set("core.repositoryformatversion", "1");
+    config.set("extensions.partialClone", name);
+    config.set("remote." + name + ".promisor", "true");
+    config.set("remote." + name + ".partialclonefilter", filter);
+    config.write();
+  }
+
+  void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Fetches objects, batchSize per request, into promisor packs. Fetches are serialized, so
+   * concurrent readers missing the same object do not each fetch it.
+   */
+  void fetch(Collection<ObjectId> ids, ObjectDatabase db) throws IOException {
+    lock.lock();
+    try {
+      Set<ObjectId> missing = new LinkedHashSet<>();
+      for (ObjectId id : ids) {
+        if (!db.contains(id)) { // another thread may have fetched it meanwhile
+          missing.add(id);
+        }
+      }
+      List<ObjectId> batch = new ArrayList<>(Math.min(missing.size(), batchSize));
+      for (ObjectId id : missing) {
+        batch.add(id);
+        if (batch.size() == batchSize) {
+          fetchBatch(batch);
+          batch.clear();
+        }
+      }
+      if (!batch.isEmpty()) {
+        fetchBatch(batch);
+      }
+      db.rescan();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void fetchBatch(List<ObjectId> batch) throws IOException {
+    long start = System.nanoTime();
+    File packFile = new File(dir, ".git/objects/pack/tmp_pack_promisor");
+    try {
+      FetchResponse fetched = GitHttpClient.fetchPack(url, new FetchRequest(new LinkedHashSet<>(batch)), packFile);
+      GitPack.process(fetched.getPackFile(), dir, true);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted fetching from promisor remote " + name, e);
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt pack from promisor remote " + name, e);
+    } finally {
+      packFile.delete(); // no-op once kept under its final name
+    }
+    LOG.info("fetch promisor={} objects={} ms={}", name, batch.size(), (System.nanoTime() - start) / 1_000_000);
+  }
+
+}
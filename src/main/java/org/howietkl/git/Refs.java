@@ -0,0 +1,140 @@
+package org.howietkl.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * References under .git: loose files such as refs/heads/main holding a hex object id, the
+ * read-only packed-refs file, and HEAD, which normally names a branch ("ref: refs/heads/main").
+ * Loose refs take precedence over packed ones, as in git.
+ */
+public class Refs {
+  static final String SYMREF_PREFIX = "ref: ";
+
+  /**
+   * @param name full ref name, e.g. refs/heads/main, or HEAD
+   * @return object id the ref points to, following symbolic refs, or null if it does not exist
+   */
+  public static ObjectId read(File gitDir, String name) throws IOException {
+    for (int depth = 0; depth < 5; depth++) {
+      File file = new File(gitDir, name);
+      if (!file.isFile()) {
+        return readPacked(gitDir).get(name);
+      }
+      String value = Files.readString(file.toPath(), StandardCharsets.UTF_8).trim();
+      if (!value.startsWith(SYMREF_PREFIX)) {
+        return ObjectId.fromHex(value);
+      }
+      name = value.substring(SYMREF_PREFIX.length());
+    }
+    throw new IOException("Symbolic ref loop at " + name);
+  }
+
+  /**
+   * Resolves a revision as git does for a name: a full hex object id, or the first of name,
+   * refs/name, refs/tags/name, refs/heads/name, refs/remotes/name and refs/remotes/name/HEAD
+   * that exists.
+   *
+   * @return object id, or null if name matches nothing
+   */
+  public static ObjectId resolve(File gitDir, String name) throws IOException {
+    if (ObjectId.isHex(name)) {
+      return ObjectId.fromHex(name);
+    }
+    for (String candidate : new String[]{name, "refs/" + name, "refs/tags/" + name, "refs/heads/" + name,
+        "refs/remotes/" + name, "refs/remotes/" + name + "/HEAD"}) {
+      ObjectId id = read(gitDir, candidate);
+      if (id != null) {
+        return id;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return ref that name, typically HEAD, points to if it is a symbolic ref, otherwise null
+   */
+  public static String readSymref(File gitDir, String name) throws IOException {
+    File file = new File(gitDir, name);
+    if (!file.isFile()) {
+      return null;
+    }
+    String value = Files.readString(file.toPath(), StandardCharsets.UTF_8).trim();
+    return value.startsWith(SYMREF_PREFIX) ? value.substring(SYMREF_PREFIX.length()) : null;
+  }
+
+  /**
+   * @return all refs whose names start with prefix, e.g. "refs/", sorted by name
+   */
+  public static Map<String, ObjectId> list(File gitDir, String prefix) throws IOException {
+    Map<String, ObjectId> refs = new TreeMap<>();
+    readPacked(gitDir).forEach((name, id) -> {
+      if (name.startsWith(prefix)) {
+        refs.put(name, id);
+      }
+    });
+    listLoose(gitDir, new File(gitDir, "refs"), "refs/", prefix, refs);
+    return refs;
+  }
+
+  private static void listLoose(File gitDir, File dir, String path, String prefix, Map<String, ObjectId> refs) throws IOException {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      String name = path + file.getName();
+      if (file.isDirectory()) {
+        listLoose(gitDir, file, name + "/", prefix, refs);
+      } else if (name.startsWith(prefix) && !name.endsWith(".lock")) {
+        ObjectId id = read(gitDir, name);
+        if (id != null) {
+          refs.put(name, id);
+        }
+      }
+    }
+  }
+
+  private static Map<String, ObjectId> readPacked(File gitDir) throws IOException {
+    Map<String, ObjectId> refs = new TreeMap<>();
+    File file = new File(gitDir, "packed-refs");
+    if (!file.isFile()) {
+      return refs;
+    }
+    for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+      // "# pack-refs with:" header, and "^<id>" lines peeling the annotated tag above
+      if (line.length() > ObjectId.HEX_LENGTH && !line.startsWith("#") && !line.startsWith("^")) {
+        refs.put(line.substring(ObjectId.HEX_LENGTH + 1), ObjectId.fromHex(line.substring(0, ObjectId.HEX_LENGTH)));
+      }
+    }
+    return refs;
+  }
+
+  /**
+   * Points a loose ref at id, via a lock file renamed into place.
+   */
+  public static void update(File gitDir, String name, ObjectId id) throws IOException {
+    write(gitDir, name, id + "\n");
+  }
+
+  /**
+   * Makes name, typically HEAD, a symbolic ref to target.
+   */
+  public static void link(File gitDir, String name, String target) throws IOException {
+    write(gitDir, name, SYMREF_PREFIX + target + "\n");
+  }
+
+  private static void write(File gitDir, String name, String value) throws IOException {
+    File file = new File(gitDir, name);
+    file.getParentFile().mkdirs();
+    File lock = new File(file.getParentFile(), file.getName() + ".lock");
+    Files.writeString(lock.toPath(), value, StandardCharsets.UTF_8);
+    Files.move(lock.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+}
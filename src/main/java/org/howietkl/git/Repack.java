@@ -0,0 +1,162 @@
+package org.howietkl.git;
+
+import org.howietkl.git.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs every object reachable from the refs and HEAD into a single pack with OFS_DELTA
+ * entries, then deletes the loose copies and any older pack the new one makes redundant, and
+ * rewrites the commit-graph.
+ * Delta search and writing are done by {@link PackWriter}.
+ */
+public class Repack {
+  private static final Logger LOG = LoggerFactory.getLogger(Repack.class);
+
+  private final File dir;
+  private final ObjectDatabase db;
+  private final PackWriter writer;
+
+  /**
+   * @param dir repository root containing .git; pack.window, pack.depth, pack.windowMemory,
+   *            pack.threads and pack.compression or core.compression from its config apply
+   */
+  public Repack(File dir) throws IOException {
+    this.dir = dir;
+    this.db = ObjectDatabase.open(dir);
+    this.writer = new PackWriter(db, GitConfig.read(new File(dir, ".git")));
+  }
+
+  public void setWindow(int window) {
+    writer.setWindow(window);
+  }
+
+  public void setDepth(int depth) {
+    writer.setDepth(depth);
+  }
+
+  /**
+   * @param windowMemory bytes of objects and indexes a window may hold, 0 for no limit
+   */
+  public void setWindowMemory(long windowMemory) {
+    writer.setWindowMemory(windowMemory);
+  }
+
+  public void setThreads(int threads) {
+    writer.setThreads(threads);
+  }
+
+  /**
+   * @return the new pack, or null if there was nothing to pack
+   */
+  public File run() throws IOException {
+    long start = System.nanoTime();
+    List<PackFile> oldPacks = new ArrayList<>(db.getPacks());
+    File gitDir = new File(dir, ".git");
+    List<ObjectId> tips = new ArrayList<>();
+    ObjectId head = Refs.read(gitDir, "HEAD");
+    if (head != null) {
+      tips.add(head);
+    }
+    tips.addAll(Refs.list(gitDir, "refs/").values());
+    writer.addObjects(tips, List.of(), ShallowFile.read(gitDir));
+    if (writer.getObjectCount() == 0) {
+      return null;
+    }
+    long collected = System.nanoTime();
+    int deltas = writer.findDeltas();
+    long searched = System.nanoTime();
+
+    File packDir = new File(dir, ".git/objects/pack");
+    packDir.mkdirs();
+    File tmpPack = new File(packDir, "tmp_repack");
+    File tmpIdx = new File(packDir, "tmp_repack_idx");
+    File packFile;
+    List<GitObject> indexed;
+    try {
+      byte[] checksum;
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpPack), 1 << 16)) {
+        checksum = writer.write(out);
+      }
+      indexed = writer.getIndexEntries();
+      PackIndexWriter.write(tmpIdx, indexed, checksum);
+      String name = "pack-" + Utils.bytesToHex(checksum);
+      if (oldPacks.stream().anyMatch(Repack::isPromisor)) {
+        new File(packDir, name + ".promisor").createNewFile(); // still stands in for what the promisor has
+      }
+      packFile = new File(packDir, name + ".pack");
+      // idx last, since its presence is what makes the pack visible
+      Files.move(tmpPack.toPath(), packFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      Files.move(tmpIdx.toPath(), new File(packDir, name + ".idx").toPath(), StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      tmpPack.delete(); // no-op once moved
+      tmpIdx.delete();
+    }
+    long written = System.nanoTime();
+
+    int pruned = prune(indexed, oldPacks, packFile);
+    ObjectDatabase.forget(dir); // old packs are gone, so start over with the new one
+    CommitGraphWriter.write(gitDir, ObjectDatabase.open(dir)); // as git gc does
+    LOG.info("repack objects={} deltas={} packBytes={} pruned={} {} collectMs={} deltaMs={} writeMs={}",
+        indexed.size(), deltas, packFile.length(), pruned, writer.getSummary(), (collected - start) / 1_000_000,
+        (searched - collected) / 1_000_000, (written - searched) / 1_000_000);
+    return packFile;
+  }
+
+  private static boolean isPromisor(PackFile pack) {
+    String name = pack.getFile().getName();
+    return new File(pack.getFile().getParentFile(), name.substring(0, name.length() - 5) + ".promisor").isFile();
+  }
+
+  /**
+   * Deletes loose copies of packed objects, and older packs whose every object is in the new
+   * pack, unless marked with a .keep file.
+   *
+   * @return number of files deleted
+   */
+  private int prune(List<GitObject> packed, List<PackFile> oldPacks, File packFile) throws IOException {
+    int pruned = 0;
+    for (GitObject gitObject : packed) {
+      if (new File(dir, Utils.getPath(ObjectId.fromBytes(gitObject.getSha()))).delete()) {
+        pruned++;
+      }
+    }
+    PackIndex index = new PackIndex(new File(packFile.getParentFile(),
+        packFile.getName().substring(0, packFile.getName().length() - 5) + ".idx"));
+    for (PackFile old : oldPacks) {
+      File oldFile = old.getFile();
+      String base = oldFile.getName().substring(0, oldFile.getName().length() - 5);
+      File packDir = oldFile.getParentFile();
+      if (oldFile.equals(packFile) || new File(packDir, base + ".keep").exists() || !isCovered(old.getIndex(), index)) {
+        continue;
+      }
+      // idx first, so that nothing finds a pack that is half deleted
+      new File(packDir, base + ".idx").delete();
+      oldFile.delete();
+      new File(packDir, base + ".promisor").delete();
+      pruned++;
+    }
+    return pruned;
+  }
+
+  private static boolean isCovered(PackIndex old, PackIndex index) {
+    for (int i = 0; i < old.getObjectCount(); i++) {
+      if (index.find(old.getSha(i)) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,321 @@
+package org.howietkl.git;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Walks commit history newest first, as git log and rev-list do, and answers merge-base
+ * queries. Commits are numbered nodes: those in the {@link CommitGraph} by their graph
+ * position, so that walking them reads only the mapped file, and any newer commits after
+ * those, inflated once each as they are reached.
+ * <p>
+ * Commits are output as they leave a priority queue ordered by commit time, so a commit whose
+ * time is skewed ahead of its children may come out before a hidden descendant reaches it.
+ * One RevWalk does one walk or query at a time.
+ */
+public class RevWalk {
+  private static final Logger LOG = LoggerFactory.getLogger(RevWalk.class);
+  private static final int UNINTERESTING = 1;
+  private static final int SEEN = 2;
+  private static final int QUEUED = 4;
+  private static final int PARENT1 = 8;
+  private static final int PARENT2 = 16;
+  private static final int STALE = 32;
+
+  private record Extra(ObjectId id, ObjectId[] parents, long commitTime) {
+  }
+
+  private final ObjectDatabase db;
+  private final CommitGraph graph;
+  private final Set<ObjectId> shallow;
+  private final int graphCount;
+  private final List<Extra> extras = new ArrayList<>();
+  private final Map<ObjectId, Integer> extraNodes = new HashMap<>();
+  private byte[] flags; // the flag bits of each node, which all fit in a byte
+  private PriorityQueue<Integer> queue;
+  private int interestingQueued;
+  private int inflated;
+
+  /**
+   * @param dir repository root containing .git
+   */
+  public RevWalk(File dir) throws IOException {
+    this(ObjectDatabase.open(dir), CommitGraph.open(new File(dir, ".git")), ShallowFile.read(new File(dir, ".git")));
+  }
+
+  /**
+   * @param graph   commit-graph, or null to inflate every commit
+   * @param shallow commits whose parents are not walked
+   */
+  public RevWalk(ObjectDatabase db, CommitGraph graph, Set<ObjectId> shallow) {
+    this.db = db;
+    this.graph = graph;
+    this.shallow = shallow;
+    this.graphCount = graph != null ? graph.getCommitCount() : 0;
+    this.flags = new byte[graphCount + 16];
+    this.queue = new PriorityQueue<>(byTime());
+  }
+
+  /**
+   * @return number of commits read from the object database rather than the commit-graph
+   */
+  public int getInflatedCount() {
+    return inflated;
+  }
+
+  /**
+   * Adds a commit, or the commit an annotated tag points to, to be output with its ancestors.
+   */
+  public void markStart(ObjectId id) throws IOException {
+    push(lookup(peel(id)), 0);
+  }
+
+  /**
+   * Hides a commit and its ancestors, as ^id or the left side of left..right does.
+   */
+  public void markUninteresting(ObjectId id) throws IOException {
+    push(lookup(peel(id)), UNINTERESTING);
+  }
+
+  /**
+   * @return next commit, newest first, or null once only hidden commits are left
+   */
+  public ObjectId next() throws IOException {
+    while (interestingQueued > 0) {
+      int node = queue.poll();
+      removeFlags(node, QUEUED);
+      boolean uninteresting = (flags[node] & UNINTERESTING) != 0;
+      if (!uninteresting) {
+        interestingQueued--;
+      }
+      if (!isShallow(node)) {
+        for (int parent : parents(node)) {
+          push(parent, uninteresting ? UNINTERESTING : 0);
+        }
+      }
+      if (!uninteresting) {
+        return getId(node);
+      }
+    }
+    return null;
+  }
+
+  private void push(int node, int flag) throws IOException {
+    int old = flags[node];
+    if ((old & SEEN) == 0) {
+      addFlags(node, SEEN | QUEUED | flag);
+      if (flag != UNINTERESTING) {
+        interestingQueued++;
+      }
+      queue.add(node);
+    } else if (flag == UNINTERESTING && (old & UNINTERESTING) == 0) {
+      markUninteresting(node);
+    }
+  }
+
+  /**
+   * Hides a commit reached again by a hidden path, and those of its ancestors already reached.
+   */
+  private void markUninteresting(int node) throws IOException {
+    List<Integer> pending = new ArrayList<>(List.of(node));
+    while (!pending.isEmpty()) {
+      int next = pending.removeLast();
+      int old = flags[next];
+      if ((old & SEEN) == 0 || (old & UNINTERESTING) != 0) {
+        continue;
+      }
+      addFlags(next, UNINTERESTING);
+      if ((old & QUEUED) != 0) {
+        interestingQueued--;
+      } else if (!isShallow(next)) {
+        for (int parent : parents(next)) {
+          pending.add(parent); // already walked past, so its parents were pushed as interesting
+        }
+      }
+    }
+  }
+
+  /**
+   * Paints the ancestors of each commit, in generation order so that a common ancestor is
+   * reached after all of its descendants, and stops once every queued commit is an ancestor
+   * of a base already found.
+   *
+   * @return best common ancestors of a and b, newest first; empty if the histories are unrelated
+   */
+  public List<ObjectId> mergeBases(ObjectId a, ObjectId b) throws IOException {
+    reset(byGenerationThenTime());
+    int nodeA = lookup(peel(a));
+    int nodeB = lookup(peel(b));
+    if (nodeA == nodeB) {
+      return List.of(getId(nodeA));
+    }
+    List<Integer> results = new ArrayList<>();
+    int nonStaleQueued = 0;
+    addFlags(nodeA, PARENT1 | QUEUED);
+    addFlags(nodeB, PARENT2 | QUEUED);
+    queue.add(nodeA);
+    queue.add(nodeB);
+    nonStaleQueued += 2;
+    while (nonStaleQueued > 0) {
+      int node = queue.poll();
+      removeFlags(node, QUEUED);
+      int paint = flags[node] & (PARENT1 | PARENT2 | STALE);
+      if ((paint & STALE) == 0) {
+        nonStaleQueued--;
+      }
+      if (paint == (PARENT1 | PARENT2)) {
+        results.add(node);
+        paint |= STALE;
+      }
+      if (isShallow(node)) {
+        continue;
+      }
+      for (int parent : parents(node)) {
+        int old = flags[parent];
+        if ((old & paint) == paint) {
+          continue;
+        }
+        addFlags(parent, paint);
+        if ((old & QUEUED) == 0) {
+          addFlags(parent, QUEUED);
+          queue.add(parent);
+          if ((flags[parent] & STALE) == 0) {
+            nonStaleQueued++;
+          }
+        } else if ((old & STALE) == 0 && (paint & STALE) != 0) {
+          nonStaleQueued--;
+        }
+      }
+    }
+    List<ObjectId> bases = new ArrayList<>();
+    results.stream()
+        .filter(node -> (flags[node] & STALE) == 0) // else an ancestor of another base
+        .sorted(byTime())
+        .forEach(node -> bases.add(getId(node)));
+    LOG.debug("mergeBases a={} b={} bases={} inflated={}", a, b, bases.size(), inflated);
+    return bases;
+  }
+
+  /**
+   * @return true if ancestor is descendant or one of its ancestors
+   */
+  public boolean isAncestor(ObjectId ancestor, ObjectId descendant) throws IOException {
+    return mergeBases(ancestor, descendant).contains(peel(ancestor));
+  }
+
+  private void addFlags(int node, int bits) {
+    flags[node] = (byte) (flags[node] | bits);
+  }
+
+  private void removeFlags(int node, int bits) {
+    flags[node] = (byte) (flags[node] & ~bits);
+  }
+
+  private void reset(Comparator<Integer> order) {
+    Arrays.fill(flags, (byte) 0);
+    queue = new PriorityQueue<>(order);
+    interestingQueued = 0;
+  }
+
+  private Comparator<Integer> byTime() {
+    return (x, y) -> {
+      int c = Long.compare(getCommitTime(y), getCommitTime(x));
+      return c != 0 ? c : Integer.compare(x, y);
+    };
+  }
+
+  private Comparator<Integer> byGenerationThenTime() {
+    return (x, y) -> {
+      int c = Integer.compare(getGeneration(y), getGeneration(x));
+      return c != 0 ? c : byTime().compare(x, y);
+    };
+  }
+
+  /**
+   * @return node of the commit, reading it from the object database if the graph lacks it
+   */
+  private int lookup(ObjectId id) throws IOException {
+    if (graph != null) {
+      int position = graph.find(id);
+      if (position >= 0) {
+        return position;
+      }
+    }
+    Integer node = extraNodes.get(id);
+    if (node != null) {
+      return node;
+    }
+    GitObject commit = db.read(id);
+    if (commit == null) {
+      throw new FileNotFoundException("Commit not found sha=" + id);
+    }
+    if (commit.getInfo().getType() != GitObjectType.COMMIT) {
+      throw new IllegalArgumentException("Not a commit: " + id);
+    }
+    inflated++;
+    CommitHeader header = CommitHeader.parse(commit.getData());
+    extras.add(new Extra(id, header.parents().toArray(new ObjectId[0]), header.commitTime()));
+    node = graphCount + extras.size() - 1;
+    extraNodes.put(id, node);
+    if (node >= flags.length) {
+      flags = Arrays.copyOf(flags, flags.length * 2);
+    }
+    return node;
+  }
+
+  /**
+   * @return commit an annotated tag, or chain of them, points to; id itself otherwise
+   */
+  private ObjectId peel(ObjectId id) throws IOException {
+    while (graph == null || graph.find(id) < 0) {
+      GitObject gitObject = db.read(id);
+      if (gitObject == null || gitObject.getInfo().getType() != GitObjectType.TAG) {
+        break;
+      }
+      id = ObjectId.fromHex(new String(gitObject.getData(), 7, ObjectId.HEX_LENGTH, StandardCharsets.US_ASCII));
+    }
+    return id;
+  }
+
+  private int[] parents(int node) throws IOException {
+    if (node < graphCount) {
+      return graph.getParents(node);
+    }
+    ObjectId[] parentIds = extras.get(node - graphCount).parents();
+    int[] parents = new int[parentIds.length];
+    for (int i = 0; i < parents.length; i++) {
+      parents[i] = lookup(parentIds[i]);
+    }
+    return parents;
+  }
+
+  private boolean isShallow(int node) {
+    return !shallow.isEmpty() && shallow.contains(getId(node));
+  }
+
+  private ObjectId getId(int node) {
+    return node < graphCount ? graph.getId(node) : extras.get(node - graphCount).id();
+  }
+
+  private long getCommitTime(int node) {
+    return node < graphCount ? graph.getCommitTime(node) : extras.get(node - graphCount).commitTime();
+  }
+
+  private int getGeneration(int node) {
+    return node < graphCount ? graph.getGeneration(node) : CommitGraph.INFINITY;
+  }
+
+}
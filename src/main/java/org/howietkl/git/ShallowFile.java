@@ -0,0 +1,57 @@
+package org.howietkl.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * .git/shallow: one hex object id per line, naming the commits whose parents were deliberately
+ * not fetched. History walks stop at these instead of reporting the parents missing.
+ */
+public class ShallowFile {
+
+  /**
+   * @return shallow commits, empty if the repository is complete
+   */
+  public static Set<ObjectId> read(File gitDir) throws IOException {
+    File file = new File(gitDir, "shallow");
+    Set<ObjectId> shallow = new HashSet<>();
+    if (file.isFile()) {
+      for (String line : Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII)) {
+        if (!line.isBlank()) {
+          shallow.add(ObjectId.fromHex(line.trim()));
+        }
+      }
+    }
+    return shallow;
+  }
+
+  /**
+   * Adds and removes shallow commits as a fetch's shallow-info section says, then rewrites the
+   * file sorted, as git does, or deletes it once nothing is shallow.
+   */
+  public static void update(File gitDir, Set<ObjectId> shallow, Set<ObjectId> unshallow) throws IOException {
+    if (shallow.isEmpty() && unshallow.isEmpty()) {
+      return;
+    }
+    Set<ObjectId> updated = new TreeSet<>(read(gitDir));
+    updated.addAll(shallow);
+    updated.removeAll(unshallow);
+    File file = new File(gitDir, "shallow");
+    if (updated.isEmpty()) {
+      Files.deleteIfExists(file.toPath());
+      return;
+    }
+    StringBuilder out = new StringBuilder();
+    updated.forEach(id -> out.append(id).append('\n'));
+    File lock = new File(gitDir, "shallow.lock");
+    Files.writeString(lock.toPath(), out, StandardCharsets.US_ASCII);
+    Files.move(lock.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+}
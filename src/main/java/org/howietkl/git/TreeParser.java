@@ -0,0 +1,104 @@
+package org.howietkl.git;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Cursor over the entries of a tree object, [mode] [name]\0[20 byte SHA-1] each. Nothing is
+ * allocated per entry unless asked for: the mode is parsed as an int, and the name and id
+ * are only materialized by {@link #getName()} and {@link #getId()}.
+ * <pre>
+ * TreeParser tree = new TreeParser(data);
+ * while (tree.next()) {
+ *   if (tree.isTree()) ...
+ * }
+ * </pre>
+ */
+public class TreeParser {
+  public static final int MODE_TREE = 0040000;
+  public static final int MODE_FILE = 0100644;
+  public static final int MODE_EXECUTABLE = 0100755;
+  public static final int MODE_SYMLINK = 0120000;
+  public static final int MODE_GITLINK = 0160000;
+  static final int MODE_TYPE_MASK = 0170000;
+
+  private final byte[] data;
+  private final int end;
+  private int pos;
+  private int mode;
+  private int nameStart;
+  private int nameEnd;
+
+  public TreeParser(byte[] data) {
+    this(data, 0, data.length);
+  }
+
+  /**
+   * @param from position of the first entry
+   * @param end  position just past the last entry
+   */
+  public TreeParser(byte[] data, int from, int end) {
+    this.data = data;
+    this.pos = from;
+    this.end = end;
+  }
+
+  /**
+   * Moves to the next entry.
+   *
+   * @return false once past the last entry
+   * @throws IllegalStateException if the entry is malformed
+   */
+  public boolean next() {
+    if (pos >= end) {
+      return false;
+    }
+    int m = 0;
+    while (pos < end && data[pos] != ' ') {
+      int digit = data[pos++] - '0';
+      if (digit < 0 || digit > 7) {
+        throw new IllegalStateException("Bad tree entry mode at " + pos);
+      }
+      m = (m << 3) | digit;
+    }
+    nameStart = ++pos;
+    while (pos < end && data[pos] != 0) {
+      pos++;
+    }
+    nameEnd = pos;
+    pos += 1 + ObjectId.LENGTH;
+    if (pos > end) {
+      throw new IllegalStateException("Truncated tree entry at " + nameStart);
+    }
+    mode = m;
+    return true;
+  }
+
+  public int getMode() {
+    return mode;
+  }
+
+  public boolean isTree() {
+    return (mode & MODE_TYPE_MASK) == MODE_TREE;
+  }
+
+  public String getName() {
+    return new String(data, nameStart, nameEnd - nameStart, StandardCharsets.UTF_8);
+  }
+
+  public int getNameLength() {
+    return nameEnd - nameStart;
+  }
+
+  /**
+   * @return whether the entry name is exactly these bytes, without decoding it
+   */
+  public boolean nameEquals(byte[] name) {
+    return Arrays.equals(data, nameStart, nameEnd, name, 0, name.length);
+  }
+
+  public ObjectId getId() {
+    return ObjectId.fromBytes(data, nameEnd + 1);
+  }
+
+}
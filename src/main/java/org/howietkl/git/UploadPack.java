@@ -0,0 +1,247 @@
+package org.howietkl.git;
+
+import org.howietkl.git.utils.PktLineReader;
+import org.howietkl.git.utils.PktLineWriter;
+import org.howietkl.git.utils.SidebandOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Server side of protocol v2 upload-pack for one repository: the capability advertisement, and
+ * the ls-refs and fetch commands, each read from one request and answered on one response
+ * stream, as in the stateless HTTP transport.
+ * <p>
+ * A fetch sends the objects reachable from the wants but not from the common haves, packed by
+ * {@link PackWriter} while being written to a sideband stream; the pack is never held whole.
+ * Objects are sent whole unless pack.window is set, since deltas are not reused from disk and
+ * searching for them anew on every fetch is left to repack.
+ * As with git's default uploadpack.allowTipSHA1InWant=false, only the ids ls-refs advertises,
+ * and what their tags peel to, may be wanted. Deepen and filter are not supported, nor advertised.
+ *
+ * @see <a href="https://git-scm.com/docs/protocol-v2">protocol v2</a>
+ */
+public class UploadPack {
+  private static final Logger LOG = LoggerFactory.getLogger(UploadPack.class);
+  static final String AGENT = "agent=codecrafters-git-java";
+
+  private final File dir;
+  private final File gitDir;
+  private final ObjectDatabase db;
+
+  /**
+   * @param dir repository root containing .git
+   */
+  public UploadPack(File dir) {
+    this.dir = dir;
+    this.gitDir = new File(dir, ".git");
+    this.db = ObjectDatabase.open(dir);
+  }
+
+  /**
+   * Response to GET /info/refs?service=git-upload-pack.
+   */
+  public static void advertise(OutputStream out) throws IOException {
+    new PktLineWriter(out)
+        .line("# service=git-upload-pack")
+        .flush()
+        .line("version 2")
+        .line(AGENT)
+        .line("ls-refs")
+        .line("fetch")
+        .line("object-format=sha1")
+        .flush();
+    out.flush();
+  }
+
+  /**
+   * Runs the command in the request: "command=..." and capabilities, a delimiter, then the
+   * command's arguments up to a flush.
+   */
+  public void handle(InputStream in, OutputStream out) throws IOException {
+    PktLineReader reader = new PktLineReader(in);
+    String command = null;
+    int length;
+    while ((length = reader.read()) >= 0) {
+      String line = reader.getPayloadString();
+      if (line.startsWith("command=")) {
+        command = line.substring("command=".length());
+      }
+    }
+    if (length != PktLineReader.DELIM_PKT && length != PktLineReader.FLUSH_PKT) {
+      throw new IOException("Malformed request, expecting capabilities and delimiter");
+    }
+    List<String> args = new ArrayList<>();
+    if (length == PktLineReader.DELIM_PKT) {
+      while (reader.read() >= 0) {
+        args.add(reader.getPayloadString());
+      }
+    }
+    LOG.debug("handle dir={} command={} args={}", dir, command, args.size());
+    if ("ls-refs".equals(command)) {
+      lsRefs(args, out);
+    } else if ("fetch".equals(command)) {
+      fetch(args, out);
+    } else {
+      new PktLineWriter(out).line("ERR unknown command " + command).flush();
+    }
+    out.flush();
+  }
+
+  private void lsRefs(List<String> args, OutputStream out) throws IOException {
+    boolean symrefs = args.contains("symrefs");
+    boolean peel = args.contains("peel");
+    List<String> prefixes = new ArrayList<>();
+    for (String arg : args) {
+      if (arg.startsWith("ref-prefix ")) {
+        prefixes.add(arg.substring("ref-prefix ".length()));
+      }
+    }
+    PktLineWriter writer = new PktLineWriter(out);
+    ObjectId head = Refs.read(gitDir, "HEAD");
+    if (head != null && matches("HEAD", prefixes)) {
+      String target = symrefs ? Refs.readSymref(gitDir, "HEAD") : null;
+      writer.line(head + " HEAD" + (target != null ? " symref-target:" + target : ""));
+    }
+    for (Map.Entry<String, ObjectId> ref : Refs.list(gitDir, "refs/").entrySet()) {
+      if (!matches(ref.getKey(), prefixes)) {
+        continue;
+      }
+      String line = ref.getValue() + " " + ref.getKey();
+      if (peel) {
+        ObjectId peeled = peel(ref.getValue());
+        if (!peeled.equals(ref.getValue())) {
+          line += " peeled:" + peeled;
+        }
+      }
+      writer.line(line);
+    }
+    writer.flush();
+  }
+
+  private static boolean matches(String name, List<String> prefixes) {
+    return prefixes.isEmpty() || prefixes.stream().anyMatch(name::startsWith);
+  }
+
+  /**
+   * @return object an annotated tag, or chain of them, points to; id itself for anything else
+   */
+  private ObjectId peel(ObjectId id) throws IOException {
+    while (db.contains(id)) {
+      GitObject tag = db.read(id);
+      if (tag.getInfo().getType() != GitObjectType.TAG) {
+        break;
+      }
+      id = ObjectId.fromHex(new String(tag.getData(), 7, ObjectId.HEX_LENGTH, StandardCharsets.US_ASCII));
+    }
+    return id;
+  }
+
+  /**
+   * @return ids of HEAD and the refs, and what annotated tags among them peel to
+   */
+  private Set<ObjectId> getAdvertisedIds() throws IOException {
+    Set<ObjectId> ids = new HashSet<>();
+    ObjectId head = Refs.read(gitDir, "HEAD");
+    if (head != null) {
+      ids.add(head);
+    }
+    for (ObjectId id : Refs.list(gitDir, "refs/").values()) {
+      ids.add(id);
+      ids.add(peel(id));
+    }
+    return ids;
+  }
+
+  private void fetch(List<String> args, OutputStream out) throws IOException {
+    Set<ObjectId> wants = new LinkedHashSet<>();
+    List<ObjectId> common = new ArrayList<>();
+    Set<ObjectId> shallow = new HashSet<>(ShallowFile.read(gitDir));
+    boolean done = false;
+    boolean progress = true;
+    PktLineWriter writer = new PktLineWriter(out);
+    Set<ObjectId> tips = null;
+    for (String arg : args) {
+      if (arg.startsWith("want ")) {
+        ObjectId want = ObjectId.fromHex(arg.substring(5));
+        if (tips == null) {
+          tips = getAdvertisedIds();
+        }
+        if (!tips.contains(want)) {
+          writer.line("ERR upload-pack: not our ref " + want).flush();
+          return;
+        }
+        wants.add(want);
+      } else if (arg.startsWith("have ")) {
+        ObjectId have = ObjectId.fromHex(arg.substring(5));
+        if (db.contains(have)) {
+          common.add(have);
+        }
+      } else if (arg.startsWith("shallow ")) {
+        shallow.add(ObjectId.fromHex(arg.substring(8))); // client's history ends there
+      } else if ("done".equals(arg)) {
+        done = true;
+      } else if ("no-progress".equals(arg)) {
+        progress = false;
+      } else if (arg.startsWith("deepen") || arg.startsWith("filter ")) {
+        writer.line("ERR upload-pack: unsupported argument " + arg).flush();
+        return;
+      }
+      // thin-pack, ofs-delta, include-tag: a pack without REF_DELTAs is valid for any of them
+    }
+    if (wants.isEmpty()) {
+      writer.flush();
+      return;
+    }
+
+    if (!done) {
+      // ready as soon as anything is in common, rather than walking to prove every want is covered
+      writer.line("acknowledgments");
+      if (common.isEmpty()) {
+        writer.line("NAK").flush();
+        return;
+      }
+      for (ObjectId have : common) {
+        writer.line("ACK " + have);
+      }
+      writer.line("ready").delim();
+    }
+    writer.line("packfile");
+
+    long start = System.nanoTime();
+    SidebandOutputStream sideband = new SidebandOutputStream(out, SidebandOutputStream.DATA);
+    GitConfig config = GitConfig.read(gitDir);
+    PackWriter packWriter = new PackWriter(db, config);
+    if (config.get("pack.window") == null) {
+      packWriter.setWindow(0); // a delta search per fetch costs more than the bytes it saves
+    }
+    packWriter.setThreads(1); // one search per connection; concurrency comes from the connections
+    packWriter.addObjects(wants, common, shallow);
+    if (progress) {
+      sideband.progress("Enumerating objects: " + packWriter.getObjectCount() + ", done.");
+    }
+    int deltas = packWriter.findDeltas();
+    if (progress) {
+      sideband.progress("Total " + packWriter.getObjectCount() + " (delta " + deltas + ")");
+    }
+    BufferedOutputStream packOut = new BufferedOutputStream(sideband, SidebandOutputStream.MAX_DATA);
+    packWriter.write(packOut);
+    packOut.flush();
+    writer.flush();
+    LOG.info("fetch dir={} wants={} common={} objects={} deltas={} ms={}", dir, wants.size(), common.size(),
+        packWriter.getObjectCount(), deltas, (System.nanoTime() - start) / 1_000_000);
+  }
+
+}
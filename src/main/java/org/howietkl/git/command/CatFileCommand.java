@@ -1,20 +1,39 @@
 package org.howietkl.git.command;
 
-import org.howietkl.git.utils.Utils;
+import org.howietkl.git.GitObject;
+import org.howietkl.git.ObjectDatabase;
+import org.howietkl.git.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.FileInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.zip.InflaterInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 
 public class CatFileCommand implements Command {
   private static final Logger LOG = LoggerFactory.getLogger(CatFileCommand.class);
 
   @Override
   public void execute(String[] args) {
+    if (args.length >= 2 && (args[1].equals("--batch") || args[1].equals("--batch-check"))) {
+      boolean buffer = args.length >= 3 && args[2].equals("--buffer");
+      try {
+        CommandContext context = CommandContext.current();
+        OutputStream out = new BufferedOutputStream(context.out(), 65536);
+        batch(context.in(), out, args[1].equals("--batch"), buffer, context.dir());
+        out.flush();
+      } catch (IOException e) {
+        LOG.error(e.getMessage(), e);
+        throw new RuntimeException(e);
+      }
+      return;
+    }
     if (args.length < 3 && !"-p".equals(args[1])) {
       return;
     }
@@ -22,18 +41,52 @@ public class CatFileCommand implements Command {
   }
 
   private void catFile(String blobSha) {
-    String filePath = Utils.getPath(blobSha);
-    LOG.info("cat-file hash={} path={}", blobSha, filePath);
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new InflaterInputStream(new FileInputStream(filePath))))) {
-      String line = reader.readLine();
-      System.out.print(line.substring(line.indexOf("\0") + 1));
-      while ((line = reader.readLine()) != null) {
-        System.out.print(line);
+    LOG.info("cat-file hash={}", blobSha);
+    try {
+      CommandContext context = CommandContext.current();
+      GitObject gitObject = ObjectDatabase.open(context.dir()).read(blobSha);
+      if (gitObject == null) {
+        throw new FileNotFoundException("Object not found sha=" + blobSha);
       }
+      context.out().write(gitObject.getData());
+      context.out().flush();
     } catch (IOException e) {
       LOG.error(e.getMessage(), e);
       throw new RuntimeException(e);
     }
   }
 
-}
\ No newline at end of file
+  /**
+   * Reads one SHA per line from in and writes "[sha] [type] [size]\n", followed by the raw
+   * contents and "\n" if withContents, or "[sha] missing\n". Contents are copied as bytes,
+   * never decoded. Output is flushed after each object unless buffer is set, so a caller can
+   * interleave requests and responses over a single process.
+   */
+  static void batch(InputStream in, OutputStream out, boolean withContents, boolean buffer, File dir) throws IOException {
+    ObjectDatabase db = ObjectDatabase.open(dir);
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+    int count = 0;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      String sha = line.trim();
+      GitObject gitObject = ObjectId.isHex(sha) ? db.read(ObjectId.fromHex(sha)) : null;
+      if (gitObject == null) {
+        out.write((line + " missing\n").getBytes(StandardCharsets.UTF_8));
+      } else {
+        byte[] data = gitObject.getData();
+        out.write((sha + " " + gitObject.getInfo().getType().getHeading() + " " + data.length + "\n")
+            .getBytes(StandardCharsets.US_ASCII));
+        if (withContents) {
+          out.write(data);
+          out.write('\n');
+        }
+      }
+      if (!buffer) {
+        out.flush();
+      }
+      count++;
+    }
+    LOG.info("batch objects={}", count);
+  }
+
+}
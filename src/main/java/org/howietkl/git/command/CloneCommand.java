@@ -1,12 +1,26 @@
 package org.howietkl.git.command;
 
+import org.howietkl.git.GitConfig;
 import org.howietkl.git.GitObjectRepository;
+import org.howietkl.git.ObjectDatabase;
+import org.howietkl.git.ObjectId;
+import org.howietkl.git.PromisorRemote;
+import org.howietkl.git.Refs;
+import org.howietkl.git.ShallowFile;
+import org.howietkl.git.utils.FetchRequest;
+import org.howietkl.git.utils.FetchResponse;
 import org.howietkl.git.utils.GitHttpClient;
+import org.howietkl.git.utils.HttpTransport;
+import org.howietkl.git.utils.RemoteRef;
 import org.howietkl.git.GitPack;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 public class CloneCommand implements Command {
@@ -14,35 +28,100 @@ public class CloneCommand implements Command {
 
   @Override
   public void execute(String[] args) {
-    if (args.length < 3) {
+    int depth = 0;
+    String filter = null;
+    List<String> positional = new ArrayList<>();
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].equals("--depth") && i + 1 < args.length) {
+        depth = Integer.parseInt(args[++i]);
+      } else if (args[i].startsWith("--depth=")) {
+        depth = Integer.parseInt(args[i].substring("--depth=".length()));
+      } else if (args[i].startsWith("--filter=")) {
+        filter = args[i].substring("--filter=".length());
+      } else {
+        positional.add(args[i]);
+      }
+    }
+    if (positional.size() < 2) {
+      CommandContext.current().err().println("Expecting: clone [--depth n] [--filter=spec] [url] [dir]");
       return;
     }
 
-    gitClone(args[1], args[2]);
+    gitClone(positional.get(0), positional.get(1), depth, filter);
   }
 
-  private void gitClone(String httpPath, String dir) {
-    LOG.info("Clone {} {}", httpPath, dir);
+  /**
+   * @param depth  commits of history to fetch, 0 for all
+   * @param filter objects to leave on the remote, e.g. "blob:none", or null for none; the
+   *               remote then becomes a promisor that missing objects are fetched from
+   */
+  private void gitClone(String httpPath, String dir, int depth, String filter) {
+    LOG.info("Clone {} {} depth={} filter={}", httpPath, dir, depth, filter);
 
     try {
       // create dir, init
-      File dirFile = new File(dir);
+      File dirFile = CommandContext.current().resolve(dir);
       dirFile.mkdirs();
       new InitCommand().init(dirFile);
+      GitConfig config = GitConfig.read(new File(dirFile, ".git"));
+      config.set("remote.origin.url", httpPath);
+      config.set("remote.origin.fetch", "+refs/heads/*:refs/remotes/origin/*");
+      config.write();
+      if (filter != null) {
+        PromisorRemote.configure(dirFile, "origin", filter);
+      }
 
       // discoverRefs(httpPath); // assume git v2 support
-      Set<String> refs = GitHttpClient.fetchRefs(httpPath);
-      byte[] packBytes = GitHttpClient.fetchPack(httpPath, refs);
+      List<RemoteRef> refs = GitHttpClient.lsRefs(httpPath);
+      Set<ObjectId> wants = new LinkedHashSet<>();
+      refs.forEach(ref -> wants.add(ref.id()));
+      FetchRequest fetch = new FetchRequest(wants);
+      fetch.setDepth(depth);
+      fetch.setFilter(filter);
+      FetchResponse fetched = GitHttpClient.fetchPack(httpPath, fetch, new File(dirFile, ".git/objects/pack/tmp_pack"));
+      File packFile = fetched.getPackFile();
       try {
-        GitPack.process(packBytes, dirFile);
-      } catch (Exception e) {
-        LOG.error(e.getMessage(), e);
+        GitPack.process(packFile, dirFile, filter != null);
+      } finally {
+        packFile.delete(); // no-op once kept under its final name
       }
-      GitObjectRepository.populateFromCommit(dirFile, refs.stream().findFirst().get());
+      ShallowFile.update(new File(dirFile, ".git"), fetched.getShallow(), fetched.getUnshallow());
+      ObjectId head = writeRefs(new File(dirFile, ".git"), refs);
+      if (head != null) {
+        GitObjectRepository.populateFromCommit(dirFile, head, ObjectDatabase.open(dirFile));
+      }
+      LOG.info("Clone transport {}", HttpTransport.forRemote(httpPath));
     } catch (Exception e) {
       LOG.error(e.getMessage(), e);
       // throw new RuntimeException(e);
     }
   }
 
+  /**
+   * Records the remote's branches as refs/remotes/origin/*, and creates a local branch for the
+   * one the remote HEAD points to, which HEAD then names.
+   *
+   * @return commit to check out, or null for an empty repository
+   */
+  private ObjectId writeRefs(File gitDir, List<RemoteRef> refs) throws IOException {
+    RemoteRef head = null;
+    for (RemoteRef ref : refs) {
+      if (ref.name().startsWith(FetchCommand.BRANCH_PREFIX)) {
+        Refs.update(gitDir, "refs/remotes/origin/" + ref.name().substring(FetchCommand.BRANCH_PREFIX.length()), ref.id());
+      } else if ("HEAD".equals(ref.name())) {
+        head = ref;
+      }
+    }
+    if (head == null) {
+      return null;
+    }
+    if (head.symrefTarget() != null) {
+      String branch = head.symrefTarget().substring(FetchCommand.BRANCH_PREFIX.length());
+      Refs.update(gitDir, head.symrefTarget(), head.id());
+      Refs.link(gitDir, "HEAD", head.symrefTarget());
+      Refs.link(gitDir, "refs/remotes/origin/HEAD", "refs/remotes/origin/" + branch);
+    }
+    return head.id();
+  }
+
 }
@@ -0,0 +1,42 @@
+package org.howietkl.git.command;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+/**
+ * Working directory and standard streams of the command running on the current thread.
+ * Outside the daemon these are the process's own; the daemon binds each request's.
+ * Commands read it once in execute and pass the directory down explicitly, since tasks on
+ * other threads do not see it.
+ */
+public record CommandContext(File dir, InputStream in, PrintStream out, PrintStream err) {
+  private static final CommandContext PROCESS = new CommandContext(new File("."), System.in, System.out, System.err);
+  private static final ThreadLocal<CommandContext> CURRENT = new ThreadLocal<>();
+
+  public static CommandContext current() {
+    CommandContext context = CURRENT.get();
+    return context != null ? context : PROCESS;
+  }
+
+  /**
+   * Runs command with this context bound to the current thread.
+   */
+  public void run(Command command, String[] args) {
+    CURRENT.set(this);
+    try {
+      command.execute(args);
+    } finally {
+      CURRENT.remove();
+    }
+  }
+
+  /**
+   * @return path, resolved against dir if relative
+   */
+  public File resolve(String path) {
+    File file = new File(path);
+    return file.isAbsolute() ? file : new File(dir, path);
+  }
+
+}
@@ -0,0 +1,29 @@
+package org.howietkl.git.command;
+
+public class Commands {
+
+  /**
+   * @return command for the first command line argument, or null if unknown
+   */
+  public static Command create(String name) {
+    return switch (name) {
+      case "init" -> new InitCommand();
+      case "cat-file" -> new CatFileCommand();
+      case "hash-object" -> new WriteObjectCommand();
+      case "ls-tree" -> new ReadTreeCommand();
+      case "write-tree" -> new WriteTreeCommand();
+      case "commit-tree" -> new CommitTreeCommand();
+      case "clone" -> new CloneCommand();
+      case "fetch" -> new FetchCommand();
+      case "fsck" -> new FsckCommand();
+      case "repack", "gc" -> new RepackCommand();
+      case "log", "rev-list" -> new LogCommand();
+      case "merge-base" -> new MergeBaseCommand();
+      case "commit-graph" -> new CommitGraphCommand();
+      case "serve" -> new ServeCommand();
+      case "daemon" -> new DaemonCommand();
+      default -> null;
+    };
+  }
+
+}
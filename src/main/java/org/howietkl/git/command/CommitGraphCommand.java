@@ -0,0 +1,36 @@
+package org.howietkl.git.command;
+
+import org.howietkl.git.CommitGraphWriter;
+import org.howietkl.git.ObjectDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * commit-graph write: writes .git/objects/info/commit-graph for the commits reachable from the
+ * refs and HEAD. repack and gc also write it.
+ */
+public class CommitGraphCommand implements Command {
+  private static final Logger LOG = LoggerFactory.getLogger(CommitGraphCommand.class);
+
+  @Override
+  public void execute(String[] args) {
+    CommandContext context = CommandContext.current();
+    if (args.length != 2 || !"write".equals(args[1])) {
+      context.err().println("Expecting: commit-graph write");
+      return;
+    }
+    try {
+      File file = CommitGraphWriter.write(new File(context.dir(), ".git"), ObjectDatabase.open(context.dir()));
+      if (file == null) {
+        context.out().println("No commit-graph written.");
+      }
+    } catch (IOException e) {
+      LOG.error(e.getMessage(), e);
+      throw new RuntimeException(e);
+    }
+  }
+
+}
@@ -1,16 +1,16 @@
 package org.howietkl.git.command;
 
+import org.howietkl.git.GitObjectType;
+import org.howietkl.git.ObjectDatabase;
 import org.howietkl.git.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
-import java.util.zip.DeflaterOutputStream;
 
 public class CommitTreeCommand implements Command {
   private static final Logger LOG = LoggerFactory.getLogger(CommitTreeCommand.class);
@@ -18,13 +18,14 @@ public class CommitTreeCommand implements Command {
   @Override
   public void execute(String[] args) {
     if (args.length < 6 || !args[2].equals("-p") || !args[4].equals("-m")) {
-      System.err.println("Expecting: commit-tree [treeSha] -p [commitSha] -m [message]");
+      CommandContext.current().err().println("Expecting: commit-tree [treeSha] -p [commitSha] -m [message]");
       return;
     }
-    System.out.println(Utils.bytesToHex(commitTree(args[1], args[3], args[5])));
+    CommandContext context = CommandContext.current();
+    context.out().println(Utils.bytesToHex(commitTree(args[1], args[3], args[5], context.dir())));
   }
 
-  byte[] commitTree(String treeSha, String parentCommitSha, String commitMessage) {
+  byte[] commitTree(String treeSha, String parentCommitSha, String commitMessage, File dir) {
     LOG.info("commit-tree treeSha={} parentCommitSha={} msg={}", treeSha, parentCommitSha, commitMessage);
     Commit commit = new Commit();
     commit.treeSha = treeSha;
@@ -32,28 +33,17 @@ public class CommitTreeCommand implements Command {
     commit.message = commitMessage;
 
     // generate commit
-    byte[] everything = commit.getCommit().getBytes(StandardCharsets.UTF_8);
-
-    // calculate SHA-1
-    byte[] shaBytes = Utils.sha1(everything);
-    String sha = Utils.bytesToHex(shaBytes);
-
-    // ensure parent dir exists in .git/objects/
-    File parentDir = new File(String.format(".git/objects/%s", sha.substring(0, 2)));
-    parentDir.mkdirs();
-    File commitFile = new File(parentDir, sha.substring(2));
-
-    LOG.debug("commit-tree dir={} file={} contents={}",
-        parentDir.getName(), commitFile.getName(), commit.getCommit());
+    byte[] content = commit.getTreeContent().toString().getBytes(StandardCharsets.UTF_8);
 
     // create the commit
-    try (DeflaterOutputStream out = new DeflaterOutputStream(new FileOutputStream(commitFile, false))) {
-      out.write(everything);
+    try {
+      byte[] shaBytes = ObjectDatabase.open(dir).write(GitObjectType.COMMIT, content);
+      LOG.debug("commit-tree sha={} contents={}", Utils.bytesToHex(shaBytes), commit.getCommit());
+      return shaBytes;
     } catch (IOException e) {
       LOG.error(e.getMessage(), e);
       throw new RuntimeException(e);
     }
-    return shaBytes;
   }
 
   static class Commit {
@@ -0,0 +1,106 @@
+package org.howietkl.git.command;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Forwards a command line to a running {@link DaemonCommand} and relays its output.
+ * Deliberately free of logging and command classes, so little beyond the JDK is loaded.
+ */
+public class DaemonClient {
+
+  /**
+   * Runs args on the daemon at {@link DaemonCommand#SOCKET_ENV} if that is set and the daemon
+   * is reachable; exits the process with the command's exit code if it fails.
+   *
+   * @return false if no daemon could be used, so the caller should run the command itself
+   */
+  public static boolean forward(String[] args) {
+    String path = System.getenv(DaemonCommand.SOCKET_ENV);
+    if (path == null || path.isEmpty() || !Files.exists(Path.of(path))) {
+      return false;
+    }
+    SocketChannel channel;
+    try {
+      channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+      channel.connect(UnixDomainSocketAddress.of(path));
+    } catch (IOException e) {
+      return false;
+    }
+    try (channel) {
+      int exitCode = run(channel, new File(".").getCanonicalFile(), args, System.in, System.out, System.err);
+      if (exitCode != 0) {
+        System.exit(exitCode);
+      }
+      return true;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @param dir working directory the command runs in on the daemon
+   * @return exit code of the command
+   */
+  static int run(SocketChannel channel, File dir, String[] args, InputStream stdin, PrintStream stdout,
+                 PrintStream stderr) throws IOException {
+    DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    request.writeUTF(dir.getPath());
+    request.writeInt(args.length);
+    for (String arg : args) {
+      request.writeUTF(arg);
+    }
+    request.flush();
+
+    Thread pump = Thread.ofPlatform().daemon().name("daemon-client-stdin").start(() -> {
+      try {
+        stdin.transferTo(request);
+        request.flush();
+        channel.shutdownOutput();
+      } catch (IOException e) {
+        // the daemon closed the connection without reading all of stdin
+      }
+    });
+
+    DataInputStream response = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+    byte[] buf = new byte[8192];
+    try {
+      while (true) {
+        byte kind = response.readByte();
+        if (kind == DaemonCommand.EXIT) {
+          return response.readInt();
+        }
+        OutputStream out = kind == DaemonCommand.STDERR ? stderr : stdout;
+        int len = response.readInt();
+        while (len > 0) {
+          int n = response.read(buf, 0, Math.min(len, buf.length));
+          if (n < 0) {
+            throw new EOFException();
+          }
+          out.write(buf, 0, n);
+          len -= n;
+        }
+        out.flush();
+      }
+    } catch (EOFException e) {
+      throw new IOException("Daemon closed the connection before the command finished", e);
+    } finally {
+      pump.interrupt();
+    }
+  }
+
+}
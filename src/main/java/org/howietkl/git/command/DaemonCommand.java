@@ -0,0 +1,147 @@
+package org.howietkl.git.command;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves commands over a Unix domain socket, so that repeated invocations share one warm JVM
+ * and its open object databases. Each connection is one command, run on its own virtual
+ * thread with the client's working directory and streams.
+ * <p>
+ * Request: working directory and argv as {@link DataOutputStream#writeUTF} strings, preceded
+ * by the arg count, followed by the client's stdin until it shuts down its output.
+ * Response: frames of [kind byte] [int length] [bytes] for stdout and stderr, ending with an
+ * exit frame of [{@link #EXIT}] [int exit code].
+ */
+public class DaemonCommand implements Command {
+  private static final Logger LOG = LoggerFactory.getLogger(DaemonCommand.class);
+  public static final String SOCKET_ENV = "GIT_DAEMON_SOCKET";
+  static final byte EXIT = 0;
+  static final byte STDOUT = 1;
+  static final byte STDERR = 2;
+
+  private final AtomicLong requests = new AtomicLong();
+
+  @Override
+  public void execute(String[] args) {
+    Path socket = args.length >= 2 ? Path.of(args[1]) : getSocketPath();
+    try {
+      serve(socket);
+    } catch (IOException e) {
+      LOG.error(e.getMessage(), e);
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @return socket named by {@value #SOCKET_ENV}, or one per user in the temp directory
+   */
+  public static Path getSocketPath() {
+    String path = System.getenv(SOCKET_ENV);
+    if (path != null && !path.isEmpty()) {
+      return Path.of(path);
+    }
+    return Path.of(System.getProperty("java.io.tmpdir"), "codecrafters-git-" + System.getProperty("user.name") + ".sock");
+  }
+
+  void serve(Path socket) throws IOException {
+    Files.deleteIfExists(socket); // left behind by a daemon that did not exit cleanly
+    try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      server.bind(UnixDomainSocketAddress.of(socket));
+      socket.toFile().deleteOnExit();
+      LOG.info("daemon listening socket={}", socket);
+      while (true) {
+        SocketChannel channel = server.accept();
+        Thread.ofVirtual().name("daemon-", requests.incrementAndGet()).start(() -> handle(channel));
+      }
+    }
+  }
+
+  private void handle(SocketChannel channel) {
+    try (channel) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+      DataOutputStream sink = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+      File dir = new File(in.readUTF());
+      String[] args = new String[in.readInt()];
+      for (int i = 0; i < args.length; i++) {
+        args[i] = in.readUTF();
+      }
+      LOG.info("daemon request dir={} command={}", dir, args.length > 0 ? args[0] : null);
+
+      PrintStream out = new PrintStream(new BufferedOutputStream(new FrameOutputStream(sink, STDOUT), 8192), false, StandardCharsets.UTF_8);
+      PrintStream err = new PrintStream(new FrameOutputStream(sink, STDERR), true, StandardCharsets.UTF_8);
+      int exitCode = 0;
+      try {
+        Command command = args.length > 0 ? Commands.create(args[0]) : null;
+        if (command == null || command instanceof DaemonCommand) {
+          out.println("Unknown command: " + (args.length > 0 ? args[0] : ""));
+        } else {
+          new CommandContext(dir, in, out, err).run(command, args);
+        }
+      } catch (Exception e) {
+        LOG.error(e.getMessage(), e);
+        e.printStackTrace(err);
+        exitCode = 1;
+      }
+      out.flush();
+      err.flush();
+      synchronized (sink) {
+        sink.writeByte(EXIT);
+        sink.writeInt(exitCode);
+        sink.flush();
+      }
+    } catch (IOException e) {
+      LOG.warn("daemon request failed: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Sends each write as one frame; stdout and stderr share the connection.
+   */
+  private static class FrameOutputStream extends OutputStream {
+    private final DataOutputStream sink;
+    private final byte kind;
+
+    FrameOutputStream(DataOutputStream sink, byte kind) {
+      this.sink = sink;
+      this.kind = kind;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return;
+      }
+      synchronized (sink) {
+        sink.writeByte(kind);
+        sink.writeInt(len);
+        sink.write(b, off, len);
+        sink.flush();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,127 @@
+package org.howietkl.git.command;
+
+import org.howietkl.git.FetchNegotiator;
+import org.howietkl.git.GitConfig;
+import org.howietkl.git.GitPack;
+import org.howietkl.git.ObjectDatabase;
+import org.howietkl.git.ObjectId;
+import org.howietkl.git.Refs;
+import org.howietkl.git.ShallowFile;
+import org.howietkl.git.utils.FetchRequest;
+import org.howietkl.git.utils.FetchResponse;
+import org.howietkl.git.utils.GitHttpClient;
+import org.howietkl.git.utils.HttpTransport;
+import org.howietkl.git.utils.RemoteRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Brings refs/remotes/[remote]/* up to date, downloading only objects that are not already
+ * local. Haves are negotiated with the server over as many rounds as it takes, and the pack
+ * may be thin, i.e. hold deltas against local objects.
+ */
+public class FetchCommand implements Command {
+  private static final Logger LOG = LoggerFactory.getLogger(FetchCommand.class);
+  static final String BRANCH_PREFIX = "refs/heads/";
+
+  @Override
+  public void execute(String[] args) {
+    CommandContext context = CommandContext.current();
+    fetch(context.dir(), args.length > 1 ? args[1] : "origin", context.out());
+  }
+
+  void fetch(File dir, String remote, PrintStream out) {
+    File gitDir = new File(dir, ".git");
+    try {
+      GitConfig config = GitConfig.read(gitDir);
+      String url = config.get("remote." + remote + ".url");
+      if (url == null) {
+        throw new IllegalArgumentException("No such remote " + remote);
+      }
+      String filter = config.get("remote." + remote + ".partialclonefilter");
+      boolean isPromisor = "true".equals(config.get("remote." + remote + ".promisor"));
+      LOG.info("fetch remote={} url={} filter={}", remote, url, filter);
+
+      List<RemoteRef> branches = new ArrayList<>();
+      for (RemoteRef ref : GitHttpClient.lsRefs(url)) {
+        if (ref.name().startsWith(BRANCH_PREFIX)) {
+          branches.add(ref);
+        }
+      }
+      ObjectDatabase db = ObjectDatabase.open(dir);
+      Set<ObjectId> wants = new LinkedHashSet<>();
+      for (RemoteRef ref : branches) {
+        if (!db.contains(ref.id())) {
+          wants.add(ref.id());
+        }
+      }
+      if (!wants.isEmpty()) {
+        fetchPack(dir, url, wants, filter, isPromisor, db);
+      }
+
+      out.println("From " + url);
+      for (RemoteRef ref : branches) {
+        String branch = ref.name().substring(BRANCH_PREFIX.length());
+        String trackingRef = "refs/remotes/" + remote + "/" + branch;
+        ObjectId old = Refs.read(gitDir, trackingRef);
+        if (ref.id().equals(old)) {
+          continue;
+        }
+        Refs.update(gitDir, trackingRef, ref.id());
+        String what = old == null
+            ? " * [new branch]     "
+            : "   " + old.toHex().substring(0, 7) + ".." + ref.id().toHex().substring(0, 7) + " ";
+        out.println(what + " " + branch + " -> " + remote + "/" + branch);
+      }
+      LOG.info("fetch transport {}", HttpTransport.forRemote(url));
+    } catch (Exception e) {
+      LOG.error(e.getMessage(), e);
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void fetchPack(File dir, String url, Set<ObjectId> wants, String filter, boolean isPromisor, ObjectDatabase db) throws Exception {
+    File gitDir = new File(dir, ".git");
+    Set<ObjectId> shallow = ShallowFile.read(gitDir);
+    Set<ObjectId> tips = new LinkedHashSet<>(Refs.list(gitDir, "refs/").values());
+    ObjectId head = Refs.read(gitDir, "HEAD");
+    if (head != null) {
+      tips.add(head);
+    }
+    FetchNegotiator negotiator = new FetchNegotiator(db, tips, shallow);
+    File packFile = new File(gitDir, "objects/pack/tmp_pack_fetch");
+    int rounds = 0;
+    FetchResponse fetched;
+    do {
+      List<ObjectId> haves = negotiator.nextHaves();
+      // stateless over HTTP: every round repeats what is already known to be common
+      Set<ObjectId> sent = new LinkedHashSet<>(negotiator.getCommon());
+      sent.addAll(haves);
+      FetchRequest request = new FetchRequest(wants);
+      request.setHaves(sent);
+      request.setDone(haves.isEmpty());
+      request.setShallow(shallow);
+      request.setFilter(filter);
+      request.setThinPack(true);
+      fetched = GitHttpClient.fetchPack(url, request, packFile);
+      negotiator.ack(fetched.getAcks());
+      rounds++;
+    } while (fetched.getPackFile() == null);
+    LOG.info("fetchPack rounds={} common={} ready={}", rounds, negotiator.getCommon().size(), fetched.isReady());
+
+    try {
+      GitPack.process(packFile, dir, isPromisor);
+    } finally {
+      packFile.delete(); // no-op once kept under its final name
+    }
+    ShallowFile.update(gitDir, fetched.getShallow(), fetched.getUnshallow());
+  }
+
+}
@@ -0,0 +1,27 @@
+package org.howietkl.git.command;
+
+import org.howietkl.git.Fsck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+public class FsckCommand implements Command {
+  private static final Logger LOG = LoggerFactory.getLogger(FsckCommand.class);
+
+  @Override
+  public void execute(String[] args) {
+    CommandContext context = CommandContext.current();
+    long errors;
+    try {
+      errors = new Fsck(context.dir(), context.out(), Fsck.DEFAULT_THREADS).run();
+    } catch (IOException e) {
+      LOG.error(e.getMessage(), e);
+      throw new RuntimeException(e);
+    }
+    if (errors > 0) {
+      throw new IllegalStateException("fsck found " + errors + " problems");
+    }
+  }
+
+}
@@ -1,5 +1,6 @@
 package org.howietkl.git.command;
 
+import org.howietkl.git.ObjectDatabase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,7 +13,7 @@ public class InitCommand implements Command {
 
   @Override
   public void execute(String[] args) {
-    init(new File("."));
+    init(CommandContext.current().dir());
   }
 
   void init(File dir) {
@@ -25,7 +26,8 @@ public class InitCommand implements Command {
     try {
       head.createNewFile();
       Files.write(head.toPath(), "ref: refs/heads/main\n".getBytes());
-      System.out.println("Initialized git directory");
+      ObjectDatabase.forget(dir); // anything cached for a previous repository here is stale
+      CommandContext.current().out().println("Initialized git directory");
     } catch (IOException e) {
       LOG.error(e.getMessage(), e);
       throw new RuntimeException(e);
@@ -0,0 +1,174 @@
+package org.howietkl.git.command;
+
+import org.howietkl.git.GitObject;
+import org.howietkl.git.ObjectDatabase;
+import org.howietkl.git.ObjectId;
+import org.howietkl.git.Refs;
+import org.howietkl.git.RevWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * log [--oneline] [-n n] [--all] [rev...] and rev-list [--count] [-n n] [--all] rev...:
+ * commits reachable from the revs, newest first. A rev is a name or id, ^rev to hide its
+ * history, or a..b for the commits in b but not in a; --all adds every ref and HEAD. log
+ * defaults to HEAD.
+ * <p>
+ * rev-list only walks, reading the commit-graph where there is one; log also inflates each
+ * commit it prints.
+ */
+public class LogCommand implements Command {
+  private static final Logger LOG = LoggerFactory.getLogger(LogCommand.class);
+  private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z", Locale.US);
+
+  @Override
+  public void execute(String[] args) {
+    CommandContext context = CommandContext.current();
+    boolean isLog = "log".equals(args[0]);
+    boolean oneline = false;
+    boolean count = false;
+    boolean all = false;
+    long maxCount = Long.MAX_VALUE;
+    List<String> revs = new ArrayList<>();
+    for (int i = 1; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.equals("--oneline") && isLog) {
+        oneline = true;
+      } else if (arg.equals("--count") && !isLog) {
+        count = true;
+      } else if (arg.equals("--all")) {
+        all = true;
+      } else if (arg.equals("-n") && i + 1 < args.length) {
+        maxCount = Long.parseLong(args[++i]);
+      } else if (arg.startsWith("--max-count=")) {
+        maxCount = Long.parseLong(arg.substring("--max-count=".length()));
+      } else if (arg.matches("-\\d+")) {
+        maxCount = Long.parseLong(arg.substring(1));
+      } else if (!arg.startsWith("-") || arg.length() == 1) {
+        revs.add(arg);
+      } else {
+        context.err().println(isLog
+            ? "Expecting: log [--oneline] [-n n] [--all] [rev...]"
+            : "Expecting: rev-list [--count] [-n n] [--all] rev...");
+        return;
+      }
+    }
+    if (revs.isEmpty() && !all) {
+      if (!isLog) {
+        context.err().println("Expecting: rev-list [--count] [-n n] [--all] rev...");
+        return;
+      }
+      revs.add("HEAD");
+    }
+
+    long start = System.nanoTime();
+    PrintStream out = new PrintStream(new BufferedOutputStream(context.out(), 1 << 16), false, StandardCharsets.UTF_8);
+    try {
+      File gitDir = new File(context.dir(), ".git");
+      RevWalk walk = new RevWalk(context.dir());
+      if (all) {
+        ObjectId head = Refs.read(gitDir, "HEAD");
+        if (head != null) {
+          walk.markStart(head);
+        }
+        for (ObjectId id : Refs.list(gitDir, "refs/").values()) {
+          walk.markStart(id);
+        }
+      }
+      for (String rev : revs) {
+        int range = rev.indexOf("..");
+        if (range >= 0) {
+          walk.markUninteresting(resolve(gitDir, range == 0 ? "HEAD" : rev.substring(0, range)));
+          walk.markStart(resolve(gitDir, range + 2 == rev.length() ? "HEAD" : rev.substring(range + 2)));
+        } else if (rev.startsWith("^")) {
+          walk.markUninteresting(resolve(gitDir, rev.substring(1)));
+        } else {
+          walk.markStart(resolve(gitDir, rev));
+        }
+      }
+      ObjectDatabase db = isLog ? ObjectDatabase.open(context.dir()) : null;
+      long n = 0;
+      ObjectId id;
+      while (n < maxCount && (id = walk.next()) != null) {
+        if (isLog) {
+          printCommit(out, id, db.read(id), oneline, n == 0);
+        } else if (!count) {
+          out.println(id);
+        }
+        n++;
+      }
+      if (count) {
+        out.println(n);
+      }
+      out.flush();
+      LOG.info("{} commits={} inflated={} ms={}", args[0], n, walk.getInflatedCount(), (System.nanoTime() - start) / 1_000_000);
+    } catch (IOException e) {
+      LOG.error(e.getMessage(), e);
+      throw new RuntimeException(e);
+    }
+  }
+
+  static ObjectId resolve(File gitDir, String rev) throws IOException {
+    ObjectId id = Refs.resolve(gitDir, rev);
+    if (id == null) {
+      throw new IllegalArgumentException("Unknown revision " + rev);
+    }
+    return id;
+  }
+
+  /**
+   * Prints as git log does by default, or as git log --oneline with the abbreviated id and
+   * subject.
+   */
+  private static void printCommit(PrintStream out, ObjectId id, GitObject commit, boolean oneline, boolean first) {
+    String text = new String(commit.getData(), StandardCharsets.UTF_8);
+    int headerEnd = text.indexOf("\n\n");
+    String header = headerEnd >= 0 ? text.substring(0, headerEnd) : text;
+    String message = headerEnd >= 0 ? text.substring(headerEnd + 2) : "";
+    if (oneline) {
+      int subjectEnd = message.indexOf('\n');
+      out.println(id.toHex().substring(0, 7) + " " + (subjectEnd >= 0 ? message.substring(0, subjectEnd) : message));
+      return;
+    }
+    if (!first) {
+      out.println();
+    }
+    out.println("commit " + id);
+    List<String> parents = new ArrayList<>();
+    String author = null;
+    for (String line : header.split("\n")) {
+      if (line.startsWith("parent ")) {
+        parents.add(line.substring(7, 14));
+      } else if (line.startsWith("author ")) {
+        author = line.substring(7);
+      }
+    }
+    if (parents.size() > 1) {
+      out.println("Merge: " + String.join(" ", parents));
+    }
+    if (author != null) {
+      // "Name <email> 1700000000 +0000"
+      int emailEnd = author.lastIndexOf('>');
+      String[] when = author.substring(emailEnd + 1).trim().split(" ");
+      out.println("Author: " + author.substring(0, emailEnd + 1));
+      out.println("Date:   " + DATE_FORMAT.format(Instant.ofEpochSecond(Long.parseLong(when[0])).atOffset(ZoneOffset.of(when[1]))));
+    }
+    out.println();
+    for (String line : message.stripTrailing().split("\n")) {
+      out.println("    " + line);
+    }
+  }
+
+}
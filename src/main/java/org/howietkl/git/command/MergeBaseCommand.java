@@ -0,0 +1,53 @@
+package org.howietkl.git.command;
+
+import org.howietkl.git.ObjectId;
+import org.howietkl.git.RevWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * merge-base [--all] a b prints the best common ancestor of two commits, or all of them;
+ * merge-base --is-ancestor a b fails unless a is an ancestor of b.
+ */
+public class MergeBaseCommand implements Command {
+  private static final Logger LOG = LoggerFactory.getLogger(MergeBaseCommand.class);
+
+  @Override
+  public void execute(String[] args) {
+    CommandContext context = CommandContext.current();
+    boolean all = args.length == 4 && "--all".equals(args[1]);
+    boolean isAncestor = args.length == 4 && "--is-ancestor".equals(args[1]);
+    if (args.length != 3 && !all && !isAncestor) {
+      context.err().println("Expecting: merge-base [--all | --is-ancestor] a b");
+      return;
+    }
+    File gitDir = new File(context.dir(), ".git");
+    try {
+      RevWalk walk = new RevWalk(context.dir());
+      ObjectId a = LogCommand.resolve(gitDir, args[args.length - 2]);
+      ObjectId b = LogCommand.resolve(gitDir, args[args.length - 1]);
+      if (isAncestor) {
+        if (!walk.isAncestor(a, b)) {
+          throw new IllegalStateException(a + " is not an ancestor of " + b);
+        }
+        return;
+      }
+      List<ObjectId> bases = walk.mergeBases(a, b);
+      if (bases.isEmpty()) {
+        throw new IllegalStateException("No merge base of " + a + " and " + b);
+      }
+      for (ObjectId base : all ? bases : bases.subList(0, 1)) {
+        context.out().println(base);
+      }
+      LOG.info("merge-base bases={} inflated={}", bases.size(), walk.getInflatedCount());
+    } catch (IOException e) {
+      LOG.error(e.getMessage(), e);
+      throw new RuntimeException(e);
+    }
+  }
+
+}
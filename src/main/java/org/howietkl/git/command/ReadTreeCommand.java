@@ -1,28 +1,32 @@
 package org.howietkl.git.command;
 
-import org.howietkl.git.utils.Utils;
+import org.howietkl.git.GitObject;
+import org.howietkl.git.GitObjectType;
+import org.howietkl.git.ObjectDatabase;
+import org.howietkl.git.ObjectId;
+import org.howietkl.git.TreeParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.zip.InflaterInputStream;
 
 public class ReadTreeCommand implements Command {
   private static final Logger LOG = LoggerFactory.getLogger(ReadTreeCommand.class);
 
   public static class TreeObjectEntry {
-    private String mode;
+    private int mode;
     private String name;
-    private byte[] sha;
+    private ObjectId id;
 
-    public String getMode() {
+    /**
+     * @return mode as an int, e.g. {@link TreeParser#MODE_TREE}
+     */
+    public int getMode() {
       return mode;
     }
 
@@ -30,8 +34,8 @@ public class ReadTreeCommand implements Command {
       return name;
     }
 
-    public byte[] getSha() {
-      return sha;
+    public ObjectId getId() {
+      return id;
     }
   }
 
@@ -45,7 +49,7 @@ public class ReadTreeCommand implements Command {
       throw new IllegalArgumentException("Missing tree-sha");
     }
     String treeSha = isNameOnly ? args[2] : args[1];
-    readTree(false, isNameOnly, treeSha, null);
+    readTree(false, isNameOnly, treeSha, CommandContext.current().dir());
   }
 
   /**
@@ -57,62 +61,33 @@ public class ReadTreeCommand implements Command {
   public List<TreeObjectEntry> readTree(boolean isQuiet, boolean isNameOnly, String treeSha, File dir) {
     LOG.debug("readTree isNameOnly={} treeSha={}", isNameOnly, treeSha);
     if (dir == null) {
-      dir = new File(".");
+      dir = CommandContext.current().dir();
     }
-    String filePath = Utils.getPath(treeSha);
-    File file = new File(dir, filePath);
-    LOG.debug("readTree file={}", filePath);
-
-    /* File contents:
-     * tree <size>\0
+    /* Tree contents:
      * <mode> <name>\0<20_byte_sha>
      * <mode> <name>\0<20_byte_sha>
      */
-    try (FileInputStream fis = new FileInputStream(file);
-        InputStream in = new InflaterInputStream(fis)) {
-
-      // read preamble
-      int b;
-      ByteArrayOutputStream buf = new ByteArrayOutputStream();
-      while ((b = in.read()) != -1 && b != 0) {
-        buf.write(b);
+    try {
+      GitObject tree = ObjectDatabase.open(dir).read(treeSha);
+      if (tree == null) {
+        throw new FileNotFoundException("Object not found sha=" + treeSha);
       }
-      String first = buf.toString(StandardCharsets.UTF_8);
-      String[] firstSplit = first.split(" ");
-      assert firstSplit.length == 2 && firstSplit[0].equals("tree");
-      LOG.debug("readTree preamble: {} {}", firstSplit[0], firstSplit[1]);
-      buf.reset();
+      assert tree.getInfo().getType() == GitObjectType.TREE: "Expecting TREE, but got " + tree.getInfo().getType();
+      LOG.debug("readTree size={}", tree.getInfo().getSize());
 
-      // read subsequent entries, constructing TreeObjectEntry for each
-      List<TreeObjectEntry> entries = new ArrayList<>();
-      while ((b = in.read()) != -1) {
-        if (b > 0) {
-          buf.write(b);
-        } else { // b == 0
-          String segment = buf.toString(StandardCharsets.UTF_8);
-          buf.reset();
-          int indexOfFirstSpace = segment.indexOf(' ');
-          TreeObjectEntry entry = new TreeObjectEntry();
-          entry.mode = segment.substring(0, indexOfFirstSpace);
-          entry.name = segment.substring(indexOfFirstSpace + 1);
-          entry.sha = new byte[20];
-          int shaBytesRead = in.read(entry.sha);
-          assert shaBytesRead == 20;
-          LOG.debug("ls-tree entry: {} {} {}", entry.mode, entry.name, Utils.bytesToHex(entry.sha));
-          entries.add(entry);
-        }
-      }
+      List<TreeObjectEntry> entries = parseTree(tree.getData(), 0);
 
       if (!isQuiet) {
+        PrintStream out = CommandContext.current().out();
         if (isNameOnly) {
-          entries.forEach(entry -> System.out.println(entry.name));
+          entries.forEach(entry -> out.println(entry.name));
         } else {
           entries.forEach(entry -> {
-            System.out.print(entry.mode);
-            System.out.print(" ");
-            System.out.print(entry.name);
-            System.out.print(" ");
-            System.out.println(Utils.bytesToHex(entry.sha));
+            out.print(Integer.toOctalString(entry.mode));
+            out.print(" ");
+            out.print(entry.name);
+            out.print(" ");
+            out.println(entry.id);
           });
         }
       }
@@ -123,4 +98,24 @@ public class ReadTreeCommand implements Command {
     }
   }
 
-}
\ No newline at end of file
+  /**
+   * Materializes every entry; walks that only need some names or ids should iterate a
+   * {@link TreeParser} directly instead.
+   *
+   * @param data tree object data
+   * @param from position of the first entry, i.e. past any "tree [size]\0" preamble
+   */
+  public static List<TreeObjectEntry> parseTree(byte[] data, int from) {
+    List<TreeObjectEntry> entries = new ArrayList<>();
+    TreeParser parser = new TreeParser(data, from, data.length);
+    while (parser.next()) {
+      TreeObjectEntry entry = new TreeObjectEntry();
+      entry.mode = parser.getMode();
+      entry.name = parser.getName();
+      entry.id = parser.getId();
+      entries.add(entry);
+    }
+    return entries;
+  }
+
+}
@@ -0,0 +1,46 @@
+package org.howietkl.git.command;
+
+import org.howietkl.git.GitConfig;
+import org.howietkl.git.Repack;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * repack [--window=n] [--depth=n] [--window-memory=n[k|m|g]] [--threads=n], also run as gc.
+ */
+public class RepackCommand implements Command {
+  private static final Logger LOG = LoggerFactory.getLogger(RepackCommand.class);
+
+  @Override
+  public void execute(String[] args) {
+    CommandContext context = CommandContext.current();
+    try {
+      Repack repack = new Repack(context.dir());
+      for (int i = 1; i < args.length; i++) {
+        String arg = args[i];
+        String value = arg.substring(arg.indexOf('=') + 1);
+        if (arg.startsWith("--window=")) {
+          repack.setWindow(Integer.parseInt(value));
+        } else if (arg.startsWith("--depth=")) {
+          repack.setDepth(Integer.parseInt(value));
+        } else if (arg.startsWith("--window-memory=")) {
+          repack.setWindowMemory(GitConfig.parseLong(value));
+        } else if (arg.startsWith("--threads=")) {
+          repack.setThreads(Integer.parseInt(value));
+        } else {
+          context.err().println("Expecting: repack [--window=n] [--depth=n] [--window-memory=n] [--threads=n]");
+          return;
+        }
+      }
+      File packFile = repack.run();
+      context.out().println(packFile == null ? "Nothing new to pack." : packFile.getName());
+    } catch (IOException e) {
+      LOG.error(e.getMessage(), e);
+      throw new RuntimeException(e);
+    }
+  }
+
+}
@@ -0,0 +1,143 @@
+package org.howietkl.git.command;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.howietkl.git.UploadPack;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * serve [--port=n] [root]: serves the repositories under root, default the working directory,
+ * to git clients over smart HTTP, protocol v2 only. http://host:port/a/b.git maps to the
+ * repository root/a/b.git or root/a/b, root itself being served at http://host:port/.
+ * <p>
+ * Each request runs on its own virtual thread, and pack responses are sent with chunked
+ * transfer encoding as they are generated.
+ */
+public class ServeCommand implements Command {
+  private static final Logger LOG = LoggerFactory.getLogger(ServeCommand.class);
+  public static final int DEFAULT_PORT = 8080;
+  static final String INFO_REFS = "/info/refs";
+  static final String UPLOAD_PACK = "/git-upload-pack";
+
+  @Override
+  public void execute(String[] args) {
+    CommandContext context = CommandContext.current();
+    int port = DEFAULT_PORT;
+    File root = context.dir();
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].startsWith("--port=")) {
+        port = Integer.parseInt(args[i].substring("--port=".length()));
+      } else if (!args[i].startsWith("-")) {
+        root = context.resolve(args[i]);
+      } else {
+        context.err().println("Expecting: serve [--port=n] [root]");
+        return;
+      }
+    }
+    try {
+      HttpServer server = start(root, port);
+      context.out().println("Serving " + root.getCanonicalPath() + " on http://localhost:" + server.getAddress().getPort() + "/");
+      Thread.currentThread().join(); // until the process is stopped
+    } catch (IOException e) {
+      LOG.error(e.getMessage(), e);
+      throw new RuntimeException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @param port 0 for any free port
+   * @return running server, to be stopped by the caller
+   */
+  public static HttpServer start(File root, int port) throws IOException {
+    File canonicalRoot = root.getCanonicalFile();
+    HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+    server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    server.createContext("/", exchange -> handle(canonicalRoot, exchange));
+    server.start();
+    LOG.info("serve root={} port={}", canonicalRoot, server.getAddress().getPort());
+    return server;
+  }
+
+  private static void handle(File root, HttpExchange exchange) throws IOException {
+    try (exchange) {
+      String path = exchange.getRequestURI().getPath();
+      String method = exchange.getRequestMethod();
+      LOG.debug("serve {} path={}", method, path);
+      if ("GET".equals(method) && path.endsWith(INFO_REFS)
+          && "service=git-upload-pack".equals(exchange.getRequestURI().getQuery())) {
+        File dir = findRepository(root, path.substring(0, path.length() - INFO_REFS.length()));
+        if (dir == null) {
+          sendError(exchange, 404, "Repository not found");
+          return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/x-git-upload-pack-advertisement");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        UploadPack.advertise(exchange.getResponseBody());
+      } else if ("POST".equals(method) && path.endsWith(UPLOAD_PACK)) {
+        File dir = findRepository(root, path.substring(0, path.length() - UPLOAD_PACK.length()));
+        if (dir == null) {
+          sendError(exchange, 404, "Repository not found");
+          return;
+        }
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+          in = new GZIPInputStream(in);
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/x-git-upload-pack-result");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0); // chunked
+        OutputStream out = new BufferedOutputStream(exchange.getResponseBody(), 1 << 16);
+        new UploadPack(dir).handle(in, out);
+        out.flush();
+      } else {
+        sendError(exchange, 404, "Not found");
+      }
+    } catch (IOException | RuntimeException e) {
+      // the status has usually been sent by now, so all that is left is to drop the connection
+      LOG.warn("serve request failed path={}: {}", exchange.getRequestURI(), e.toString());
+      throw e;
+    }
+  }
+
+  /**
+   * @return repository root for the URL path, or null if there is none under root
+   */
+  public static File findRepository(File root, String path) throws IOException {
+    File dir = new File(root, path).getCanonicalFile();
+    if (!dir.toPath().startsWith(root.toPath())) {
+      return null; // e.g. /../other
+    }
+    if (new File(dir, ".git").isDirectory()) {
+      return dir;
+    }
+    if (dir.getName().endsWith(".git")) {
+      File stripped = new File(dir.getParentFile(), dir.getName().substring(0, dir.getName().length() - 4));
+      if (new File(stripped, ".git").isDirectory()) {
+        return stripped;
+      }
+    }
+    return null;
+  }
+
+  private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+    byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain");
+    exchange.sendResponseHeaders(status, body.length);
+    exchange.getResponseBody().write(body);
+  }
+
+}
@@ -1,15 +1,13 @@
 package org.howietkl.git.command;
 
+import org.howietkl.git.GitObjectType;
+import org.howietkl.git.ObjectDatabase;
 import org.howietkl.git.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
 
 public class WriteObjectCommand implements Command {
   private static final Logger LOG = LoggerFactory.getLogger(WriteObjectCommand.class);
@@ -19,20 +17,14 @@ public class WriteObjectCommand implements Command {
     if (args.length < 3 && !"-w".equals(args[1])) {
       return;
     }
-    System.out.println(Utils.bytesToHex(writeObject(args[2])));
+    CommandContext context = CommandContext.current();
+    context.out().println(Utils.bytesToHex(writeObject(context.resolve(args[2]), context.dir())));
   }
 
-  byte[] writeObject(String filePath) {
+  byte[] writeObject(File file, File dir) {
     try {
-      LOG.info("writeObject path={}", filePath);
-      byte[] data = Files.readAllBytes(Path.of(filePath));
-
-      ByteArrayOutputStream buf = new ByteArrayOutputStream(data.length + 16);
-      String header = String.format("blob %s\0", data.length);
-      buf.write(header.getBytes(StandardCharsets.UTF_8));
-      buf.write(data);
-
-      return Utils.writeObjectFile(buf.toByteArray(), new File("."));
+      LOG.info("writeObject path={}", file);
+      return ObjectDatabase.open(dir).write(GitObjectType.BLOB, file.toPath());
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
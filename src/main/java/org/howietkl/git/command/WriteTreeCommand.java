@@ -1,15 +1,22 @@
 package org.howietkl.git.command;
 
+import org.howietkl.git.DirCache;
+import org.howietkl.git.GitObjectType;
+import org.howietkl.git.ObjectDatabase;
 import org.howietkl.git.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.zip.DeflaterOutputStream;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class WriteTreeCommand implements Command {
   private static final Logger LOG = LoggerFactory.getLogger(WriteTreeCommand.class);
@@ -20,49 +27,157 @@ public class WriteTreeCommand implements Command {
   }
 
   private void writeTree() {
-    File currentDir = new File(".");
-    LOG.info("writeTree root={}", currentDir.getAbsolutePath());
-    System.out.println(Utils.bytesToHex(writeTree(currentDir)));
+    CommandContext context = CommandContext.current();
+    LOG.info("writeTree root={}", context.dir().getAbsolutePath());
+    context.out().println(Utils.bytesToHex(writeTree(context.dir())));
   }
 
-  private byte[] writeTree(File current) {
+  /**
+   * Hashes the tree rooted at current on the common fork-join pool: each directory is a task,
+   * and its files and subdirectories are hashed in parallel. Entries are assembled in sorted
+   * order once all children complete, so the tree bytes are the same as a serial walk.
+   * <p>
+   * Files whose stat data matches .git/index reuse the SHA-1 recorded there without being read,
+   * and directories whose files are all unchanged reuse the index's cached tree SHA-1.
+   * The index is rewritten afterwards with the current stat data and trees.
+   */
+  byte[] writeTree(File current) {
+    return writeTree(current, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * @param pool runs the directory and file tasks, a one-thread pool for a serial walk
+   */
+  byte[] writeTree(File current, ForkJoinPool pool) {
     try {
+      File gitDir = new File(current, ".git");
+      DirCache cached = DirCache.read(gitDir);
+      DirCache updated = new DirCache();
+      ObjectDatabase db = ObjectDatabase.open(current);
+      Written root = pool.invoke(new TreeTask(current, "", db, cached, updated));
+      updated.write(gitDir);
+      LOG.info("writeTree files={} unchanged={}", updated.size(), root.isUnchanged());
+      return root.sha();
+    } catch (Exception e) {
+      LOG.error(e.getMessage(), e);
+      throw e instanceof RuntimeException re ? re : new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @param entryCount  number of files at or below this path
+   * @param isUnchanged whether the stat data of every file at or below this path matched the index
+   */
+  private record Written(byte[] sha, boolean isUnchanged, int entryCount) {
+  }
+
+  private static class TreeTask extends RecursiveTask<Written> {
+    private final File current;
+    private final String path;
+    private final ObjectDatabase db;
+    private final DirCache cached;
+    private final DirCache updated;
+
+    TreeTask(File current, String path, ObjectDatabase db, DirCache cached, DirCache updated) {
+      this.current = current;
+      this.path = path;
+      this.db = db;
+      this.cached = cached;
+      this.updated = updated;
+    }
+
+    @Override
+    protected Written compute() {
       LOG.debug("writeTree file={}", current.getPath());
       File[] files = current.listFiles(f -> !(f.isDirectory() && f.getName().equals(".git")));
       Arrays.sort(files);
 
-      // process listing
-      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      List<RecursiveTask<Written>> children = new ArrayList<>(files.length);
       for (File file : files) {
-        if (file.isDirectory()) {
-          byte[] sha = writeTree(file);
-          buf.write(("40000 " + file.getName() + "\0").getBytes(StandardCharsets.UTF_8));
-          buf.write(sha);
-        } else {
-          byte[] sha = new WriteObjectCommand().writeObject(file.getAbsolutePath());
-          buf.write(("100644 " + file.getName() + "\0").getBytes(StandardCharsets.UTF_8));
-          buf.write(sha);
+        String childPath = DirCache.join(path, file.getName());
+        children.add(file.isDirectory()
+            ? new TreeTask(file, childPath, db, cached, updated)
+            : new BlobTask(file, childPath, db, cached, updated));
+      }
+      invokeAll(children);
+
+      boolean isUnchanged = true;
+      int entryCount = 0;
+      int subtrees = 0;
+      boolean hasEmptyDir = false;
+      for (int i = 0; i < files.length; i++) {
+        Written written = children.get(i).join();
+        isUnchanged &= written.isUnchanged();
+        entryCount += written.entryCount();
+        if (files[i].isDirectory()) {
+          if (written.entryCount() > 0) {
+            subtrees++;
+          } else {
+            hasEmptyDir = true;
+          }
         }
       }
-      byte[] listing = buf.toByteArray();
-
-      // process current dir
-      byte[] preamble = ("tree " + listing.length + "\0").getBytes(StandardCharsets.UTF_8);
-      ByteArrayOutputStream tree = new ByteArrayOutputStream(preamble.length + listing.length);
-      tree.write(preamble);
-      tree.write(listing);
-      byte[] treeBytes = tree.toByteArray();
-      byte[] sha = Utils.sha1(treeBytes);
-      String path = Utils.getPath(Utils.bytesToHex(sha));
-      File treeFile = new File(path);
-      treeFile.getParentFile().mkdirs();
-      try (DeflaterOutputStream out = new DeflaterOutputStream(new FileOutputStream(treeFile))) {
-        out.write(treeBytes);
+      // the index counts files and non-empty subdirectories only, so it cannot tell whether an
+      // empty directory has come or gone since: a tree listing one is neither cached nor reused
+      isUnchanged &= !hasEmptyDir;
+      DirCache.TreeEntry cachedTree = cached.getTree(path);
+      if (isUnchanged && cachedTree != null && cachedTree.entryCount() == entryCount) {
+        // same files with the same stat data, so the same tree
+        updated.putTree(path, cachedTree);
+        return new Written(cachedTree.sha(), true, entryCount);
+      }
+
+      try {
+        // process listing
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        for (int i = 0; i < files.length; i++) {
+          String mode = files[i].isDirectory() ? "40000 " : "100644 ";
+          buf.write((mode + files[i].getName() + "\0").getBytes(StandardCharsets.UTF_8));
+          buf.write(children.get(i).join().sha());
+        }
+
+        // process current dir
+        byte[] sha = db.write(GitObjectType.TREE, buf.toByteArray());
+        if (entryCount > 0 && !hasEmptyDir) { // git has no notion of an empty directory, so neither does the index
+          updated.putTree(path, new DirCache.TreeEntry(entryCount, subtrees, sha));
+        }
+        return new Written(sha, false, entryCount);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private static class BlobTask extends RecursiveTask<Written> {
+    private final File file;
+    private final String path;
+    private final ObjectDatabase db;
+    private final DirCache cached;
+    private final DirCache updated;
+
+    BlobTask(File file, String path, ObjectDatabase db, DirCache cached, DirCache updated) {
+      this.file = file;
+      this.path = path;
+      this.db = db;
+      this.cached = cached;
+      this.updated = updated;
+    }
+
+    @Override
+    protected Written compute() {
+      try {
+        DirCache.Entry entry = DirCache.stat(file.toPath(), path);
+        DirCache.Entry unchanged = cached.getUnchanged(entry);
+        if (unchanged != null) {
+          entry.setSha(unchanged.getSha());
+        } else {
+          entry.setSha(db.write(GitObjectType.BLOB, file.toPath()));
+        }
+        updated.putEntry(entry);
+        return new Written(entry.getSha(), unchanged != null, 1);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
       }
-      return sha;
-    } catch (Exception e) {
-      LOG.error(e.getMessage(), e);
-      throw new RuntimeException(e);
     }
   }
 
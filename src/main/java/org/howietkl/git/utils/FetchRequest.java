@@ -0,0 +1,94 @@
+package org.howietkl.git.utils;
+
+import org.howietkl.git.ObjectId;
+
+import java.util.Set;
+
+/**
+ * What to ask for in a protocol v2 fetch.
+ */
+public class FetchRequest {
+  private final Set<ObjectId> wants;
+  private int depth;
+  private String filter;
+  private Set<ObjectId> haves = Set.of();
+  private Set<ObjectId> shallow = Set.of();
+  private boolean done = true;
+  private boolean thinPack;
+
+  public FetchRequest(Set<ObjectId> wants) {
+    this.wants = wants;
+  }
+
+  public Set<ObjectId> getWants() {
+    return wants;
+  }
+
+  /**
+   * @return number of commits of history to fetch from each want, 0 for all of it
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  public void setDepth(int depth) {
+    this.depth = depth;
+  }
+
+  /**
+   * @return filter spec such as "blob:none" or "blob:limit=1m", null for no filter
+   */
+  public String getFilter() {
+    return filter;
+  }
+
+  public void setFilter(String filter) {
+    this.filter = filter;
+  }
+
+  /**
+   * @return commits the client already has, to negotiate a smaller pack
+   */
+  public Set<ObjectId> getHaves() {
+    return haves;
+  }
+
+  public void setHaves(Set<ObjectId> haves) {
+    this.haves = haves;
+  }
+
+  /**
+   * @return the client's shallow commits, whose parents it does not have
+   */
+  public Set<ObjectId> getShallow() {
+    return shallow;
+  }
+
+  public void setShallow(Set<ObjectId> shallow) {
+    this.shallow = shallow;
+  }
+
+  /**
+   * @return whether negotiation is over and the server must send a pack; otherwise the server
+   * may answer with acknowledgments only
+   */
+  public boolean isDone() {
+    return done;
+  }
+
+  public void setDone(boolean done) {
+    this.done = done;
+  }
+
+  /**
+   * @return whether the pack may hold deltas against objects the client has rather than sends
+   */
+  public boolean isThinPack() {
+    return thinPack;
+  }
+
+  public void setThinPack(boolean thinPack) {
+    this.thinPack = thinPack;
+  }
+
+}
@@ -0,0 +1,62 @@
+package org.howietkl.git.utils;
+
+import org.howietkl.git.ObjectId;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The pack received from a protocol v2 fetch, and what the sections before it said.
+ */
+public class FetchResponse {
+  private File packFile;
+  private final Set<ObjectId> shallow = new HashSet<>();
+  private final Set<ObjectId> unshallow = new HashSet<>();
+  private final Set<ObjectId> acks = new HashSet<>();
+  private boolean ready;
+
+  /**
+   * @return pack, or null if negotiation is not done yet
+   */
+  public File getPackFile() {
+    return packFile;
+  }
+
+  public void setPackFile(File packFile) {
+    this.packFile = packFile;
+  }
+
+  /**
+   * @return commits sent without their parents, from the shallow-info section
+   */
+  public Set<ObjectId> getShallow() {
+    return shallow;
+  }
+
+  /**
+   * @return previously shallow commits whose parents are now included
+   */
+  public Set<ObjectId> getUnshallow() {
+    return unshallow;
+  }
+
+  /**
+   * @return haves the server has in common with the client, from the acknowledgments section
+   */
+  public Set<ObjectId> getAcks() {
+    return acks;
+  }
+
+  /**
+   * @return whether the server found enough in common and sent the pack without waiting for done
+   */
+  public boolean isReady() {
+    return ready;
+  }
+
+  public void setReady(boolean ready) {
+    this.ready = ready;
+  }
+
+}
@@ -1,20 +1,21 @@
 package org.howietkl.git.utils;
 
-import org.howietkl.git.command.CloneCommand;
+import org.howietkl.git.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.StringReader;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.nio.ByteBuffer;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /* Tips from codecrafter comments to reverse engineer what's happening in a "git clone":
@@ -29,133 +30,202 @@ import java.util.Set;
  * https://git-scm.com/docs/protocol-v2
  */
 public class GitHttpClient {
-  private static final Logger LOG = LoggerFactory.getLogger(CloneCommand.class);
+  private static final Logger LOG = LoggerFactory.getLogger(GitHttpClient.class);
 
   /**
    * Technically required by protocol to discover server service=git-upload-pack
    * capabilities, but we can assume git protocol v2 support.
    */
-  public static Set<String> discoverRefs(String url) throws IOException, InterruptedException {
-    URI uri = URI.create(url + "/info/refs?service=git-upload-pack");
-    LOG.debug("Discover refs from uri={}", uri);
-
-    try (HttpClient client = HttpClient.newBuilder()
-        .build()) {
-      HttpRequest request = HttpRequest
-          .newBuilder()
-          .uri(uri)
-          .version(HttpClient.Version.HTTP_2)
-          .header("Content-Type", "application/x-git-upload-pack-request")
-          .header("Cache-Control", "no-cache")
-          .header("git-protocol", "version=2")
-          .GET()
-          .build();
-      HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-      if (response.statusCode() != 200) {
-        throw new RuntimeException("Failed to discover refs statusCode=" + response.statusCode());
-      }
-      LOG.debug("discoverRefs httpResponse={}", response.body());
+  public static Set<ObjectId> discoverRefs(String url) throws IOException, InterruptedException {
+    LOG.debug("Discover refs from url={}", url);
+    try (InputStream body = HttpTransport.forRemote(url).get("/info/refs?service=git-upload-pack")) {
+      LOG.debug("discoverRefs httpResponse={}", new String(body.readAllBytes(), StandardCharsets.UTF_8));
     }
     return Collections.EMPTY_SET;
   }
 
   // https://git-scm.com/docs/gitprotocol-http#_the_negotiation_algorithm
   // https://git-scm.com/docs/protocol-common#_pkt_line_format
-  public static Set<String> fetchRefs(String url) throws IOException, InterruptedException {
-    URI uri = URI.create(url + "/git-upload-pack");
-    LOG.debug("fetchRefs uri={}", uri);
-    StringBuilder postBody = new StringBuilder();
-    postBody
-        .append("0014command=ls-refs\n")
-        .append("0001")
-        .append("0014ref-prefix HEAD\n")
-        .append("001bref-prefix refs/heads/\n")
-        .append("0000");
-    try (HttpClient client = HttpClient.newBuilder()
-        .build()) {
-      HttpRequest request = HttpRequest
-          .newBuilder()
-          .uri(uri)
-          .version(HttpClient.Version.HTTP_2)
-          .header("Content-Type", "application/x-git-upload-pack-request")
-          .header("Cache-Control", "no-cache")
-          .header("git-protocol", "version=2")
-          .header("Accept", "application/x-git-upload-pack-result")
-          .POST(HttpRequest.BodyPublishers.ofString(postBody.toString()))
-          .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        if (response.statusCode() != 200) {
-          throw new RuntimeException("Failed to fetch hashes statusCode=" + response.statusCode());
+  public static Set<ObjectId> fetchRefs(String url) throws IOException, InterruptedException {
+    Set<ObjectId> ids = new HashSet<>();
+    lsRefs(url).forEach(ref -> ids.add(ref.id()));
+    return ids;
+  }
+
+  /**
+   * @return HEAD, with the branch it points to, and the branches under refs/heads/
+   */
+  public static List<RemoteRef> lsRefs(String url) throws IOException, InterruptedException {
+    ByteArrayOutputStream postBody = new ByteArrayOutputStream();
+    new PktLineWriter(postBody)
+        .line("command=ls-refs")
+        .delim()
+        .line("symrefs")
+        .line("ref-prefix HEAD")
+        .line("ref-prefix refs/heads/")
+        .flush();
+    /* Sample response:
+     * 00500ed33a2a0b12f05eb1aba57c5ed4a5eac9c0162d HEAD symref-target:refs/heads/main
+     * 003d0ed33a2a0b12f05eb1aba57c5ed4a5eac9c0162d refs/heads/main
+     * 0000
+     */
+    List<RemoteRef> refs = new ArrayList<>();
+    try (InputStream body = HttpTransport.forRemote(url).post("/git-upload-pack", postBody.toByteArray())) {
+      PktLineReader reader = new PktLineReader(body);
+      while (reader.read() >= 0) {
+        String line = reader.getPayloadString();
+        LOG.debug("lsRefs line={}", line);
+        String[] augmentedHashName = line.split(" ");
+        if (augmentedHashName.length < 2 || !ObjectId.isHex(augmentedHashName[0])) {
+          throw new IllegalStateException("Unexpected ls-refs line=" + line);
         }
-        /** Sample response:
-         * 00500ed33a2a0b12f05eb1aba57c5ed4a5eac9c0162d HEAD symref-target:refs/heads/main
-         * 003d0ed33a2a0b12f05eb1aba57c5ed4a5eac9c0162d refs/heads/main
-         * 0000
-         */
-        LOG.debug("fetchRefs httpResponse={}", response.body());
-        // extracting hashes...
-        Set<String> refs = new HashSet<>();
-        BufferedReader reader = new BufferedReader(new StringReader(response.body()));
-        String line;
-        while ((line = reader.readLine()) != null) {
-          String[] augmentedHashName = line.split(" ");
-          if (augmentedHashName.length == 2) {
-            String ref = augmentedHashName[0].substring(4);
-            assert ref.length() == 40: "Ref not SHA-1 (40 characters): " + ref;
-            refs.add(ref);
+        String symrefTarget = null;
+        for (int i = 2; i < augmentedHashName.length; i++) {
+          if (augmentedHashName[i].startsWith("symref-target:")) {
+            symrefTarget = augmentedHashName[i].substring("symref-target:".length());
           }
         }
-        return refs;
+        refs.add(new RemoteRef(augmentedHashName[1], ObjectId.fromHex(augmentedHashName[0]), symrefTarget));
+      }
     }
+    return refs;
   }
 
-  public static byte[] fetchPack(String url, Set<String> hashes) throws IOException, InterruptedException {
-    URI uri = URI.create(url + "/git-upload-pack");
+  /**
+   * Streams the packfile section of a protocol v2 fetch response to packFile.
+   * Sideband channel 1 carries pack data, 2 progress messages and 3 a fatal error.
+   *
+   * With a filter, the server leaves out the objects it matches, e.g. all blobs for
+   * "blob:none". With a depth, the server sends only that many commits of history and lists the commits
+   * it cut off in a shallow-info section.
+   *
+   * Without done, the server may reply with acknowledgments only, e.g. when none of the haves
+   * are in common yet; the client is then expected to send more haves.
+   *
+   * @return response holding packFile, containing the raw pack as sent by the server, or no
+   * pack if negotiation is to continue
+   */
+  public static FetchResponse fetchPack(String url, FetchRequest fetch, File packFile) throws IOException, InterruptedException {
     // construct post body command
-    StringBuilder postBody = new StringBuilder();
-    postBody
-        .append("0012command=fetch\n")
-        .append("0001");
-    hashes.stream().forEach(h -> postBody.append("0032want ").append(h).append("\n"));
-    postBody.append("0009done\n").append("0000");
-    LOG.debug("fetchPack uri={} postBody={}", uri, postBody);
+    ByteArrayOutputStream postBody = new ByteArrayOutputStream();
+    PktLineWriter writer = new PktLineWriter(postBody)
+        .line("command=fetch")
+        .delim();
+    if (fetch.isThinPack()) {
+      writer.line("thin-pack");
+    }
+    writer.line("ofs-delta");
+    for (ObjectId want : fetch.getWants()) {
+      writer.line("want " + want);
+    }
+    for (ObjectId have : fetch.getHaves()) {
+      writer.line("have " + have);
+    }
+    for (ObjectId shallow : fetch.getShallow()) {
+      writer.line("shallow " + shallow);
+    }
+    if (fetch.getDepth() > 0) {
+      writer.line("deepen " + fetch.getDepth());
+    }
+    if (fetch.getFilter() != null) {
+      writer.line("filter " + fetch.getFilter());
+    }
+    if (fetch.isDone()) {
+      writer.line("done");
+    }
+    writer.flush();
+    LOG.debug("fetchPack url={} wants={} haves={} done={}", url, fetch.getWants().size(), fetch.getHaves().size(),
+        fetch.isDone());
 
-    try (HttpClient client = HttpClient.newBuilder()
-        .build()) {
-      HttpRequest request = HttpRequest
-          .newBuilder()
-          .uri(uri)
-          .version(HttpClient.Version.HTTP_2)
-          .header("Content-Type", "application/x-git-upload-pack-request")
-          .header("Cache-Control", "no-cache")
-          .header("git-protocol", "version=2")
-          .POST(HttpRequest.BodyPublishers.ofString(postBody.toString()))
-          .build();
-      HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
-      if (response.statusCode() != 200) {
-        throw new RuntimeException("Failed to fetch Pack statusCode=" + response.statusCode());
+    try (InputStream body = HttpTransport.forRemote(url).post("/git-upload-pack", postBody.toByteArray())) {
+      packFile.getParentFile().mkdirs();
+      FetchResponse fetched = new FetchResponse();
+      long packSize;
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(packFile), 1 << 16)) {
+        packSize = readPackSection(new PktLineReader(body), out, fetched);
+        LOG.debug("fetchPack retrieved {} bytes into file={} shallow={} acks={}", packSize, packFile.getAbsolutePath(),
+            fetched.getShallow().size(), fetched.getAcks().size());
+      }
+      if (packSize < 0) {
+        packFile.delete();
+      } else {
+        fetched.setPackFile(packFile);
       }
-      LOG.debug("fetchPack retrieved {} bytes", response.body().length);
+      return fetched;
+    }
+  }
+
+  /**
+   * Skips over response sections until "packfile", then demultiplexes its sideband packets.
+   *
+   * @return number of pack bytes written
+   */
+  static long readPackSection(PktLineReader reader, OutputStream out) throws IOException {
+    return readPackSection(reader, out, new FetchResponse());
+  }
 
-      // extract pack...
-      ByteBuffer raw = ByteBuffer.wrap(response.body());
-      // strip out "Compressing objects.." metadata
-      while (raw.get() != 1) {
-        // traverse bytes until we read 0x01
+  /**
+   * @param fetched collects shallow and unshallow lines from a shallow-info section, and ACK
+   *                and ready lines from an acknowledgments section
+   * @return number of pack bytes written, or -1 if the response was acknowledgments only
+   */
+  static long readPackSection(PktLineReader reader, OutputStream out, FetchResponse fetched) throws IOException {
+    int length;
+    boolean isAcknowledgments = false;
+    // sections before the pack, e.g. acknowledgments, shallow-info
+    while (true) {
+      length = reader.read();
+      if (length == PktLineReader.END_OF_STREAM
+          || (length == PktLineReader.FLUSH_PKT && isAcknowledgments && !fetched.isReady())) {
+        if (isAcknowledgments && !fetched.isReady()) {
+          return -1;
+        }
+        throw new IllegalStateException("Pack could not be fetched: response ended before packfile section");
       }
-      raw.mark();
-      byte[] packHeader = new byte[4];
-      raw.get(packHeader);
-      // validate that we see a "PACK" header
-      if ("PACK".equals(new String(packHeader, StandardCharsets.UTF_8))) {
-        raw.reset();
-        raw.compact();
-        return raw.array();
-      } else {
-        LOG.error("Pack file missing PACK header");
+      if (length >= 0) {
+        String line = reader.getPayloadString();
+        if ("packfile".equals(line)) {
+          break;
+        }
+        if (line.startsWith("ERR ")) {
+          throw new IllegalStateException("Remote error: " + line.substring(4));
+        }
+        if ("acknowledgments".equals(line)) {
+          isAcknowledgments = true;
+        } else if ("ready".equals(line)) {
+          fetched.setReady(true);
+        } else if (line.startsWith("ACK ")) {
+          fetched.getAcks().add(ObjectId.fromHex(line.substring(4)));
+        } else if (line.startsWith("shallow ")) {
+          fetched.getShallow().add(ObjectId.fromHex(line.substring(8)));
+        } else if (line.startsWith("unshallow ")) {
+          fetched.getUnshallow().add(ObjectId.fromHex(line.substring(10)));
+        }
+        LOG.debug("fetchPack section line={}", line);
       }
-      throw new IllegalStateException("Pack could not be fetched");
     }
+
+    long packSize = 0;
+    while ((length = reader.read()) >= 0) {
+      if (length == 0) {
+        continue;
+      }
+      byte[] payload = reader.getPayload();
+      switch (payload[0]) {
+        case 1 -> {
+          out.write(payload, 1, length - 1);
+          packSize += length - 1;
+        }
+        case 2 -> LOG.info("remote: {}", new String(payload, 1, length - 1, StandardCharsets.UTF_8).trim());
+        case 3 -> throw new IllegalStateException(
+            "Remote error: " + new String(payload, 1, length - 1, StandardCharsets.UTF_8).trim());
+        default -> throw new IllegalStateException("Unexpected sideband channel=" + payload[0]);
+      }
+    }
+    if (packSize == 0) {
+      throw new IllegalStateException("Pack could not be fetched: no pack data received");
+    }
+    return packSize;
   }
 
 }
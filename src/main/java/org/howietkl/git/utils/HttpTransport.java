@@ -0,0 +1,186 @@
+package org.howietkl.git.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Smart HTTP transport to one remote. All requests to the remote go through one
+ * {@link HttpClient}, so ls-refs, fetch and later lazy fetches reuse its pooled, already warm
+ * connections instead of each paying for a new TCP (and TLS) handshake.
+ * <p>
+ * Request bodies above GZIP_THRESHOLD are sent gzipped, as git does, and gzipped responses
+ * are inflated transparently. Request counts and timings are kept for {@link #toString()}.
+ */
+public class HttpTransport {
+  private static final Logger LOG = LoggerFactory.getLogger(HttpTransport.class);
+  static final int REMOTE_LIMIT = Integer.getInteger("http.remoteLimit", 8);
+  // least recently used first; an evicted transport's client is left to the garbage collector,
+  // since a fetch may still be using it
+  private static final Map<String, HttpTransport> REMOTES = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, HttpTransport> eldest) {
+      return size() > REMOTE_LIMIT;
+    }
+  };
+  static final int GZIP_THRESHOLD = 1024;
+  static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(Integer.getInteger("http.connectTimeout", 30));
+  static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(Integer.getInteger("http.timeout", 300));
+
+  private final String url;
+  private final HttpClient client;
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder bytesSent = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+  HttpTransport(String url) {
+    this.url = url;
+    this.client = HttpClient.newBuilder()
+        // HTTP/2 over TLS is negotiated up front; over plain http it would cost an h2c upgrade
+        // attempt, and a dropped first connection on servers without it
+        .version(url.startsWith("https:") ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+        .connectTimeout(CONNECT_TIMEOUT)
+        .followRedirects(HttpClient.Redirect.NORMAL)
+        .executor(Executors.newVirtualThreadPerTaskExecutor())
+        .build();
+  }
+
+  /**
+   * @param url repository url, e.g. https://github.com/HowieTKL/hello
+   * @return transport shared by everything in this process talking to url
+   */
+  public static HttpTransport forRemote(String url) {
+    synchronized (REMOTES) {
+      return REMOTES.computeIfAbsent(url, HttpTransport::new);
+    }
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * @param path relative to the repository url, e.g. /info/refs?service=git-upload-pack
+   * @return response body, already checked for a 200 status
+   */
+  public InputStream get(String path) throws IOException, InterruptedException {
+    return send(newRequest(path).GET().build());
+  }
+
+  /**
+   * Posts a protocol v2 request, e.g. to /git-upload-pack.
+   *
+   * @param body pkt-line encoded request
+   * @return response body, already checked for a 200 status
+   */
+  public InputStream post(String path, byte[] body) throws IOException, InterruptedException {
+    HttpRequest.Builder request = newRequest(path)
+        .header("Content-Type", "application/x-git-upload-pack-request")
+        .header("Accept", "application/x-git-upload-pack-result");
+    if (body.length > GZIP_THRESHOLD) {
+      body = gzip(body);
+      request.header("Content-Encoding", "gzip");
+    }
+    bytesSent.add(body.length);
+    return send(request.POST(HttpRequest.BodyPublishers.ofByteArray(body)).build());
+  }
+
+  private HttpRequest.Builder newRequest(String path) {
+    return HttpRequest.newBuilder()
+        .uri(URI.create(url + path))
+        .timeout(REQUEST_TIMEOUT)
+        .header("Cache-Control", "no-cache")
+        .header("Accept-Encoding", "gzip")
+        .header("git-protocol", "version=2");
+  }
+
+  /**
+   * Times a request up to its response headers; the body is streamed by the caller.
+   */
+  private InputStream send(HttpRequest request) throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+    long nanos = System.nanoTime() - start;
+    requests.increment();
+    totalNanos.add(nanos);
+    maxNanos.accumulate(nanos);
+    LOG.debug("{} uri={} status={} version={} ms={}", request.method(), request.uri(), response.statusCode(),
+        response.version(), nanos / 1_000_000);
+    InputStream body = new DrainingInputStream(response.body());
+    if (response.statusCode() != 200) {
+      body.close();
+      throw new IOException(request.method() + " " + request.uri() + " failed statusCode=" + response.statusCode());
+    }
+    if (response.headers().firstValue("Content-Encoding").filter("gzip"::equalsIgnoreCase).isPresent()) {
+      body = new GZIPInputStream(body, 1 << 16);
+    }
+    return body;
+  }
+
+  /**
+   * Reads whatever is left of a response, typically a gzip trailer or the last chunk after the
+   * final flush packet, before closing; a connection is only reused once its response has been
+   * consumed in full. Gives up and lets the connection close if too much is left.
+   */
+  private static class DrainingInputStream extends FilterInputStream {
+    static final int MAX_DRAIN = 64 * 1024;
+
+    DrainingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        long skipped = 0;
+        byte[] scratch = new byte[8192];
+        int n;
+        while (skipped < MAX_DRAIN && (n = in.read(scratch)) >= 0) {
+          skipped += n;
+        }
+      } catch (IOException e) {
+        LOG.debug("Cannot drain response: {}", e.getMessage());
+      } finally {
+        in.close();
+      }
+    }
+  }
+
+  static byte[] gzip(byte[] body) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(body);
+    }
+    return out.toByteArray();
+  }
+
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  @Override
+  public String toString() {
+    long count = requests.sum();
+    return "url=" + url + " requests=" + count + " bytesSent=" + bytesSent.sum()
+        + " avgMs=" + (count == 0 ? 0 : totalNanos.sum() / count / 1_000_000)
+        + " maxMs=" + maxNanos.get() / 1_000_000;
+  }
+
+}
@@ -0,0 +1,98 @@
+package org.howietkl.git.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads pkt-line framed data: a 4 hex digit length (which includes itself) followed by payload.
+ * Lengths 0000, 0001 and 0002 are the special flush, delimiter and response-end packets.
+ * <p>
+ * The payload buffer is reused between reads so that streaming a pack does not allocate per packet.
+ *
+ * @see <a href="https://git-scm.com/docs/protocol-common#_pkt_line_format">pkt-line format</a>
+ */
+public class PktLineReader {
+  public static final int END_OF_STREAM = -1;
+  public static final int FLUSH_PKT = -2;        // 0000
+  public static final int DELIM_PKT = -3;        // 0001
+  public static final int RESPONSE_END_PKT = -4; // 0002
+
+  static final int MAX_PKT_LENGTH = 65520;
+
+  private final InputStream in;
+  private final byte[] lengthBytes = new byte[4];
+  private final byte[] payload = new byte[MAX_PKT_LENGTH - 4];
+  private int payloadLength;
+
+  public PktLineReader(InputStream in) {
+    this.in = in;
+  }
+
+  /**
+   * @return payload length of the packet read, or one of the negative packet constants
+   * @throws IOException if the stream ends mid-packet or the length is malformed
+   */
+  public int read() throws IOException {
+    int n = in.readNBytes(lengthBytes, 0, 4);
+    if (n == 0) {
+      return END_OF_STREAM;
+    }
+    if (n < 4) {
+      throw new EOFException("Truncated pkt-line length");
+    }
+    int length = parseLength(lengthBytes);
+    switch (length) {
+      case 0 -> { return FLUSH_PKT; }
+      case 1 -> { return DELIM_PKT; }
+      case 2 -> { return RESPONSE_END_PKT; }
+      case 3 -> throw new IOException("Invalid pkt-line length 0003");
+      default -> {
+        if (length > MAX_PKT_LENGTH) {
+          throw new IOException("pkt-line length exceeds maximum length=" + length);
+        }
+      }
+    }
+    payloadLength = length - 4;
+    if (in.readNBytes(payload, 0, payloadLength) != payloadLength) {
+      throw new EOFException("Truncated pkt-line payload expected=" + payloadLength);
+    }
+    return payloadLength;
+  }
+
+  /**
+   * @return payload of the last data packet, only valid up to {@link #getPayloadLength()}
+   */
+  public byte[] getPayload() {
+    return payload;
+  }
+
+  public int getPayloadLength() {
+    return payloadLength;
+  }
+
+  /**
+   * @return payload of the last data packet as text, without the trailing LF
+   */
+  public String getPayloadString() {
+    int length = payloadLength;
+    if (length > 0 && payload[length - 1] == '\n') {
+      length--;
+    }
+    return new String(payload, 0, length, StandardCharsets.UTF_8);
+  }
+
+  static int parseLength(byte[] hex) throws IOException {
+    int length = 0;
+    for (byte b : hex) {
+      int digit = Character.digit(b, 16);
+      if (digit < 0) {
+        throw new IOException("Invalid pkt-line length " + new String(hex, StandardCharsets.UTF_8));
+      }
+      length = (length << 4) | digit;
+    }
+    return length;
+  }
+
+}
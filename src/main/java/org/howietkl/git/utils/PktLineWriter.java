@@ -0,0 +1,64 @@
+package org.howietkl.git.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes pkt-line framed data, computing each packet's 4 hex digit length.
+ *
+ * @see PktLineReader
+ */
+public class PktLineWriter {
+  private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+  static final int MAX_PAYLOAD = PktLineReader.MAX_PKT_LENGTH - 4;
+
+  private final OutputStream out;
+  private final byte[] lengthBytes = new byte[4];
+
+  public PktLineWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Writes a text packet: line followed by LF.
+   */
+  public PktLineWriter line(String line) throws IOException {
+    byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+    return data(bytes, 0, bytes.length);
+  }
+
+  public PktLineWriter data(byte[] payload, int off, int len) throws IOException {
+    if (len > MAX_PAYLOAD) {
+      throw new IllegalArgumentException("pkt-line payload too long length=" + len);
+    }
+    writeLength(len + 4);
+    out.write(payload, off, len);
+    return this;
+  }
+
+  /**
+   * 0001, separating the sections of a command.
+   */
+  public PktLineWriter delim() throws IOException {
+    writeLength(1);
+    return this;
+  }
+
+  /**
+   * 0000, ending a message.
+   */
+  public PktLineWriter flush() throws IOException {
+    writeLength(0);
+    return this;
+  }
+
+  private void writeLength(int length) throws IOException {
+    for (int i = 3; i >= 0; i--) {
+      lengthBytes[i] = HEX[length & 0xf];
+      length >>>= 4;
+    }
+    out.write(lengthBytes);
+  }
+
+}
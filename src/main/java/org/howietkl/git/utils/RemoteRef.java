@@ -0,0 +1,11 @@
+package org.howietkl.git.utils;
+
+import org.howietkl.git.ObjectId;
+
+/**
+ * A ref as advertised by ls-refs.
+ *
+ * @param symrefTarget for a symbolic ref such as HEAD, the ref it points to, otherwise null
+ */
+public record RemoteRef(String name, ObjectId id, String symrefTarget) {
+}
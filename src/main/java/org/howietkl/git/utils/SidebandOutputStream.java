@@ -0,0 +1,60 @@
+package org.howietkl.git.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes data as pkt-lines on a sideband channel: 1 for pack data, 2 for progress messages and
+ * 3 for a fatal error, the first payload byte being the channel. Each write is split into
+ * packets of at most {@link #MAX_DATA} bytes; wrap in a BufferedOutputStream of that size to
+ * send full packets. Packets on other channels may be sent between writes.
+ *
+ * @see GitHttpClient#readPackSection
+ */
+public class SidebandOutputStream extends OutputStream {
+  public static final int DATA = 1;
+  public static final int PROGRESS = 2;
+  public static final int ERROR = 3;
+  public static final int MAX_DATA = PktLineWriter.MAX_PAYLOAD - 1;
+
+  private final OutputStream out;
+  private final byte[] packet = new byte[PktLineWriter.MAX_PAYLOAD];
+  private final PktLineWriter writer;
+
+  public SidebandOutputStream(OutputStream out, int channel) {
+    this.out = out;
+    this.writer = new PktLineWriter(out);
+    packet[0] = (byte) channel;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[]{(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      int n = Math.min(len, MAX_DATA);
+      System.arraycopy(b, off, packet, 1, n);
+      writer.data(packet, 0, n + 1);
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Sends a message on the progress channel of the same stream.
+   */
+  public void progress(String message) throws IOException {
+    byte[] bytes = ((char) PROGRESS + message + "\n").getBytes(StandardCharsets.UTF_8);
+    writer.data(bytes, 0, bytes.length);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+}
@@ -1,27 +1,64 @@
 package org.howietkl.git.utils;
 
+import org.howietkl.git.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
-import java.util.zip.DeflaterOutputStream;
 import java.util.zip.Inflater;
 
 public class Utils {
   private static final Logger LOG = LoggerFactory.getLogger(Utils.class);
 
+  private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] HEX_VALUES = new byte[128];
+
+  static {
+    Arrays.fill(HEX_VALUES, (byte) -1);
+    for (int i = 0; i < 16; i++) {
+      HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+      HEX_VALUES[Character.toUpperCase(HEX_DIGITS[i])] = (byte) i;
+    }
+  }
+
   public static String bytesToHex(byte[] bytes) {
-    StringBuilder hexStringBuilder = new StringBuilder();
-    for (byte b : bytes) {
-      hexStringBuilder.append(String.format("%02x", b));
+    byte[] hex = new byte[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+      hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+    }
+    return new String(hex, StandardCharsets.US_ASCII);
+  }
+
+  public static byte[] hexToBytes(String hex) {
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) ((hexValue(hex.charAt(2 * i)) << 4) | hexValue(hex.charAt(2 * i + 1)));
     }
-    return hexStringBuilder.toString();
+    return bytes;
+  }
+
+  /**
+   * @return lowercase hex digit for the low 4 bits of nibble
+   */
+  public static byte hexDigit(int nibble) {
+    return HEX_DIGITS[nibble & 0xf];
+  }
+
+  /**
+   * @return value of a hex digit, or -1 if c is not one
+   */
+  public static int hexValue(char c) {
+    return c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+  }
+
+  public static String getPath(ObjectId id) {
+    return getPath(id.toHex());
   }
 
   public static String getPath(String sha1) {
@@ -29,39 +66,51 @@ public class Utils {
   }
 
   public static byte[] sha1(byte[] data) {
+    return newSha1().digest(data);
+  }
+
+  public static MessageDigest newSha1() {
     try {
-      return MessageDigest.getInstance("SHA-1").digest(data);
+      return MessageDigest.getInstance("SHA-1");
     } catch (NoSuchAlgorithmException e) {
       throw new RuntimeException(e);
     }
   }
 
-  public static byte[] getInflated(ByteBuffer buf, int inflatedSize) throws DataFormatException {
-    byte[] data = new byte[inflatedSize];
-    Inflater inflater = new Inflater();
-    inflater.setInput(buf);
-    inflater.inflate(data);
-    inflater.end();
-    return data;
-  }
-
   /**
-   * data consists of: [type] [data length]\0[contents]
-   * @param data entire preamble + data to be written
-   * @throws IOException if error occurs during writing
+   * Inflates exactly one zlib stream from buf, leaving buf positioned just past its end.
+   *
+   * @param inflatedSize expected size of the inflated data
+   * @throws DataFormatException if the stream is corrupt, truncated or not of the expected size
    */
-  public static byte[] writeObjectFile(byte[] data, File repoDir) throws IOException {
-    byte[] sha1Bytes = sha1(data);
-    String sha1 = bytesToHex(sha1Bytes);
-
-    File dir = new File(repoDir, String.format(".git/objects/%s", sha1.substring(0, 2)));
-    dir.mkdirs();
-
-    File file = new File(dir, sha1.substring(2));
-    LOG.trace("writeObjectFile file={}", file.getAbsolutePath());
-    try (DeflaterOutputStream out = new DeflaterOutputStream(new FileOutputStream(file, false))) {
-      out.write(data);
+  public static byte[] getInflated(ByteBuffer buf, int inflatedSize) throws DataFormatException {
+    byte[] data = new byte[inflatedSize];
+    byte[] scratch = new byte[1]; // reads past the expected size, to reach the end of the stream
+    Inflater inflater = Zlib.borrowInflater();
+    try {
+      inflater.setInput(buf);
+      int total = 0;
+      while (!inflater.finished()) {
+        int n;
+        if (total < data.length) {
+          n = inflater.inflate(data, total, data.length - total);
+        } else {
+          n = inflater.inflate(scratch);
+          if (n > 0) {
+            throw new DataFormatException("Inflated data larger than expected size=" + inflatedSize);
+          }
+        }
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new DataFormatException("Truncated zlib stream after " + total + " bytes");
+        }
+        total += n;
+      }
+      if (total != inflatedSize) {
+        throw new DataFormatException("Inflated size=" + total + " expected=" + inflatedSize);
+      }
+      return data;
+    } finally {
+      Zlib.release(inflater);
     }
-    return sha1Bytes;
   }
 }
@@ -0,0 +1,72 @@
+package org.howietkl.git.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Pools of reusable {@link Inflater}s and {@link Deflater}s, so native zlib state is not created
+ * and torn down for every object. Each platform thread keeps one of each; virtual threads,
+ * which are too numerous and short-lived for that, share a bounded pool.
+ * <p>
+ * Borrowed instances must be released, typically in a finally block, and not used afterwards.
+ */
+public class Zlib {
+  static final int MAX_SHARED = 64;
+
+  private static final ThreadLocal<Inflater> THREAD_INFLATER = new ThreadLocal<>();
+  private static final ThreadLocal<Deflater> THREAD_DEFLATER = new ThreadLocal<>();
+  private static final BlockingQueue<Inflater> SHARED_INFLATERS = new ArrayBlockingQueue<>(MAX_SHARED);
+  private static final BlockingQueue<Deflater> SHARED_DEFLATERS = new ArrayBlockingQueue<>(MAX_SHARED);
+
+  public static Inflater borrowInflater() {
+    Inflater inflater = null;
+    if (!Thread.currentThread().isVirtual()) {
+      inflater = THREAD_INFLATER.get();
+      THREAD_INFLATER.remove(); // a nested borrow on this thread gets a different instance
+    }
+    if (inflater == null) {
+      inflater = SHARED_INFLATERS.poll();
+    }
+    return inflater != null ? inflater : new Inflater();
+  }
+
+  public static void release(Inflater inflater) {
+    inflater.reset();
+    if (!Thread.currentThread().isVirtual() && THREAD_INFLATER.get() == null) {
+      THREAD_INFLATER.set(inflater);
+    } else if (!SHARED_INFLATERS.offer(inflater)) {
+      inflater.end();
+    }
+  }
+
+  /**
+   * @param level zlib level 0-9, or -1 for the zlib default
+   */
+  public static Deflater borrowDeflater(int level) {
+    Deflater deflater = null;
+    if (!Thread.currentThread().isVirtual()) {
+      deflater = THREAD_DEFLATER.get();
+      THREAD_DEFLATER.remove();
+    }
+    if (deflater == null) {
+      deflater = SHARED_DEFLATERS.poll();
+    }
+    if (deflater == null) {
+      return new Deflater(level);
+    }
+    deflater.setLevel(level);
+    return deflater;
+  }
+
+  public static void release(Deflater deflater) {
+    deflater.reset();
+    if (!Thread.currentThread().isVirtual() && THREAD_DEFLATER.get() == null) {
+      THREAD_DEFLATER.set(deflater);
+    } else if (!SHARED_DEFLATERS.offer(deflater)) {
+      deflater.end();
+    }
+  }
+
+}
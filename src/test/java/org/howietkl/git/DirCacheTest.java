@@ -0,0 +1,93 @@
+package org.howietkl.git;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class DirCacheTest {
+
+  @TempDir
+  File dir;
+
+  private File gitDir;
+  private Path file;
+  private final byte[] sha = new byte[20];
+
+  @BeforeEach
+  void setUp() throws Exception {
+    gitDir = new File(dir, ".git");
+    gitDir.mkdirs();
+    file = new File(dir, "a.txt").toPath();
+    Files.writeString(file, "a\n");
+    Files.setLastModifiedTime(file, FileTime.from(TestObjects.TIME, TimeUnit.SECONDS));
+    sha[0] = 1;
+  }
+
+  @Test
+  void roundTrip() throws Exception {
+    DirCache written = new DirCache();
+    DirCache.Entry entry = DirCache.stat(file, "a.txt");
+    entry.setSha(sha);
+    written.putEntry(entry);
+    DirCache.Entry nested = DirCache.stat(file, "sub/b.txt");
+    nested.setSha(sha);
+    written.putEntry(nested);
+    written.putTree("", new DirCache.TreeEntry(2, 1, sha));
+    written.putTree("sub", new DirCache.TreeEntry(1, 0, sha));
+    written.write(gitDir);
+
+    DirCache read = DirCache.read(gitDir);
+    assertEquals(2, read.size());
+    assertEquals(2, read.getTree("").entryCount());
+    assertEquals(1, read.getTree("").subtrees());
+    assertEquals(1, read.getTree("sub").entryCount());
+    assertArrayEquals(sha, read.getTree("sub").sha());
+    assertNull(read.getTree("other"));
+    assertNotNull(read.getUnchanged(DirCache.stat(file, "sub/b.txt")));
+    assertArrayEquals(sha, read.getUnchanged(DirCache.stat(file, "a.txt")).getSha());
+  }
+
+  @Test
+  void unchangedWhenStatMatches() throws Exception {
+    DirCache read = writeAndRead();
+    DirCache.Entry cached = read.getUnchanged(DirCache.stat(file, "a.txt"));
+    assertNotNull(cached);
+    assertArrayEquals(sha, cached.getSha());
+    assertSame(cached, read.getUnchanged(DirCache.stat(file, "a.txt")));
+    assertNull(read.getUnchanged(DirCache.stat(file, "b.txt")), "not in the index");
+
+    Files.writeString(file, "changed\n");
+    assertNull(read.getUnchanged(DirCache.stat(file, "a.txt")), "size differs");
+  }
+
+  @Test
+  void racilyCleanIsRehashed() throws Exception {
+    writeAndRead();
+    // the file was modified within the same instant the index was written
+    Files.setLastModifiedTime(new File(gitDir, "index").toPath(), Files.getLastModifiedTime(file));
+
+    assertNull(DirCache.read(gitDir).getUnchanged(DirCache.stat(file, "a.txt")));
+  }
+
+  private DirCache writeAndRead() throws Exception {
+    DirCache.Entry entry = DirCache.stat(file, "a.txt");
+    entry.setSha(sha);
+    DirCache written = new DirCache();
+    written.putEntry(entry);
+    written.write(gitDir);
+    return DirCache.read(gitDir);
+  }
+
+}
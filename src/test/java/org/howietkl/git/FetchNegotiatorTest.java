@@ -0,0 +1,128 @@
+package org.howietkl.git;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FetchNegotiatorTest {
+
+  @TempDir
+  File dir;
+
+  private ObjectDatabase db;
+  private ObjectId tree;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    db = ObjectDatabase.open(dir);
+    tree = TestObjects.tree(db, Map.of());
+  }
+
+  @AfterEach
+  void tearDown() {
+    ObjectDatabase.forget(dir);
+  }
+
+  @Test
+  void batchesDoubleNewestFirst() throws Exception {
+    List<ObjectId> main = chain(null, 100, 0);
+    FetchNegotiator negotiator = new FetchNegotiator(db, List.of(main.get(99)), Set.of());
+
+    assertEquals(main.subList(84, 100).reversed(), negotiator.nextHaves());
+    assertEquals(main.subList(52, 84).reversed(), negotiator.nextHaves());
+    assertEquals(main.subList(0, 52).reversed(), negotiator.nextHaves());
+    assertTrue(negotiator.nextHaves().isEmpty());
+  }
+
+  @Test
+  void ackSkipsAncestorsOfCommon() throws Exception {
+    List<ObjectId> main = chain(null, 50, 0);
+    List<ObjectId> side = chain(main.get(10), 20, 1000); // newer, so walked first
+    FetchNegotiator negotiator = new FetchNegotiator(db, List.of(main.get(49), side.get(19)), Set.of());
+
+    assertEquals(side.subList(4, 20).reversed(), negotiator.nextHaves());
+    negotiator.ack(Set.of(side.get(4)));
+    assertEquals(Set.of(side.get(4)), negotiator.getCommon());
+    List<ObjectId> haves = negotiator.nextHaves();
+    assertEquals(main.subList(18, 50).reversed(), haves); // side.get(3) and older are not offered
+  }
+
+  @Test
+  void ackOfTipEndsWalk() throws Exception {
+    List<ObjectId> main = chain(null, 600, 0);
+    FetchNegotiator negotiator = new FetchNegotiator(db, List.of(main.get(599)), Set.of());
+    List<ObjectId> first = negotiator.nextHaves();
+    negotiator.ack(Set.of(first.get(0))); // every other commit is its ancestor
+
+    assertTrue(negotiator.nextHaves().isEmpty());
+  }
+
+  @Test
+  void ackSkipsAncestorsReachedByOtherPaths() throws Exception {
+    List<ObjectId> main = chain(null, 20, 0);
+    List<ObjectId> side = chain(main.get(5), 20, 1000);
+    ObjectId merge = TestObjects.commit(db, tree, 2000, "merge\n", main.get(19), side.get(19));
+    FetchNegotiator negotiator = new FetchNegotiator(db, List.of(merge), Set.of());
+
+    assertEquals(16, negotiator.nextHaves().size()); // merge, side 19 to 5
+    negotiator.ack(Set.of(side.get(10)));
+    // main 5 and older are ancestors of side 10 too, although reached through main 6
+    assertEquals(main.subList(6, 20).reversed(), negotiator.nextHaves());
+    assertTrue(negotiator.nextHaves().isEmpty());
+  }
+
+  @Test
+  void givesUpAfterMaxInVain() throws Exception {
+    List<ObjectId> main = chain(null, 600, 0);
+    List<ObjectId> other = chain(null, 20, 1000); // unrelated, and newer, so walked first
+    FetchNegotiator negotiator = new FetchNegotiator(db, List.of(main.get(599), other.get(19)), Set.of());
+    List<ObjectId> first = negotiator.nextHaves();
+    assertEquals(other.subList(4, 20).reversed(), first);
+    negotiator.ack(Set.of(first.get(0)));
+
+    int offered = 0;
+    List<ObjectId> haves;
+    while (!(haves = negotiator.nextHaves()).isEmpty()) {
+      offered += haves.size();
+    }
+    assertEquals(32 + 64 + 128 + 256, offered);
+    assertTrue(offered < main.size(), "history left unwalked");
+  }
+
+  @Test
+  void keepsWalkingWithoutCommon() throws Exception {
+    List<ObjectId> main = chain(null, 600, 0);
+    FetchNegotiator negotiator = new FetchNegotiator(db, List.of(main.get(599)), Set.of());
+    int offered = 0;
+    List<ObjectId> haves;
+    while (!(haves = negotiator.nextHaves()).isEmpty()) {
+      offered += haves.size();
+    }
+    assertEquals(600, offered); // nothing in common yet, so every commit is worth offering
+    assertTrue(negotiator.getCommon().isEmpty());
+  }
+
+  /**
+   * @return count commits, oldest first, the first a child of parent if not null
+   */
+  private List<ObjectId> chain(ObjectId parent, int count, long startTime) throws Exception {
+    List<ObjectId> commits = new ArrayList<>();
+    for (long time = startTime; time < startTime + count; time++) {
+      ObjectId[] parents = parent != null ? new ObjectId[]{parent} : new ObjectId[0];
+      parent = TestObjects.commit(db, tree, time, "at " + time + "\n", parents);
+      commits.add(parent);
+    }
+    return commits;
+  }
+
+}
@@ -0,0 +1,101 @@
+package org.howietkl.git;
+
+import org.howietkl.git.utils.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FsckTest {
+
+  @TempDir
+  File dir;
+  ObjectId blob;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    ObjectDatabase db = ObjectDatabase.open(dir);
+    blob = TestObjects.blob(db, "hello\n");
+    ObjectId tree = TestObjects.tree(db, Map.of("hello.txt", blob));
+    ObjectId commitId = TestObjects.commit(db, tree, "initial\n");
+    Refs.update(new File(dir, ".git"), "refs/heads/main", commitId);
+  }
+
+  @AfterEach
+  void tearDown() {
+    ObjectDatabase.forget(dir);
+  }
+
+  @Test
+  void soundRepository() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(0, new Fsck(dir, new PrintStream(out), 2).run(), out.toString());
+  }
+
+  @Test
+  void corruptAndMissingBlob() throws Exception {
+    File file = new File(dir, ".git/objects/" + blob.toHex().substring(0, 2) + "/" + blob.toHex().substring(2));
+    file.setWritable(true);
+    Files.writeString(file.toPath(), "not zlib");
+    ObjectDatabase.forget(dir);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(1, new Fsck(dir, new PrintStream(out), 2).run());
+    assertTrue(out.toString().contains(blob + ": object corrupt"), out.toString());
+
+    file.delete();
+    ObjectDatabase.forget(dir);
+    out.reset();
+    assertEquals(1, new Fsck(dir, new PrintStream(out), 2).run());
+    assertEquals("error: missing blob " + blob, out.toString().trim());
+  }
+
+  @Test
+  void partialCloneReportsOnlyUnpromisedMissingBlobs() throws Exception {
+    ObjectDatabase source = new ObjectDatabase(new File(dir, "source"));
+    ObjectId filtered = TestObjects.blob(source, "filtered\n");
+    ObjectId promisedTree = TestObjects.tree(source, Map.of("filtered.txt", filtered));
+    ObjectId promisedCommit = TestObjects.commit(source, promisedTree, "from the remote\n");
+    promisorPack(source, promisedCommit, promisedTree);
+    ObjectDatabase db = ObjectDatabase.open(dir);
+    // a tree written locally has to have its blobs, partial clone or not
+    ObjectId lost = TestObjects.blob(source, "lost\n");
+    ObjectId localCommit = TestObjects.commit(db, TestObjects.tree(db, Map.of("lost.txt", lost)), "local\n",
+        promisedCommit);
+    Refs.update(new File(dir, ".git"), "refs/heads/local", localCommit);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(2, new Fsck(dir, new PrintStream(out), 2).run(), out.toString());
+
+    Files.writeString(new File(dir, ".git/config").toPath(), "[extensions]\n\tpartialClone = origin\n");
+    out.reset();
+    assertEquals(1, new Fsck(dir, new PrintStream(out), 2).run(), out.toString());
+    assertEquals("error: missing blob " + lost, out.toString().trim());
+  }
+
+  private void promisorPack(ObjectDatabase source, ObjectId... ids) throws Exception {
+    ByteArrayOutputStream pack = new ByteArrayOutputStream();
+    pack.write("PACK".getBytes(StandardCharsets.US_ASCII));
+    pack.write(new byte[]{0, 0, 0, 2, 0, 0, 0, (byte) ids.length});
+    for (ObjectId id : ids) {
+      GitObject gitObject = source.read(id);
+      GitPackTest.writeEntry(pack, gitObject.getInfo().getType(), gitObject.getData().length, new byte[0],
+          gitObject.getData());
+    }
+    pack.write(Utils.sha1(pack.toByteArray()));
+    File packFile = new File(dir, ".git/objects/pack/tmp_pack");
+    packFile.getParentFile().mkdirs();
+    Files.write(packFile.toPath(), pack.toByteArray());
+    GitPack.process(packFile, dir, true);
+  }
+
+}
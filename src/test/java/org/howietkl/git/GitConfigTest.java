@@ -0,0 +1,85 @@
+package org.howietkl.git;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class GitConfigTest {
+
+  @TempDir
+  File gitDir;
+
+  @Test
+  void read() throws Exception {
+    Files.writeString(new File(gitDir, "config").toPath(), """
+        [core]
+        \trepositoryformatversion = 0
+        \tlooseCompression = 9 ; archival
+        # comment
+        [remote "Origin"]
+        \turl = "http://example.com/repo.git"
+        """);
+    GitConfig config = GitConfig.read(gitDir);
+    assertEquals(0, config.getInt("core.repositoryformatversion", -1));
+    assertEquals(9, config.getInt("CORE.LOOSECOMPRESSION", -1));
+    assertEquals(-1, config.getInt("core.compression", -1));
+    assertEquals("http://example.com/repo.git", config.get("remote.Origin.URL"));
+    assertNull(config.get("remote.origin.url"));
+  }
+
+  @Test
+  void writeAndReadBack() throws Exception {
+    GitConfig config = GitConfig.read(gitDir);
+    config.set("core.compression", "1");
+    config.set("remote.origin.url", "http://example.com/repo.git");
+    config.write();
+    GitConfig reread = GitConfig.read(gitDir);
+    assertEquals(1, reread.getInt("core.compression", -1));
+    assertEquals("http://example.com/repo.git", reread.get("remote.origin.url"));
+  }
+
+  @Test
+  void setKeepsCommentsAndOtherValues() throws Exception {
+    String original = """
+        # user settings
+        [core]
+        \tbare = false ; never
+        [remote "origin"]
+        \turl = http://example.com/a.git
+        \tfetch = +refs/heads/*:refs/remotes/origin/*
+        \tfetch = +refs/tags/*:refs/tags/*
+        [url "git@example.com:"]
+        \tinsteadOf = https://example.com/
+        """;
+    Files.writeString(new File(gitDir, "config").toPath(), original);
+    GitConfig config = GitConfig.read(gitDir);
+    assertEquals(List.of("+refs/heads/*:refs/remotes/origin/*", "+refs/tags/*:refs/tags/*"),
+        config.getAll("remote.origin.fetch"));
+    config.set("remote.origin.url", "http://example.com/b.git");
+    config.set("remote.origin.promisor", "true");
+    config.set("extensions.partialClone", "origin");
+    config.write();
+
+    assertEquals("""
+        # user settings
+        [core]
+        \tbare = false ; never
+        [remote "origin"]
+        \turl = http://example.com/b.git
+        \tfetch = +refs/heads/*:refs/remotes/origin/*
+        \tfetch = +refs/tags/*:refs/tags/*
+        \tpromisor = true
+        [url "git@example.com:"]
+        \tinsteadOf = https://example.com/
+        [extensions]
+        \tpartialClone = origin
+        """, Files.readString(new File(gitDir, "config").toPath()));
+  }
+
+}
@@ -0,0 +1,76 @@
+package org.howietkl.git;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GitDeltaTest {
+
+  @Test
+  void copyAndInsert() {
+    byte[] base = "hello world".getBytes(StandardCharsets.UTF_8);
+    byte[] delta = new byte[]{
+        11,                      // base size
+        13,                      // result size
+        (byte) 0b10010000, 5,    // copy offset=0 size=5 "hello"
+        3, ',', ' ', 'w',        // insert ", w"
+        (byte) 0b10010001, 7, 4, // copy offset=7 size=4 "orld"
+        1, '!'                   // insert "!"
+    };
+    assertArrayEquals("hello, world!".getBytes(StandardCharsets.UTF_8), GitDelta.apply(base, delta));
+  }
+
+  @Test
+  void copyDefaultSize() {
+    byte[] base = new byte[0x10000];
+    base[0xffff] = 42;
+    byte[] delta = new byte[]{
+        (byte) 0x80, (byte) 0x80, 0x04, // base size 0x10000
+        (byte) 0x80, (byte) 0x80, 0x04, // result size 0x10000
+        (byte) 0b10000000               // copy offset=0 size=0 => 0x10000
+    };
+    assertArrayEquals(base, GitDelta.apply(base, delta));
+  }
+
+  @Test
+  void baseSizeMismatch() {
+    byte[] delta = new byte[]{5, 1, 1, 'x'};
+    assertThrows(IllegalStateException.class, () -> GitDelta.apply(new byte[4], delta));
+  }
+
+  @Test
+  void reservedInstruction() {
+    byte[] delta = new byte[]{0, 1, 0};
+    assertThrows(IllegalStateException.class, () -> GitDelta.apply(new byte[0], delta));
+  }
+
+  @Test
+  void encodeRoundTrip() {
+    byte[] base = new byte[200_000];
+    new Random(7).nextBytes(base);
+    byte[] target = new byte[base.length + 10];
+    System.arraycopy(base, 0, target, 0, 1000);
+    System.arraycopy("0123456789".getBytes(StandardCharsets.UTF_8), 0, target, 1000, 10);
+    System.arraycopy(base, 1000, target, 1010, base.length - 1000); // more than one 0x10000 copy
+    target[150_000] ^= 1;
+
+    byte[] delta = new GitDelta.Index(base).encode(target, target.length);
+    assertArrayEquals(target, GitDelta.apply(base, delta));
+    assertTrue(delta.length < 200, "delta length=" + delta.length);
+    assertNull(new GitDelta.Index(base).encode(target, 10));
+  }
+
+  @Test
+  void encodeUnrelated() {
+    byte[] base = "hello world".getBytes(StandardCharsets.UTF_8);
+    byte[] target = "something else entirely, longer than a block".getBytes(StandardCharsets.UTF_8);
+    assertArrayEquals(target, GitDelta.apply(base, new GitDelta.Index(base).encode(target, 1000)));
+  }
+
+}
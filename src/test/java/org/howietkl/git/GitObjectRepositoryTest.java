@@ -0,0 +1,97 @@
+package org.howietkl.git;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class GitObjectRepositoryTest {
+
+  @TempDir
+  File dir;
+
+  private ObjectDatabase db;
+  private ObjectId commit;
+  private ObjectId lastBlob;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    db = ObjectDatabase.open(new File(dir, "repo"));
+    Map<String, ObjectId> files = new TreeMap<>();
+    for (int i = 0; i < 100; i++) {
+      lastBlob = TestObjects.blob(db, "file " + i + "\n");
+      files.put(String.format("f%03d.txt", i), lastBlob);
+    }
+    ObjectId sub = TestObjects.tree(db, Map.of("inner.txt", TestObjects.blob(db, "inner\n")));
+    // files sort before "sub", so the subtree goes last
+    ByteArrayOutputStream root = new ByteArrayOutputStream();
+    root.writeBytes(db.read(TestObjects.tree(db, files)).getData());
+    root.writeBytes("40000 sub\0".getBytes(StandardCharsets.UTF_8));
+    root.writeBytes(sub.toBytes());
+    ObjectId tree = ObjectId.fromBytes(db.write(GitObjectType.TREE, root.toByteArray()));
+    commit = TestObjects.commit(db, tree, "initial\n");
+  }
+
+  @AfterEach
+  void tearDown() {
+    ObjectDatabase.forget(new File(dir, "repo"));
+  }
+
+  @Test
+  void parallelMatchesSequential() throws Exception {
+    File sequential = new File(dir, "sequential");
+    File parallel = new File(dir, "parallel");
+    GitObjectRepository.populateFromCommit(sequential, commit, db, 1);
+    GitObjectRepository.populateFromCommit(parallel, commit, db, 16);
+
+    List<Path> files = list(sequential);
+    assertEquals(102, files.size()); // 100 files, sub, sub/inner.txt
+    assertEquals(files, list(parallel));
+    for (Path file : files) {
+      if (Files.isRegularFile(sequential.toPath().resolve(file))) {
+        assertArrayEquals(Files.readAllBytes(sequential.toPath().resolve(file)),
+            Files.readAllBytes(parallel.toPath().resolve(file)), file.toString());
+      }
+    }
+  }
+
+  @Test
+  void firstFailureIsPropagated() {
+    IOException failure = new IOException("cannot read " + lastBlob);
+    GitObjectReader reader = id -> {
+      if (id.equals(lastBlob)) {
+        throw failure;
+      }
+      return db.read(id);
+    };
+    for (int workers : new int[]{1, 8}) {
+      File checkout = new File(dir, "checkout" + workers);
+      IOException thrown = assertThrows(IOException.class,
+          () -> GitObjectRepository.populateFromCommit(checkout, commit, reader, workers));
+      assertSame(failure, thrown, "workers=" + workers);
+    }
+  }
+
+  private static List<Path> list(File root) throws IOException {
+    try (Stream<Path> paths = Files.walk(root.toPath())) {
+      return paths.filter(path -> !path.equals(root.toPath())).map(root.toPath()::relativize).sorted().toList();
+    }
+  }
+
+}
@@ -1,14 +1,33 @@
 package org.howietkl.git;
 
+import org.howietkl.git.utils.Utils;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 class GitPackTest {
 
+  @TempDir
+  File tempDir;
+
   @BeforeEach
   void setUp() {
   }
@@ -58,6 +77,207 @@ class GitPackTest {
     assertEquals(264208, anotherVarint(buf));
   }
 
+  @Test
+  void entryHeaderRoundTrip() {
+    for (long size : new long[]{0, 15, 16, 2048, 264208, 1L << 30}) {
+      GitObjectInfo info = GitPack.getObjectInfo(ByteBuffer.wrap(GitPack.entryHeader(GitObjectType.BLOB, size)));
+      assertEquals(GitObjectType.BLOB, info.getType());
+      assertEquals(size, info.getSize());
+    }
+  }
+
+  @Test
+  void getOffsetVarInt() {
+    assertEquals(127, GitPack.getOffsetVarInt(ByteBuffer.wrap(new byte[]{(byte) 0b01111111})));
+    // each continuation adds one: (0 + 1) << 7 | 0 = 128
+    assertEquals(128, GitPack.getOffsetVarInt(ByteBuffer.wrap(new byte[]{(byte) 0b10000000, 0})));
+    assertEquals(16511, GitPack.getOffsetVarInt(ByteBuffer.wrap(new byte[]{(byte) 0b11111111, 0b01111111})));
+  }
+
+  @Test
+  void offsetVarIntRoundTrip() {
+    for (long offset : new long[]{0, 127, 128, 16511, 16512, 1L << 40}) {
+      assertEquals(offset, GitPack.getOffsetVarInt(ByteBuffer.wrap(GitPack.offsetVarInt(offset))));
+    }
+  }
+
+  @Test
+  void processMatchesSequential() throws Exception {
+    byte[] packBytes = samplePack();
+    GitPack sequential = GitPack.process(ByteBuffer.wrap(packBytes), tempDir, 1);
+    GitPack parallel = GitPack.process(ByteBuffer.wrap(packBytes), tempDir, 4);
+    assertEquals(3, sequential.objects.size());
+    for (int i = 0; i < sequential.objects.size(); i++) {
+      assertArrayEquals(sequential.objects.get(i).getSha(), parallel.objects.get(i).getSha());
+      assertEquals(sequential.objects.get(i).getCrc(), parallel.objects.get(i).getCrc());
+    }
+    assertEquals(blobSha("hello world!\n"), Utils.bytesToHex(sequential.objects.get(1).getSha()));
+    assertEquals(blobSha("hello, world!\n"), Utils.bytesToHex(sequential.objects.get(2).getSha()));
+  }
+
+  @Test
+  void processKeepsPackReadableFromObjectDatabase() throws Exception {
+    File packFile = new File(tempDir, ".git/objects/pack/tmp_pack");
+    packFile.getParentFile().mkdirs();
+    Files.write(packFile.toPath(), samplePack());
+    GitPack.process(packFile, tempDir);
+
+    ObjectDatabase db = new ObjectDatabase(tempDir);
+    GitObject gitObject = db.read(blobSha("hello, world!\n"));
+    assertEquals(GitObjectType.BLOB, gitObject.getInfo().getType());
+    assertEquals("hello, world!\n", new String(gitObject.getData(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void processEmptyBlobAndTree() throws Exception {
+    ByteArrayOutputStream pack = new ByteArrayOutputStream();
+    pack.write("PACK".getBytes(StandardCharsets.US_ASCII));
+    pack.write(new byte[]{0, 0, 0, 2, 0, 0, 0, 2});
+    writeEntry(pack, GitObjectType.BLOB, 0, new byte[0], new byte[0]);
+    writeEntry(pack, GitObjectType.TREE, 0, new byte[0], new byte[0]);
+    pack.write(Utils.sha1(pack.toByteArray()));
+    File packFile = new File(tempDir, ".git/objects/pack/tmp_pack");
+    packFile.getParentFile().mkdirs();
+    Files.write(packFile.toPath(), pack.toByteArray());
+    GitPack.process(packFile, tempDir);
+
+    ObjectDatabase db = new ObjectDatabase(tempDir);
+    GitObject blob = db.read(blobSha(""));
+    assertEquals(GitObjectType.BLOB, blob.getInfo().getType());
+    assertEquals(0, blob.getData().length);
+    GitObject tree = db.read("4b825dc642cb6eb9a060e54bf8d69288fbee4904"); // git's empty tree
+    assertEquals(GitObjectType.TREE, tree.getInfo().getType());
+    assertEquals(0, tree.getData().length);
+  }
+
+  @Test
+  void processThinPackWithBaseInObjectDatabase() throws Exception {
+    ObjectDatabase db = ObjectDatabase.open(tempDir);
+    byte[] base = db.write(GitObjectType.BLOB, "hello world\n".getBytes(StandardCharsets.UTF_8));
+    Files.writeString(new File(tempDir, ".git/config").toPath(), "[core]\n\tcompression = 0\n");
+    ByteArrayOutputStream pack = new ByteArrayOutputStream();
+    pack.write("PACK".getBytes(StandardCharsets.US_ASCII));
+    pack.write(new byte[]{0, 0, 0, 2, 0, 0, 0, 1});
+    byte[] refDelta = {12, 13, (byte) 0b10010000, 11, 2, '!', '\n'}; // "hello world" + "!\n"
+    writeEntry(pack, GitObjectType.REF_DELTA, refDelta.length, base, refDelta);
+    pack.write(Utils.sha1(pack.toByteArray()));
+    File packFile = new File(tempDir, ".git/objects/pack/tmp_pack");
+    packFile.getParentFile().mkdirs();
+    Files.write(packFile.toPath(), pack.toByteArray());
+    GitPack.process(packFile, tempDir);
+
+    // the kept pack carries its base, so it verifies and reads without the loose object
+    File[] kept = packFile.getParentFile().listFiles((d, name) -> name.endsWith(".pack"));
+    assertEquals(1, kept.length);
+    PackFile packed = new PackFile(kept[0], null);
+    assertTrue(packed.isChecksumValid());
+    assertEquals(2, packed.getIndex().getObjectCount());
+    assertEquals("hello world\n", new String(packed.read(base).getData(), StandardCharsets.UTF_8));
+    assertEquals("hello world!\n",
+        new String(packed.read(Utils.hexToBytes(blobSha("hello world!\n"))).getData(), StandardCharsets.UTF_8));
+    ObjectDatabase.forget(tempDir);
+  }
+
+  @Test
+  void processCachesTreesOnlyOnceKept() throws Exception {
+    ByteArrayOutputStream pack = new ByteArrayOutputStream();
+    pack.write("PACK".getBytes(StandardCharsets.US_ASCII));
+    pack.write(new byte[]{0, 0, 0, 2, 0, 0, 0, 1});
+    writeEntry(pack, GitObjectType.TREE, 0, new byte[0], new byte[0]);
+    byte[] checksum = Utils.sha1(pack.toByteArray());
+    pack.write(checksum);
+    File packFile = new File(tempDir, ".git/objects/pack/tmp_pack");
+    packFile.getParentFile().mkdirs();
+    Files.write(packFile.toPath(), pack.toByteArray());
+    // a non-empty directory where the pack is to be kept, so keeping it fails
+    File blocker = new File(packFile.getParentFile(), "pack-" + Utils.bytesToHex(checksum) + ".pack");
+    new File(blocker, "file").mkdirs();
+    ObjectId emptyTree = ObjectId.fromHex("4b825dc642cb6eb9a060e54bf8d69288fbee4904");
+    ObjectCache cache = ObjectDatabase.open(tempDir).getCache();
+
+    assertThrows(IOException.class, () -> GitPack.process(packFile, tempDir));
+    assertNull(cache.get(emptyTree), "cached although the pack was not kept");
+
+    Files.delete(new File(blocker, "file").toPath());
+    Files.delete(blocker.toPath());
+    GitPack.process(packFile, tempDir);
+    assertNotNull(cache.get(emptyTree));
+    ObjectDatabase.forget(tempDir);
+  }
+
+  @Test
+  void processRejectsPackOver2GiB() throws Exception {
+    File packFile = new File(tempDir, ".git/objects/pack/tmp_pack");
+    packFile.getParentFile().mkdirs();
+    try (RandomAccessFile file = new RandomAccessFile(packFile, "rw")) {
+      file.setLength(Integer.MAX_VALUE + 1L); // sparse, so nothing is written
+    }
+    IOException e = assertThrows(IOException.class, () -> GitPack.process(packFile, tempDir));
+    assertTrue(e.getMessage().contains("2 GiB"), e.getMessage());
+    ObjectDatabase.forget(tempDir);
+  }
+
+  @Test
+  void getInflatedRejectsWrongSize() {
+    Deflater deflater = new Deflater();
+    deflater.setInput(new byte[]{'x'});
+    deflater.finish();
+    byte[] compressed = new byte[64];
+    int n = deflater.deflate(compressed);
+    deflater.end();
+    assertThrows(DataFormatException.class, () -> Utils.getInflated(ByteBuffer.wrap(compressed, 0, n), 0));
+    assertThrows(DataFormatException.class, () -> Utils.getInflated(ByteBuffer.wrap(compressed, 0, n - 4), 1));
+  }
+
+  /**
+   * blob, OFS_DELTA on the blob, REF_DELTA on the OFS_DELTA
+   */
+  static byte[] samplePack() throws Exception {
+    ByteArrayOutputStream pack = new ByteArrayOutputStream();
+    pack.write("PACK".getBytes(StandardCharsets.US_ASCII));
+    pack.write(new byte[]{0, 0, 0, 2, 0, 0, 0, 3});
+
+    int blobOffset = pack.size();
+    writeEntry(pack, GitObjectType.BLOB, 12, new byte[0], "hello world\n".getBytes(StandardCharsets.UTF_8));
+
+    int ofsOffset = pack.size();
+    byte[] ofsDelta = {12, 13, (byte) 0b10010000, 11, 2, '!', '\n'}; // "hello world" + "!\n"
+    writeEntry(pack, GitObjectType.OFS_DELTA, ofsDelta.length, encodeOffset(ofsOffset - blobOffset), ofsDelta);
+
+    byte[] refDelta = {13, 14, (byte) 0b10010000, 5, 1, ',', (byte) 0b10010001, 5, 8}; // "hello" + "," + " world!\n"
+    writeEntry(pack, GitObjectType.REF_DELTA, refDelta.length, Utils.hexToBytes(blobSha("hello world!\n")), refDelta);
+
+    pack.write(Utils.sha1(pack.toByteArray()));
+    return pack.toByteArray();
+  }
+
+  static void writeEntry(ByteArrayOutputStream pack, GitObjectType type, int size, byte[] base, byte[] data) throws Exception {
+    pack.write(0b10000000 | (type.ordinal() << 4) | (size & 0b1111));
+    pack.write(size >> 4);
+    pack.write(base);
+    Deflater deflater = new Deflater();
+    deflater.setInput(data);
+    deflater.finish();
+    byte[] compressed = new byte[data.length + 64];
+    int n = deflater.deflate(compressed);
+    deflater.end();
+    pack.write(compressed, 0, n);
+  }
+
+  private static byte[] encodeOffset(long offset) {
+    byte[] buf = new byte[10];
+    int pos = buf.length - 1;
+    buf[pos] = (byte) (offset & 0x7f);
+    while ((offset >>= 7) != 0) {
+      buf[--pos] = (byte) (0x80 | (--offset & 0x7f));
+    }
+    return Arrays.copyOfRange(buf, pos, buf.length);
+  }
+
+  private static String blobSha(String content) {
+    return Utils.bytesToHex(Utils.sha1(("blob " + content.length() + "\0" + content).getBytes(StandardCharsets.UTF_8)));
+  }
+
   private static long anotherVarint(ByteBuffer byteBuffer) {
     int firstByte = byteBuffer.get();
 
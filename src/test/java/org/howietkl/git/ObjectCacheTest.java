@@ -0,0 +1,54 @@
+package org.howietkl.git;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ObjectCacheTest {
+
+  @Test
+  void evictsLeastRecentlyUsedWithinBudget() {
+    int segmentLimit = 3 * (100 + ObjectCache.ENTRY_OVERHEAD);
+    ObjectCache cache = new ObjectCache((long) segmentLimit * ObjectCache.SEGMENTS);
+    // same hashCode, so all land in one segment
+    ObjectId a = id(1);
+    ObjectId b = id(2);
+    ObjectId c = id(3);
+    ObjectId d = id(4);
+    GitObject objectA = object(100);
+    cache.put(a, objectA);
+    cache.put(b, object(100));
+    cache.put(c, object(100));
+    assertSame(objectA, cache.get(a)); // a is now most recently used
+    cache.put(d, object(100));
+
+    assertNull(cache.get(b));
+    assertNotNull(cache.get(a));
+    assertNotNull(cache.get(c));
+    assertNotNull(cache.get(d));
+    assertEquals(1, cache.getEvictions());
+    assertEquals(4, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertEquals(segmentLimit, cache.getSize());
+
+    cache.put(id(5), object(segmentLimit)); // larger than a segment, not cached
+    assertNull(cache.get(id(5)));
+    assertEquals(1, cache.getEvictions());
+  }
+
+  private static ObjectId id(int low) {
+    return ObjectId.fromBuffer(ByteBuffer.allocate(ObjectId.LENGTH).putInt(16, low));
+  }
+
+  private static GitObject object(int size) {
+    GitObject gitObject = new GitObject(new GitObjectInfo());
+    gitObject.setData(new byte[size]);
+    return gitObject;
+  }
+
+}
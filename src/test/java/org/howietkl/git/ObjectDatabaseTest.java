@@ -0,0 +1,107 @@
+package org.howietkl.git;
+
+import org.howietkl.git.utils.Utils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ObjectDatabaseTest {
+
+  @TempDir
+  File dir;
+
+  @Test
+  void streamedWriteMatchesInMemoryWrite() throws Exception {
+    byte[] data = new byte[3 * ObjectDatabase.CHUNK_SIZE + 17];
+    new Random(42).nextBytes(data);
+    Path file = dir.toPath().resolve("large.bin");
+    Files.write(file, data);
+
+    byte[] streamed = new ObjectDatabase(dir).write(GitObjectType.BLOB, file);
+    ObjectDatabase other = new ObjectDatabase(new File(dir, "other"));
+    assertArrayEquals(other.write(GitObjectType.BLOB, data), streamed);
+    assertArrayEquals(data, new ObjectDatabase(dir).read(Utils.bytesToHex(streamed)).getData());
+  }
+
+  @Test
+  void streamedWriteOfExistingObjectLeavesNoFiles() throws Exception {
+    Path file = dir.toPath().resolve("a.txt");
+    Files.writeString(file, "a\n");
+    ObjectDatabase db = new ObjectDatabase(dir);
+    byte[] sha = db.write(GitObjectType.BLOB, file);
+    Path object = dir.toPath().resolve(Utils.getPath(ObjectId.fromBytes(sha)));
+    FileTime written = Files.getLastModifiedTime(object);
+    List<Path> before = list(dir.toPath().resolve(".git/objects"));
+
+    Files.setLastModifiedTime(object, FileTime.fromMillis(written.toMillis() - 10_000));
+    assertArrayEquals(sha, new ObjectDatabase(dir).write(GitObjectType.BLOB, file));
+    assertEquals(before, list(dir.toPath().resolve(".git/objects")), "temporary file left behind");
+    assertEquals(written.toMillis() - 10_000, Files.getLastModifiedTime(object).toMillis(), "object rewritten");
+  }
+
+  @Test
+  void containsSeesObjectsWrittenElsewhere() throws Exception {
+    byte[] content = "other\n".getBytes(StandardCharsets.UTF_8);
+    ObjectId loose = ObjectId.fromBytes(Utils.sha1(("blob " + content.length + "\0other\n").getBytes(StandardCharsets.UTF_8)));
+    ObjectId packed = ObjectId.fromBytes(Utils.sha1("blob 12\0hello world\n".getBytes(StandardCharsets.UTF_8)));
+    ObjectDatabase db = new ObjectDatabase(dir);
+    assertFalse(db.contains(loose)); // lists the packs and the fanout directory
+    assertFalse(db.contains(packed));
+
+    // as another process would
+    new ObjectDatabase(dir).write(GitObjectType.BLOB, content);
+    File packFile = new File(dir, ".git/objects/pack/tmp_pack");
+    packFile.getParentFile().mkdirs();
+    Files.write(packFile.toPath(), GitPackTest.samplePack());
+    GitPack.process(packFile, dir);
+    ObjectDatabase.forget(dir);
+
+    assertTrue(db.contains(loose));
+    assertTrue(db.contains(packed));
+  }
+
+  @Test
+  void evictsLeastRecentlyOpened() {
+    File repo = new File(dir, "repo");
+    ObjectDatabase db = ObjectDatabase.open(repo);
+    try {
+      for (int i = 0; i < ObjectDatabase.OPEN_LIMIT - 1; i++) {
+        ObjectDatabase.open(new File(dir, "other" + i));
+      }
+      assertSame(db, ObjectDatabase.open(repo), "still within the limit");
+      for (int i = 0; i < ObjectDatabase.OPEN_LIMIT; i++) {
+        ObjectDatabase.open(new File(dir, "more" + i));
+      }
+      assertNotSame(db, ObjectDatabase.open(repo));
+    } finally {
+      ObjectDatabase.forget(repo);
+      for (int i = 0; i < ObjectDatabase.OPEN_LIMIT; i++) {
+        ObjectDatabase.forget(new File(dir, "other" + i));
+        ObjectDatabase.forget(new File(dir, "more" + i));
+      }
+    }
+  }
+
+  private static List<Path> list(Path root) throws IOException {
+    try (Stream<Path> paths = Files.walk(root)) {
+      return paths.sorted().toList();
+    }
+  }
+
+}
@@ -0,0 +1,58 @@
+package org.howietkl.git;
+
+import org.howietkl.git.utils.Utils;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ObjectIdTest {
+
+  @Test
+  void hexAndBytesRoundTrip() {
+    byte[] sha = Utils.sha1("hello".getBytes(StandardCharsets.UTF_8));
+    ObjectId id = ObjectId.fromBytes(sha);
+    assertEquals("aaf4c61ddcc5e8a2dabede0f3b482cd9aea9434d", id.toHex());
+    assertEquals(Utils.bytesToHex(sha), id.toString());
+    assertArrayEquals(sha, id.toBytes());
+    assertEquals(id, ObjectId.fromHex("AAF4C61DDCC5E8A2DABEDE0F3B482CD9AEA9434D"));
+    assertEquals(id.hashCode(), ObjectId.fromHex(id.toHex()).hashCode());
+    assertEquals(0xaa, id.getFirstByte());
+
+    ByteBuffer buf = ByteBuffer.allocate(25).position(5);
+    id.writeTo(buf);
+    assertEquals(id, ObjectId.fromBuffer(buf.position(5)));
+  }
+
+  @Test
+  void compareToMatchesUnsignedBytes() {
+    byte[] a = new byte[20];
+    byte[] b = new byte[20];
+    for (int i = 0; i < 20; i++) {
+      b[i] = (byte) 0xff;
+      assertEquals(Integer.signum(Arrays.compareUnsigned(a, b)),
+          Integer.signum(ObjectId.fromBytes(a).compareTo(ObjectId.fromBytes(b))));
+      assertNotEquals(ObjectId.fromBytes(a), ObjectId.fromBytes(b));
+      b[i] = 0;
+      a[i] = (byte) 0x80;
+      assertTrue(ObjectId.fromBytes(a).compareTo(ObjectId.fromBytes(b)) > 0);
+      a[i] = 0;
+    }
+  }
+
+  @Test
+  void rejectsBadHex() {
+    assertFalse(ObjectId.isHex("aaf4c61ddcc5e8a2dabede0f3b482cd9aea9434"));
+    assertFalse(ObjectId.isHex("gaf4c61ddcc5e8a2dabede0f3b482cd9aea9434d"));
+    assertThrows(IllegalArgumentException.class, () -> ObjectId.fromHex("zzf4c61ddcc5e8a2dabede0f3b482cd9aea9434d"));
+  }
+
+}
@@ -0,0 +1,42 @@
+package org.howietkl.git;
+
+import org.howietkl.git.utils.Utils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PackIndexTest {
+
+  @TempDir
+  File tempDir;
+
+  @Test
+  void writeAndFind() throws Exception {
+    List<GitObject> objects = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      GitObject gitObject = new GitObject(new GitObjectInfo());
+      gitObject.setSha(Utils.sha1(("object" + i).getBytes(StandardCharsets.UTF_8)));
+      gitObject.setOffset(i == 299 ? 0x1_0000_0000L : 12 + i * 100L); // last one needs a 64-bit offset
+      gitObject.setCrc(i);
+      objects.add(gitObject);
+    }
+    File idxFile = new File(tempDir, "pack-test.idx");
+    PackIndexWriter.write(idxFile, objects, new byte[20]);
+
+    PackIndex index = new PackIndex(idxFile);
+    assertEquals(300, index.getObjectCount());
+    for (GitObject gitObject : objects) {
+      int position = index.find(gitObject.getSha());
+      assertEquals(gitObject.getOffset(), index.getOffset(position));
+      assertEquals(gitObject.getCrc(), index.getCrc(position));
+    }
+    assertEquals(-1, index.findOffset(Utils.sha1("missing".getBytes(StandardCharsets.UTF_8))));
+  }
+
+}
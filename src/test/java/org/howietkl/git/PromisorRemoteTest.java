@@ -0,0 +1,174 @@
+package org.howietkl.git;
+
+import com.sun.net.httpserver.HttpServer;
+import org.howietkl.git.command.CloneCommand;
+import org.howietkl.git.command.CommandContext;
+import org.howietkl.git.utils.PktLineReader;
+import org.howietkl.git.utils.PktLineWriter;
+import org.howietkl.git.utils.SidebandOutputStream;
+import org.howietkl.git.utils.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PromisorRemoteTest {
+
+  @TempDir
+  File dir;
+
+  private HttpServer server;
+  private String url;
+  private ObjectDatabase remote;
+  private File remoteDir;
+  private ObjectId commit;
+  private final List<ObjectId> blobs = new ArrayList<>();
+  // wants of each fetch request, and whether it carried "filter blob:none"
+  private final List<List<ObjectId>> fetchWants = new CopyOnWriteArrayList<>();
+  private final List<Boolean> fetchFiltered = new CopyOnWriteArrayList<>();
+
+  @BeforeEach
+  void setUp() throws Exception {
+    remoteDir = new File(dir, "remote");
+    remote = ObjectDatabase.open(remoteDir);
+    Map<String, ObjectId> files = new TreeMap<>();
+    for (String name : new String[]{"a.txt", "b.txt", "c.txt"}) {
+      ObjectId blob = TestObjects.blob(remote, name + "\n");
+      blobs.add(blob);
+      files.put(name, blob);
+    }
+    commit = TestObjects.commit(remote, TestObjects.tree(remote, files), "initial\n");
+
+    // stand-in for a server that supports filters: sends each want, and for a commit its tree
+    // and, unless filtered, the tree's blobs
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/repo.git/git-upload-pack", exchange -> {
+      PktLineReader reader = new PktLineReader(exchange.getRequestBody());
+      List<String> lines = new ArrayList<>();
+      int length;
+      while ((length = reader.read()) != PktLineReader.END_OF_STREAM) {
+        if (length >= 0) {
+          lines.add(reader.getPayloadString());
+        }
+      }
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      PktLineWriter writer = new PktLineWriter(body);
+      if (lines.contains("command=ls-refs")) {
+        writer.line(commit + " HEAD symref-target:refs/heads/main").line(commit + " refs/heads/main").flush();
+      } else {
+        List<ObjectId> wants = lines.stream().filter(line -> line.startsWith("want "))
+            .map(line -> ObjectId.fromHex(line.substring(5))).toList();
+        boolean filtered = lines.contains("filter blob:none");
+        fetchWants.add(wants);
+        fetchFiltered.add(filtered);
+        try {
+          writer.line("packfile");
+          new SidebandOutputStream(body, SidebandOutputStream.DATA).write(pack(wants, filtered));
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+        writer.flush();
+      }
+      exchange.sendResponseHeaders(200, body.size());
+      try (OutputStream out = exchange.getResponseBody()) {
+        body.writeTo(out);
+      }
+    });
+    server.start();
+    url = "http://127.0.0.1:" + server.getAddress().getPort() + "/repo.git";
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.stop(0);
+    ObjectDatabase.forget(remoteDir);
+    ObjectDatabase.forget(new File(dir, "clone"));
+  }
+
+  @Test
+  void partialClonePrefetchesBlobsBeforeCheckout() throws Exception {
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    new CommandContext(dir, System.in, new PrintStream(new ByteArrayOutputStream()), new PrintStream(err))
+        .run(new CloneCommand(), new String[]{"clone", "--filter=blob:none", url, "clone"});
+
+    File clone = new File(dir, "clone");
+    assertEquals(List.of(true, false), fetchFiltered, "filter only on the clone's fetch");
+    assertEquals(List.of(commit), fetchWants.get(0));
+    // checkout asked for every blob in one request, rather than one per file as it read them
+    assertEquals(Set.copyOf(blobs), Set.copyOf(fetchWants.get(1)));
+    for (String name : new String[]{"a.txt", "b.txt", "c.txt"}) {
+      assertEquals(name + "\n", Files.readString(new File(clone, name).toPath()));
+    }
+    File[] promisorPacks = new File(clone, ".git/objects/pack").listFiles((d, name) -> name.endsWith(".promisor"));
+    assertEquals(2, promisorPacks.length, "both packs came from the promisor remote");
+    GitConfig config = GitConfig.read(new File(clone, ".git"));
+    assertEquals("origin", config.get("extensions.partialClone"));
+    assertEquals("blob:none", config.get("remote.origin.partialclonefilter"));
+  }
+
+  @Test
+  void fetchesInBatches() throws Exception {
+    File local = new File(dir, "clone");
+    ObjectDatabase db = ObjectDatabase.open(local);
+    PromisorRemote promisor = new PromisorRemote("origin", url, local);
+    promisor.setBatchSize(2);
+    promisor.fetch(blobs, db);
+
+    assertEquals(List.of(blobs.subList(0, 2), blobs.subList(2, 3)), fetchWants);
+    assertEquals(List.of(false, false), fetchFiltered);
+    for (ObjectId blob : blobs) {
+      assertTrue(db.contains(blob));
+    }
+    fetchWants.clear();
+    promisor.fetch(blobs, db);
+    assertTrue(fetchWants.isEmpty(), "nothing left to fetch");
+    assertFalse(new File(local, ".git/objects/pack/tmp_pack_promisor").exists());
+  }
+
+  private byte[] pack(List<ObjectId> wants, boolean filtered) throws Exception {
+    Set<ObjectId> ids = new LinkedHashSet<>();
+    for (ObjectId want : wants) {
+      ids.add(want);
+      GitObject gitObject = remote.read(want);
+      if (gitObject.getInfo().getType() == GitObjectType.COMMIT) {
+        ObjectId tree = CommitHeader.parse(gitObject.getData()).tree();
+        ids.add(tree);
+        TreeParser parser = new TreeParser(remote.read(tree).getData());
+        while (!filtered && parser.next()) {
+          ids.add(parser.getId());
+        }
+      }
+    }
+    ByteArrayOutputStream pack = new ByteArrayOutputStream();
+    pack.write("PACK".getBytes(StandardCharsets.US_ASCII));
+    pack.write(new byte[]{0, 0, 0, 2, 0, 0, 0, (byte) ids.size()});
+    for (ObjectId id : ids) {
+      GitObject gitObject = remote.read(id);
+      GitPackTest.writeEntry(pack, gitObject.getInfo().getType(), gitObject.getData().length, new byte[0],
+          gitObject.getData());
+    }
+    pack.write(Utils.sha1(pack.toByteArray()));
+    return pack.toByteArray();
+  }
+
+}
@@ -0,0 +1,120 @@
+package org.howietkl.git;
+
+import org.howietkl.git.utils.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RepackTest {
+
+  @TempDir
+  File dir;
+
+  private ObjectDatabase db;
+  private byte[] v1;
+  private byte[] v2;
+  private ObjectId blob1, blob2, treeId, commitId;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    db = ObjectDatabase.open(dir);
+    v1 = new byte[10_000];
+    new Random(1).nextBytes(v1);
+    v2 = v1.clone();
+    v2[5000] ^= 1;
+    blob1 = TestObjects.blob(db, v1);
+    blob2 = TestObjects.blob(db, v2);
+    treeId = TestObjects.tree(db, Map.of("a.bin", blob1, "b.bin", blob2));
+    commitId = TestObjects.commit(db, treeId, "initial\n");
+  }
+
+  @AfterEach
+  void tearDown() {
+    ObjectDatabase.forget(dir);
+  }
+
+  @Test
+  void packsReachableObjectsWithDeltas() throws Exception {
+    Refs.update(new File(dir, ".git"), "refs/heads/main", commitId);
+
+    File packFile = new Repack(dir).run();
+
+    for (ObjectId id : List.of(blob1, blob2, treeId, commitId)) {
+      assertFalse(new File(dir, Utils.getPath(id)).exists(), "loose " + id);
+    }
+    assertTrue(packFile.length() < v1.length + 1000, "second blob should be a delta, pack=" + packFile.length());
+    ObjectDatabase reopened = ObjectDatabase.open(dir);
+    assertArrayEquals(v1, reopened.read(blob1).getData());
+    assertArrayEquals(v2, reopened.read(blob2).getData());
+    assertEquals(GitObjectType.COMMIT, reopened.read(commitId).getInfo().getType());
+  }
+
+  @Test
+  void deltasOverTheCacheBudgetAreComputedAgain() throws Exception {
+    GitConfig config = GitConfig.read(new File(dir, ".git"));
+    byte[] kept = pack(config);
+    config.set("pack.deltaCacheSize", "1");
+    assertArrayEquals(kept, pack(config));
+  }
+
+  @Test
+  void missingObjectFailsUnlessPartialClone() throws Exception {
+    new File(dir, Utils.getPath(blob2)).delete();
+    ObjectDatabase.forget(dir);
+    db = ObjectDatabase.open(dir);
+    GitConfig config = GitConfig.read(new File(dir, ".git"));
+    FileNotFoundException e = assertThrows(FileNotFoundException.class,
+        () -> new PackWriter(db, config).addObjects(List.of(commitId), List.of(), Set.of()));
+    assertTrue(e.getMessage().contains(blob2.toString()), e.getMessage());
+
+    config.set("extensions.partialClone", "origin");
+    PackWriter writer = new PackWriter(db, config);
+    writer.addObjects(List.of(commitId), List.of(), Set.of());
+    assertEquals(3, writer.getObjectCount(), "all but the blob left on the promisor remote");
+  }
+
+  @Test
+  void walksHistoryOfHavesOnlyAsFarAsWants() throws Exception {
+    ObjectId tree = TestObjects.tree(db, Map.of());
+    List<ObjectId> chain = new ArrayList<>();
+    ObjectId parent = commitId;
+    for (int i = 1; i <= 100; i++) {
+      parent = TestObjects.commit(db, tree, TestObjects.TIME + i, "at " + i + "\n", parent);
+      chain.add(parent);
+    }
+    // the walk would fail on reaching history that is gone
+    new File(dir, Utils.getPath(commitId)).delete();
+    ObjectDatabase.forget(dir);
+    db = ObjectDatabase.open(dir);
+
+    PackWriter writer = new PackWriter(db, GitConfig.read(new File(dir, ".git")));
+    writer.addObjects(List.of(chain.get(99)), List.of(chain.get(97)), Set.of());
+    assertEquals(2, writer.getObjectCount(), "two commits, and their tree is the receiver's");
+  }
+
+  private byte[] pack(GitConfig config) throws Exception {
+    PackWriter writer = new PackWriter(db, config);
+    writer.addObjects(List.of(commitId), List.of(), Set.of());
+    assertEquals(1, writer.findDeltas());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writer.write(out);
+    return out.toByteArray();
+  }
+
+}
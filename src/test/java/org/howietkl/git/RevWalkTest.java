@@ -0,0 +1,110 @@
+package org.howietkl.git;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RevWalkTest {
+
+  @TempDir
+  File dir;
+
+  private ObjectDatabase db;
+  private File gitDir;
+  private ObjectId tree;
+  // root <- main1 <- octopus(main1, side1, other1) <- main2
+  //    \<- side1 <- side2
+  //    \<- other1
+  private ObjectId root, main1, side1, side2, other1, octopus, main2;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    db = ObjectDatabase.open(dir);
+    gitDir = new File(dir, ".git");
+    tree = TestObjects.tree(db, Map.of());
+    root = commit(100);
+    main1 = commit(200, root);
+    side1 = commit(300, root);
+    other1 = commit(400, root);
+    octopus = commit(500, main1, side1, other1);
+    side2 = commit(600, side1);
+    main2 = commit(700, octopus);
+    Refs.update(gitDir, "refs/heads/main", main2);
+    Refs.update(gitDir, "refs/heads/side", side2);
+  }
+
+  @AfterEach
+  void tearDown() {
+    ObjectDatabase.forget(dir);
+  }
+
+  @Test
+  void commitGraphRoundTrip() throws Exception {
+    CommitGraphWriter.write(gitDir, db);
+    CommitGraph graph = CommitGraph.open(gitDir);
+
+    assertEquals(7, graph.getCommitCount());
+    int position = graph.find(octopus);
+    assertEquals(octopus, graph.getId(position));
+    assertEquals(tree, graph.getTree(position));
+    assertEquals(500, graph.getCommitTime(position));
+    assertEquals(3, graph.getGeneration(position));
+    assertArrayEquals(new int[]{graph.find(main1), graph.find(side1), graph.find(other1)}, graph.getParents(position));
+    assertEquals(1, graph.getGeneration(graph.find(root)));
+    assertEquals(-1, graph.find(tree));
+  }
+
+  @Test
+  void walksNewestFirstWithoutInflatingGraphCommits() throws Exception {
+    CommitGraphWriter.write(gitDir, db);
+    ObjectId main3 = commit(800, main2); // newer than the graph
+    RevWalk walk = new RevWalk(db, CommitGraph.open(gitDir), Set.of());
+    walk.markStart(main3);
+    walk.markUninteresting(side2);
+
+    assertEquals(List.of(main3, main2, octopus, other1, main1), drain(walk));
+    assertEquals(1, walk.getInflatedCount());
+  }
+
+  @Test
+  void mergeBases() throws Exception {
+    for (CommitGraph graph : new CommitGraph[]{null, graphOf()}) {
+      RevWalk walk = new RevWalk(db, graph, Set.of());
+      assertEquals(List.of(side1), walk.mergeBases(main2, side2));
+      assertEquals(List.of(root), walk.mergeBases(main1, other1));
+      assertTrue(walk.isAncestor(root, main2));
+      assertFalse(walk.isAncestor(side2, main2));
+    }
+  }
+
+  private CommitGraph graphOf() throws Exception {
+    CommitGraphWriter.write(gitDir, db);
+    return CommitGraph.open(gitDir);
+  }
+
+  private static List<ObjectId> drain(RevWalk walk) throws Exception {
+    List<ObjectId> ids = new ArrayList<>();
+    ObjectId id;
+    while ((id = walk.next()) != null) {
+      ids.add(id);
+    }
+    return ids;
+  }
+
+  private ObjectId commit(long time, ObjectId... parents) throws Exception {
+    return TestObjects.commit(db, tree, time, "at " + time + "\n", parents);
+  }
+
+}
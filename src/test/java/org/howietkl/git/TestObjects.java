@@ -0,0 +1,54 @@
+package org.howietkl.git;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes blobs, trees and commits for tests, all by the same author.
+ */
+final class TestObjects {
+  static final long TIME = 1700000000;
+
+  private TestObjects() {
+  }
+
+  static ObjectId blob(ObjectDatabase db, String content) throws IOException {
+    return blob(db, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  static ObjectId blob(ObjectDatabase db, byte[] content) throws IOException {
+    return ObjectId.fromBytes(db.write(GitObjectType.BLOB, content));
+  }
+
+  /**
+   * @param files blob of each regular file by name, written in git's order
+   */
+  static ObjectId tree(ObjectDatabase db, Map<String, ObjectId> files) throws IOException {
+    ByteArrayOutputStream tree = new ByteArrayOutputStream();
+    for (Map.Entry<String, ObjectId> file : new TreeMap<>(files).entrySet()) {
+      tree.writeBytes(("100644 " + file.getKey() + "\0").getBytes(StandardCharsets.UTF_8));
+      tree.writeBytes(file.getValue().toBytes());
+    }
+    return ObjectId.fromBytes(db.write(GitObjectType.TREE, tree.toByteArray()));
+  }
+
+  static ObjectId commit(ObjectDatabase db, ObjectId tree, String message, ObjectId... parents) throws IOException {
+    return commit(db, tree, TIME, message, parents);
+  }
+
+  static ObjectId commit(ObjectDatabase db, ObjectId tree, long time, String message, ObjectId... parents)
+      throws IOException {
+    StringBuilder commit = new StringBuilder("tree " + tree + "\n");
+    for (ObjectId parent : parents) {
+      commit.append("parent ").append(parent).append('\n');
+    }
+    commit.append("author dev <dev@example.com> ").append(time).append(" +0000\n")
+        .append("committer dev <dev@example.com> ").append(time).append(" +0000\n\n")
+        .append(message);
+    return ObjectId.fromBytes(db.write(GitObjectType.COMMIT, commit.toString().getBytes(StandardCharsets.UTF_8)));
+  }
+
+}
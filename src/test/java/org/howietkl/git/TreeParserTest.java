@@ -0,0 +1,61 @@
+package org.howietkl.git;
+
+import org.howietkl.git.command.ReadTreeCommand;
+import org.howietkl.git.utils.Utils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TreeParserTest {
+
+  @Test
+  void next() {
+    byte[] sha1 = Utils.sha1("a".getBytes(StandardCharsets.UTF_8));
+    byte[] sha2 = Utils.sha1("b".getBytes(StandardCharsets.UTF_8));
+    byte[] tree = tree("40000 dir", sha1, "100755 run.sh", sha2, "100644 näme", sha1);
+
+    TreeParser parser = new TreeParser(tree);
+    assertTrue(parser.next());
+    assertEquals(TreeParser.MODE_TREE, parser.getMode());
+    assertTrue(parser.isTree());
+    assertTrue(parser.nameEquals("dir".getBytes(StandardCharsets.UTF_8)));
+    assertEquals(ObjectId.fromBytes(sha1), parser.getId());
+    assertTrue(parser.next());
+    assertEquals(TreeParser.MODE_EXECUTABLE, parser.getMode());
+    assertFalse(parser.isTree());
+    assertEquals("run.sh", parser.getName());
+    assertEquals(ObjectId.fromBytes(sha2), parser.getId());
+    assertTrue(parser.next());
+    assertEquals("näme", parser.getName());
+    assertEquals(5, parser.getNameLength()); // bytes, not chars
+    assertFalse(parser.next());
+
+    List<ReadTreeCommand.TreeObjectEntry> entries = ReadTreeCommand.parseTree(tree, 0);
+    assertEquals(3, entries.size());
+    assertEquals(TreeParser.MODE_FILE, entries.get(2).getMode());
+  }
+
+  @Test
+  void truncated() {
+    byte[] tree = tree("100644 a", new byte[19]);
+    TreeParser parser = new TreeParser(tree);
+    assertThrows(IllegalStateException.class, parser::next);
+  }
+
+  private static byte[] tree(Object... modeNameShas) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < modeNameShas.length; i += 2) {
+      out.writeBytes((modeNameShas[i] + "\0").getBytes(StandardCharsets.UTF_8));
+      out.writeBytes((byte[]) modeNameShas[i + 1]);
+    }
+    return out.toByteArray();
+  }
+
+}
@@ -0,0 +1,161 @@
+package org.howietkl.git;
+
+import com.sun.net.httpserver.HttpServer;
+import org.howietkl.git.command.CloneCommand;
+import org.howietkl.git.command.CommandContext;
+import org.howietkl.git.command.ServeCommand;
+import org.howietkl.git.utils.FetchRequest;
+import org.howietkl.git.utils.FetchResponse;
+import org.howietkl.git.utils.GitHttpClient;
+import org.howietkl.git.utils.RemoteRef;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UploadPackTest {
+
+  @TempDir
+  File root;
+
+  @AfterEach
+  void tearDown() {
+    ObjectDatabase.forget(new File(root, "repo"));
+    ObjectDatabase.forget(new File(root, "clone"));
+  }
+
+  @Test
+  void servesRefsAndOnlyMissingObjects() throws Exception {
+    File repo = new File(root, "repo");
+    ObjectDatabase db = ObjectDatabase.open(repo);
+    File gitDir = new File(repo, ".git");
+    ObjectId first = commit(db, "one\n");
+    ObjectId second = commit(db, "two\n", first);
+    Refs.update(gitDir, "refs/heads/main", second);
+    Refs.link(gitDir, "HEAD", "refs/heads/main");
+
+    HttpServer server = ServeCommand.start(root, 0);
+    try {
+      String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/repo.git";
+      List<RemoteRef> refs = GitHttpClient.lsRefs(url);
+      assertEquals(new RemoteRef("HEAD", second, "refs/heads/main"), refs.get(0));
+      assertEquals(new RemoteRef("refs/heads/main", second, null), refs.get(1));
+
+      FetchRequest fetch = new FetchRequest(Set.of(second));
+      fetch.setHaves(Set.of(first));
+      fetch.setDone(false); // ready as soon as a have is common
+      File clone = new File(root, "clone");
+      FetchResponse fetched = GitHttpClient.fetchPack(url, fetch, new File(clone, ".git/objects/pack/tmp_pack"));
+      assertEquals(Set.of(first), Set.copyOf(fetched.getAcks()));
+      assertTrue(fetched.isReady());
+      GitPack.process(fetched.getPackFile(), clone);
+
+      ObjectDatabase cloned = ObjectDatabase.open(clone);
+      assertArrayEquals(db.read(second).getData(), cloned.read(second).getData());
+      assertFalse(cloned.contains(first), "common commit should not be sent");
+
+      // the repository has it, but no ref points to it
+      IllegalStateException e = assertThrows(IllegalStateException.class, () -> GitHttpClient.fetchPack(url,
+          new FetchRequest(Set.of(first)), new File(clone, ".git/objects/pack/tmp_pack")));
+      assertTrue(e.getMessage().contains("not our ref " + first), e.getMessage());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  void cloneChecksOutServedTree() throws Exception {
+    File repo = new File(root, "repo");
+    ObjectDatabase db = ObjectDatabase.open(repo);
+    File gitDir = new File(repo, ".git");
+    ObjectId first = commit(db, "one\n");
+    ObjectId tree = TestObjects.tree(db, Map.of(
+        "a.txt", TestObjects.blob(db, "alpha\n"),
+        "b.txt", TestObjects.blob(db, "beta\n"),
+        "file.txt", TestObjects.blob(db, "two\n")));
+    ObjectId second = TestObjects.commit(db, tree, "two\n", first);
+    Refs.update(gitDir, "refs/heads/main", second);
+    Refs.link(gitDir, "HEAD", "refs/heads/main");
+
+    HttpServer server = ServeCommand.start(root, 0);
+    try {
+      String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/repo.git";
+      new CommandContext(root, System.in, new PrintStream(new ByteArrayOutputStream()),
+          new PrintStream(new ByteArrayOutputStream()))
+          .run(new CloneCommand(), new String[]{"clone", url, "clone"});
+    } finally {
+      server.stop(0);
+    }
+
+    File clone = new File(root, "clone");
+    TreeParser parser = new TreeParser(db.read(tree).getData());
+    List<String> names = new ArrayList<>();
+    while (parser.next()) {
+      names.add(parser.getName());
+      assertArrayEquals(db.read(parser.getId()).getData(), Files.readAllBytes(new File(clone, parser.getName()).toPath()));
+    }
+    names.add(".git");
+    assertEquals(Set.copyOf(names), Set.of(clone.list()));
+    assertEquals(second, Refs.read(new File(clone, ".git"), "HEAD"));
+    assertTrue(ObjectDatabase.open(clone).contains(first), "history should be cloned too");
+  }
+
+  @Test
+  void sendsObjectsWholeUnlessWindowIsSet() throws Exception {
+    File repo = new File(root, "repo");
+    ObjectDatabase db = ObjectDatabase.open(repo);
+    File gitDir = new File(repo, ".git");
+    byte[] v1 = new byte[10_000];
+    new Random(1).nextBytes(v1);
+    byte[] v2 = v1.clone();
+    v2[5000] ^= 1;
+    ObjectId tree = TestObjects.tree(db, Map.of("a.bin", TestObjects.blob(db, v1), "b.bin", TestObjects.blob(db, v2)));
+    ObjectId commit = TestObjects.commit(db, tree, "initial\n");
+    Refs.update(gitDir, "refs/heads/main", commit);
+
+    HttpServer server = ServeCommand.start(root, 0);
+    try {
+      String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/repo.git";
+      File whole = GitHttpClient.fetchPack(url, new FetchRequest(Set.of(commit)), new File(root, "whole.pack")).getPackFile();
+      assertTrue(whole.length() > 2 * v1.length, "no delta search by default, pack=" + whole.length());
+
+      GitConfig config = GitConfig.read(gitDir);
+      config.set("pack.window", "10");
+      config.write();
+      File deltified = GitHttpClient.fetchPack(url, new FetchRequest(Set.of(commit)), new File(root, "delta.pack")).getPackFile();
+      assertTrue(deltified.length() < v1.length + 1000, "second blob should be a delta, pack=" + deltified.length());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  void findRepositoryStaysUnderRoot() throws Exception {
+    new File(root, "repo/.git").mkdirs();
+    new File(root, "repo/sub/.git").mkdirs();
+    assertEquals(new File(root, "repo").getCanonicalFile(), ServeCommand.findRepository(root.getCanonicalFile(), "/repo.git"));
+    assertNull(ServeCommand.findRepository(new File(root, "repo/sub").getCanonicalFile(), "/../"));
+  }
+
+  private static ObjectId commit(ObjectDatabase db, String content, ObjectId... parents) throws Exception {
+    ObjectId tree = TestObjects.tree(db, Map.of("file.txt", TestObjects.blob(db, content)));
+    return TestObjects.commit(db, tree, content, parents);
+  }
+
+}
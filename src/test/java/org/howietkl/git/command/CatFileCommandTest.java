@@ -0,0 +1,105 @@
+package org.howietkl.git.command;
+
+import org.howietkl.git.GitObjectType;
+import org.howietkl.git.ObjectDatabase;
+import org.howietkl.git.utils.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CatFileCommandTest {
+  private static final String MISSING = "0123456789012345678901234567890123456789";
+
+  @TempDir
+  File dir;
+
+  private final byte[] binary = new byte[256];
+  private String binarySha;
+  private String textSha;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    for (int i = 0; i < binary.length; i++) {
+      binary[i] = (byte) i; // every byte value, including NUL, \n and invalid UTF-8
+    }
+    ObjectDatabase db = ObjectDatabase.open(dir);
+    binarySha = Utils.bytesToHex(db.write(GitObjectType.BLOB, binary));
+    textSha = Utils.bytesToHex(db.write(GitObjectType.BLOB, "text\n".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @AfterEach
+  void tearDown() {
+    ObjectDatabase.forget(dir);
+  }
+
+  @Test
+  void batchWritesContentsAsBytes() {
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expected.writeBytes((binarySha + " blob 256\n").getBytes(StandardCharsets.US_ASCII));
+    expected.writeBytes(binary);
+    expected.writeBytes(("\n" + textSha + " blob 5\ntext\n\n").getBytes(StandardCharsets.US_ASCII));
+
+    assertArrayEquals(expected.toByteArray(), run("--batch", binarySha + "\n" + textSha + "\n"));
+  }
+
+  @Test
+  void batchCheckWritesHeadersOnly() {
+    assertEquals(binarySha + " blob 256\n" + textSha + " blob 5\n",
+        new String(run("--batch-check", binarySha + "\n" + textSha + "\n"), StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  void reportsMissingObjects() {
+    assertEquals(MISSING + " missing\nnot-a-sha missing\n" + textSha + " blob 5\n",
+        new String(run("--batch-check", MISSING + "\nnot-a-sha\n" + textSha + "\n"), StandardCharsets.US_ASCII));
+    assertEquals(MISSING + " missing\n",
+        new String(run("--batch", MISSING + "\n"), StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  void bufferOnlyChangesFlushing() throws Exception {
+    String input = binarySha + "\n" + MISSING + "\n" + textSha + "\n";
+    FlushCounter unbuffered = new FlushCounter();
+    CatFileCommand.batch(new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII)), unbuffered,
+        true, false, dir);
+    FlushCounter buffered = new FlushCounter();
+    CatFileCommand.batch(new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII)), buffered,
+        true, true, dir);
+
+    assertEquals(3, unbuffered.flushes, "flushed after each object");
+    assertEquals(0, buffered.flushes, "left to the caller");
+    assertArrayEquals(unbuffered.toByteArray(), buffered.toByteArray());
+    assertArrayEquals(unbuffered.toByteArray(), run("--batch", input, "--buffer"));
+  }
+
+  private byte[] run(String mode, String input, String... options) {
+    String[] args = new String[2 + options.length];
+    args[0] = "cat-file";
+    args[1] = mode;
+    System.arraycopy(options, 0, args, 2, options.length);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new CommandContext(dir, new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII)),
+        new PrintStream(out), new PrintStream(new ByteArrayOutputStream())).run(new CatFileCommand(), args);
+    return out.toByteArray();
+  }
+
+  private static class FlushCounter extends ByteArrayOutputStream {
+    int flushes;
+
+    @Override
+    public void flush() {
+      flushes++;
+    }
+  }
+
+}
@@ -0,0 +1,61 @@
+package org.howietkl.git.command;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CommandContextTest {
+
+  @TempDir
+  File dir;
+
+  @Test
+  void boundOnlyWhileRunning() throws Exception {
+    CommandContext outside = CommandContext.current();
+    CommandContext context = new CommandContext(dir, System.in, new PrintStream(new ByteArrayOutputStream()),
+        new PrintStream(new ByteArrayOutputStream()));
+    AtomicReference<CommandContext> seen = new AtomicReference<>();
+    AtomicReference<CommandContext> seenByOtherThread = new AtomicReference<>();
+    context.run(args -> {
+      seen.set(CommandContext.current());
+      Thread thread = Thread.ofVirtual().start(() -> seenByOtherThread.set(CommandContext.current()));
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }, new String[]{"test"});
+
+    assertSame(context, seen.get());
+    assertNotSame(context, seenByOtherThread.get(), "other threads keep their own");
+    assertSame(outside, CommandContext.current());
+  }
+
+  @Test
+  void unboundAfterFailure() {
+    CommandContext outside = CommandContext.current();
+    CommandContext context = new CommandContext(dir, System.in, System.out, System.err);
+    assertThrows(IllegalStateException.class, () -> context.run(args -> {
+      throw new IllegalStateException("failed");
+    }, new String[]{"test"}));
+    assertSame(outside, CommandContext.current());
+  }
+
+  @Test
+  void resolvesAgainstDir() {
+    CommandContext context = new CommandContext(dir, System.in, System.out, System.err);
+    assertEquals(new File(dir, "a/b"), context.resolve("a/b"));
+    File absolute = new File(dir, "c").getAbsoluteFile();
+    assertEquals(absolute, context.resolve(absolute.getPath()));
+  }
+
+}
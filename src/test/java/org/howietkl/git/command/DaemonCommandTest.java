@@ -0,0 +1,137 @@
+package org.howietkl.git.command;
+
+import org.howietkl.git.GitObjectType;
+import org.howietkl.git.ObjectDatabase;
+import org.howietkl.git.utils.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DaemonCommandTest {
+
+  @TempDir
+  File dir;
+
+  private Path socket;
+  private Thread daemon;
+  private File repoA;
+  private File repoB;
+  private String blobA;
+  private String blobB;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    repoA = new File(dir, "a");
+    repoB = new File(dir, "b");
+    blobA = Utils.bytesToHex(ObjectDatabase.open(repoA).write(GitObjectType.BLOB, "a\n".getBytes(StandardCharsets.UTF_8)));
+    blobB = Utils.bytesToHex(ObjectDatabase.open(repoB).write(GitObjectType.BLOB, "b\n".getBytes(StandardCharsets.UTF_8)));
+    socket = dir.toPath().resolve("daemon.sock");
+    daemon = Thread.ofPlatform().daemon().start(() -> {
+      try {
+        new DaemonCommand().serve(socket);
+      } catch (IOException e) {
+        // interrupted by tearDown
+      }
+    });
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    daemon.interrupt();
+    daemon.join();
+    ObjectDatabase.forget(repoA);
+    ObjectDatabase.forget(repoB);
+  }
+
+  @Test
+  void forwardsArgsAndStdin() throws Exception {
+    Result result = run(repoA, blobA + "\n", "cat-file", "--batch");
+    assertEquals(new Result(0, blobA + " blob 2\na\n\n", ""), result);
+  }
+
+  @Test
+  void runsInRequestDirectory() throws Exception {
+    assertEquals(new Result(0, "a\n", ""), run(repoA, "", "cat-file", "-p", blobA));
+    assertEquals(new Result(0, "b\n", ""), run(repoB, "", "cat-file", "-p", blobB));
+
+    Result missing = run(repoB, "", "cat-file", "-p", blobA);
+    assertEquals(1, missing.exitCode());
+    assertEquals("", missing.out());
+    assertTrue(missing.err().contains("Object not found sha=" + blobA), missing.err());
+  }
+
+  @Test
+  void isolatesStreamsOfConcurrentRequests() throws Exception {
+    List<Future<Result>> results = new ArrayList<>();
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < 20; i++) {
+        File repo = i % 2 == 0 ? repoA : repoB;
+        // odd requests fail: blobA is only in repoA
+        results.add(executor.submit(() -> run(repo, "", "cat-file", "-p", blobA)));
+      }
+    }
+    for (int i = 0; i < results.size(); i++) {
+      Result result = results.get(i).get();
+      if (i % 2 == 0) {
+        assertEquals(new Result(0, "a\n", ""), result, "request " + i);
+      } else {
+        assertEquals(1, result.exitCode(), "request " + i);
+        assertEquals("", result.out(), "request " + i);
+        assertTrue(result.err().contains("Object not found sha=" + blobA), "request " + i);
+      }
+    }
+  }
+
+  private record Result(int exitCode, String out, String err) {
+  }
+
+  private Result run(File workingDir, String stdin, String... args) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    try (SocketChannel channel = connect()) {
+      int exitCode = DaemonClient.run(channel, workingDir, args,
+          new ByteArrayInputStream(stdin.getBytes(StandardCharsets.UTF_8)), new PrintStream(out), new PrintStream(err));
+      return new Result(exitCode, out.toString(StandardCharsets.UTF_8), err.toString(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * The daemon binds its socket on a thread of its own, so retry until it is listening.
+   */
+  private SocketChannel connect() throws Exception {
+    for (int attempt = 0; ; attempt++) {
+      SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+      try {
+        channel.connect(UnixDomainSocketAddress.of(socket));
+        return channel;
+      } catch (IOException e) {
+        channel.close();
+        if (attempt == 100) {
+          throw e;
+        }
+        Thread.sleep(20);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,90 @@
+package org.howietkl.git.command;
+
+import org.howietkl.git.ObjectDatabase;
+import org.howietkl.git.utils.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WriteTreeCommandTest {
+
+  @TempDir
+  File dir;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    new File(dir, ".git/objects").mkdirs();
+    for (int d = 0; d < 10; d++) {
+      File sub = new File(dir, "dir" + d + "/nested");
+      sub.mkdirs();
+      for (int f = 0; f < 20; f++) {
+        Files.writeString(new File(sub.getParentFile(), "file" + f + ".txt").toPath(), d + " " + f + "\n");
+        Files.writeString(new File(sub, "file" + f + ".txt").toPath(), f + " " + d + "\n");
+      }
+    }
+    Files.writeString(new File(dir, "top.txt").toPath(), "top\n");
+  }
+
+  @AfterEach
+  void tearDown() {
+    ObjectDatabase.forget(dir);
+  }
+
+  @Test
+  void parallelMatchesSerial() throws Exception {
+    File index = new File(dir, ".git/index");
+    String serial;
+    try (ForkJoinPool pool = new ForkJoinPool(1)) {
+      serial = Utils.bytesToHex(new WriteTreeCommand().writeTree(dir, pool));
+    }
+    byte[] serialIndex = Files.readAllBytes(index.toPath());
+    Files.delete(index.toPath());
+
+    assertEquals(serial, Utils.bytesToHex(new WriteTreeCommand().writeTree(dir)));
+    assertArrayEquals(serialIndex, Files.readAllBytes(index.toPath()));
+    // and again with every file and tree reused from the index
+    assertEquals(serial, Utils.bytesToHex(new WriteTreeCommand().writeTree(dir)));
+  }
+
+  @Test
+  void removedEmptyDirectoryIsNotReused() throws Exception {
+    File empty = new File(dir, "dir3/nested/empty");
+    empty.mkdir();
+    String withEmpty = Utils.bytesToHex(new WriteTreeCommand().writeTree(dir));
+    assertEquals(withEmpty, Utils.bytesToHex(new WriteTreeCommand().writeTree(dir)));
+
+    Files.delete(empty.toPath());
+    String withoutEmpty = Utils.bytesToHex(new WriteTreeCommand().writeTree(dir));
+    Files.delete(new File(dir, ".git/index").toPath());
+    assertEquals(Utils.bytesToHex(new WriteTreeCommand().writeTree(dir)), withoutEmpty);
+    assertNotEquals(withEmpty, withoutEmpty);
+  }
+
+  @Test
+  void failureIsPropagated() throws Exception {
+    // stat does not follow the link, but hashing the file does
+    Files.createSymbolicLink(new File(dir, "dir5/nested/dangling").toPath(), new File(dir, "missing").toPath());
+
+    RuntimeException thrown = assertThrows(RuntimeException.class, () -> new WriteTreeCommand().writeTree(dir));
+    Throwable cause = thrown;
+    while (cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    assertInstanceOf(NoSuchFileException.class, cause);
+    assertFalse(new File(dir, ".git/index").exists(), "no index written for a failed walk");
+  }
+
+}
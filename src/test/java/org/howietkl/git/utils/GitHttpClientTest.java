@@ -0,0 +1,109 @@
+package org.howietkl.git.utils;
+
+import org.howietkl.git.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GitHttpClientTest {
+
+  @Test
+  void readPackSection() throws Exception {
+    String response = "000dpackfile\n"
+        + "0014\u0002Enumerating...\n"
+        + "0009\u0001PACK"
+        + "0008\u0001\u0000\u0000\u0000"
+        + "0000";
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    long size = GitHttpClient.readPackSection(reader(response), out);
+    assertEquals(7, size);
+    assertArrayEquals("PACK\0\0\0".getBytes(StandardCharsets.ISO_8859_1), out.toByteArray());
+  }
+
+  @Test
+  void readPackSectionSkipsEarlierSections() throws Exception {
+    String response = "0011shallow-info\n"
+        + "0001"
+        + "000dpackfile\n"
+        + "0009\u0001PACK"
+        + "0000";
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(4, GitHttpClient.readPackSection(reader(response), out));
+  }
+
+  @Test
+  void readPackSectionCollectsShallowInfo() throws Exception {
+    String response = "0011shallow-info\n"
+        + "0035shallow 0123456789abcdef0123456789abcdef01234567\n"
+        + "0037unshallow 89abcdef0123456789abcdef0123456789abcdef\n"
+        + "0001"
+        + "000dpackfile\n"
+        + "0009\u0001PACK"
+        + "0000";
+    FetchResponse fetched = new FetchResponse();
+    GitHttpClient.readPackSection(reader(response), new ByteArrayOutputStream(), fetched);
+    assertEquals(Set.of(ObjectId.fromHex("0123456789abcdef0123456789abcdef01234567")), fetched.getShallow());
+    assertEquals(Set.of(ObjectId.fromHex("89abcdef0123456789abcdef0123456789abcdef")), fetched.getUnshallow());
+  }
+
+  @Test
+  void readPackSectionAcknowledgmentsOnly() throws Exception {
+    String response = "0014acknowledgments\n"
+        + "0031ACK 0123456789abcdef0123456789abcdef01234567\n"
+        + "0000";
+    FetchResponse fetched = new FetchResponse();
+    assertEquals(-1, GitHttpClient.readPackSection(reader(response), new ByteArrayOutputStream(), fetched));
+    assertEquals(Set.of(ObjectId.fromHex("0123456789abcdef0123456789abcdef01234567")), fetched.getAcks());
+    assertFalse(fetched.isReady());
+  }
+
+  @Test
+  void readPackSectionReady() throws Exception {
+    String response = "0014acknowledgments\n"
+        + "000aready\n"
+        + "0001"
+        + "000dpackfile\n"
+        + "0009\u0001PACK"
+        + "0000";
+    FetchResponse fetched = new FetchResponse();
+    assertEquals(4, GitHttpClient.readPackSection(reader(response), new ByteArrayOutputStream(), fetched));
+    assertTrue(fetched.isReady());
+  }
+
+  @Test
+  void pktLineWriter() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new PktLineWriter(out).line("command=fetch").delim().line("deepen 1").flush();
+    assertEquals("0012command=fetch\n0001000ddeepen 1\n0000", out.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void readPackSectionRemoteError() {
+    String response = "000dpackfile\n"
+        + "0009\u0003oops"
+        + "0000";
+    assertThrows(IllegalStateException.class,
+        () -> GitHttpClient.readPackSection(reader(response), new ByteArrayOutputStream()));
+  }
+
+  @Test
+  void parseLength() throws Exception {
+    assertEquals(0xffe0, PktLineReader.parseLength("ffe0".getBytes(StandardCharsets.US_ASCII)));
+    assertEquals(PktLineReader.DELIM_PKT, reader("0001").read());
+    assertEquals(PktLineReader.END_OF_STREAM, reader("").read());
+  }
+
+  private static PktLineReader reader(String s) {
+    return new PktLineReader(new ByteArrayInputStream(s.getBytes(StandardCharsets.ISO_8859_1)));
+  }
+
+}
@@ -0,0 +1,113 @@
+package org.howietkl.git.utils;
+
+import com.sun.net.httpserver.HttpServer;
+import org.howietkl.git.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HttpTransportTest {
+  private static final String HEAD = "0123456789abcdef0123456789abcdef01234567";
+
+  private HttpServer server;
+  private String url;
+  private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+  private volatile String lastRequest;
+  private volatile String lastContentEncoding;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    // ls-refs response, gzipped as a proxy in front of git might
+    server.createContext("/repo.git/git-upload-pack", exchange -> {
+      clientPorts.add(exchange.getRemoteAddress().getPort());
+      lastContentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+      InputStream in = exchange.getRequestBody();
+      if ("gzip".equals(lastContentEncoding)) {
+        in = new GZIPInputStream(in);
+      }
+      lastRequest = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      try (OutputStream gzip = new GZIPOutputStream(body)) {
+        new PktLineWriter(gzip)
+            .line(HEAD + " HEAD symref-target:refs/heads/main")
+            .line(HEAD + " refs/heads/main")
+            .flush();
+      }
+      exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+      exchange.sendResponseHeaders(200, body.size());
+      try (OutputStream out = exchange.getResponseBody()) {
+        body.writeTo(out);
+      }
+    });
+    server.start();
+    url = "http://127.0.0.1:" + server.getAddress().getPort() + "/repo.git";
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  void lsRefs() throws Exception {
+    List<RemoteRef> refs = GitHttpClient.lsRefs(url);
+    assertEquals(List.of(
+        new RemoteRef("HEAD", ObjectId.fromHex(HEAD), "refs/heads/main"),
+        new RemoteRef("refs/heads/main", ObjectId.fromHex(HEAD), null)), refs);
+    assertEquals("0014command=ls-refs\n0001000csymrefs\n0014ref-prefix HEAD\n001bref-prefix refs/heads/\n0000",
+        lastRequest);
+  }
+
+  @Test
+  void reusesConnection() throws Exception {
+    HttpTransport transport = HttpTransport.forRemote(url);
+    for (int i = 0; i < 3; i++) {
+      GitHttpClient.lsRefs(url);
+    }
+    assertEquals(3, transport.getRequests());
+    assertEquals(1, clientPorts.size(), "requests should share one connection, ports=" + clientPorts);
+  }
+
+  @Test
+  void gzipsLargeRequests() throws Exception {
+    byte[] body = "x".repeat(HttpTransport.GZIP_THRESHOLD + 1).getBytes(StandardCharsets.UTF_8);
+    try (InputStream in = HttpTransport.forRemote(url).post("/git-upload-pack", body)) {
+      in.readAllBytes();
+    }
+    assertEquals("gzip", lastContentEncoding);
+    assertEquals(new String(body, StandardCharsets.UTF_8), lastRequest);
+    assertTrue(HttpTransport.forRemote(url).toString().contains("requests=1"));
+  }
+
+  @Test
+  void evictsLeastRecentlyUsedRemote() {
+    HttpTransport transport = HttpTransport.forRemote(url);
+    for (int i = 0; i < HttpTransport.REMOTE_LIMIT - 1; i++) {
+      HttpTransport.forRemote(url + "/other" + i);
+    }
+    assertSame(transport, HttpTransport.forRemote(url), "still within the limit");
+    for (int i = 0; i < HttpTransport.REMOTE_LIMIT; i++) {
+      HttpTransport.forRemote(url + "/more" + i);
+    }
+    assertNotSame(transport, HttpTransport.forRemote(url));
+  }
+
+}